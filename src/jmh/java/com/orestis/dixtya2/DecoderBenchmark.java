@@ -0,0 +1,108 @@
+package com.orestis.dixtya2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode throughput of {@link DpcmDecoder} and {@link AqDpcmDecoder}.
+ * <p>
+ * Packets are produced by {@link SoundEncoder} from a synthetic track, so they have the real 128 and 132 byte
+ * layouts. The {@code *Packet} benchmarks decode one packet per operation, walking through the track, and the
+ * {@code *Track} benchmarks decode a whole track per invocation, reported per packet. Run with {@code -prof gc}
+ * for the allocation rate.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecoderBenchmark {
+    /**
+     * Number of packets of a full track, the maximum ithaki sends.
+     */
+    static final int TRACK_PACKAGES = 999;
+
+    @Param({"23"})
+    int trackId;
+
+    byte[][] dpcmPackets;
+    byte[][] aqdpcmPackets;
+    byte[] dpcmDecoded;
+    byte[] aqdpcmDecoded;
+    DpcmDecoder dpcmDecoder;
+    AqDpcmDecoder aqdpcmDecoder;
+    int packageId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        dpcmPackets = encode(false, IthakiStandIn.generateTrack(trackId,
+                TRACK_PACKAGES * SoundEncoder.SAMPLES_PER_PACKAGE, 100));
+        aqdpcmPackets = encode(true, IthakiStandIn.generateTrack(trackId,
+                TRACK_PACKAGES * SoundEncoder.SAMPLES_PER_PACKAGE, 8000));
+        dpcmDecoded = new byte[2 * Decoder.AUDIO_PACKAGE_LENGTH * TRACK_PACKAGES];
+        aqdpcmDecoded = new byte[4 * Decoder.AUDIO_PACKAGE_LENGTH * TRACK_PACKAGES];
+        dpcmDecoder = new DpcmDecoder();
+        aqdpcmDecoder = new AqDpcmDecoder();
+    }
+
+    static byte[][] encode(final boolean useAQ, final int[] samples) {
+        final SoundEncoder encoder = SoundEncoder.create(useAQ);
+        final byte[][] packets = new byte[TRACK_PACKAGES][encoder.packetLength()];
+        for (int i = 0; i < TRACK_PACKAGES; i++) {
+            encoder.encode(samples, i * SoundEncoder.SAMPLES_PER_PACKAGE, packets[i]);
+        }
+        return packets;
+    }
+
+    int nextPackageId() {
+        final int id = packageId;
+        packageId = id + 1 == TRACK_PACKAGES ? 0 : id + 1;
+        return id;
+    }
+
+    @Benchmark
+    public byte[] dpcmPacket() {
+        final int id = nextPackageId();
+        dpcmDecoder.decode(dpcmPackets[id], dpcmDecoded, 2 * Decoder.AUDIO_PACKAGE_LENGTH * id);
+        return dpcmDecoded;
+    }
+
+    @Benchmark
+    public byte[] aqdpcmPacket() {
+        final int id = nextPackageId();
+        aqdpcmDecoder.decode(aqdpcmPackets[id], aqdpcmDecoded, 4 * Decoder.AUDIO_PACKAGE_LENGTH * id);
+        return aqdpcmDecoded;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRACK_PACKAGES)
+    public byte[] dpcmTrack() {
+        for (int id = 0; id < TRACK_PACKAGES; id++) {
+            dpcmDecoder.decode(dpcmPackets[id], dpcmDecoded, 2 * Decoder.AUDIO_PACKAGE_LENGTH * id);
+        }
+        return dpcmDecoded;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRACK_PACKAGES)
+    public byte[] aqdpcmTrack() {
+        for (int id = 0; id < TRACK_PACKAGES; id++) {
+            aqdpcmDecoder.decode(aqdpcmPackets[id], aqdpcmDecoded, 4 * Decoder.AUDIO_PACKAGE_LENGTH * id);
+        }
+        return aqdpcmDecoded;
+    }
+}
@@ -0,0 +1,168 @@
+package com.orestis.dixtya2;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link Decoder} used for AQ-DPCM decoding of audio bytes.
+ * <p>
+ * It is stateful: an instance must not be shared between concurrent downloads. Decoding a packet allocates
+ * nothing once the history buffers have grown to the track length.</p>
+ */
+public class AqDpcmDecoder implements Decoder {
+    private final static Logger logger = Logger.getLogger(AqDpcmDecoder.class.getName());
+    /**
+     * Old value of last delta2.
+     */
+    int oldDelta2;
+    /**
+     * Initial capacity of the histories, enough for the longest track ithaki sends.
+     */
+    static final int HISTORY_CAPACITY = 999;
+    /**
+     * Save history of values of mean m.
+     */
+    final IntHistory meanHistory = new IntHistory(HISTORY_CAPACITY);
+    /**
+     * Save history of values of step b.
+     */
+    final IntHistory stepHistory = new IntHistory(HISTORY_CAPACITY);
+
+    @Override
+    public void saveHistory(final File filename) throws FileNotFoundException {
+        final PrintWriter out = new PrintWriter(filename);
+        out.println("{");
+        out.print("  \"mean\":");
+        meanHistory.print(out);
+        out.println(",");
+        out.print("  \"step\":");
+        stepHistory.print(out);
+        out.println();
+        out.println("}");
+        out.close();
+    }
+
+    /**
+     * Get an integer from low and high bytes using little endian format.
+     * @param first The first byte.
+     * @param second The second byte.
+     * @return The integer.
+     */
+    static int getInt(final byte first, final byte second) {
+        return (short) ((first & 0xff) | (second << 8));
+    }
+
+    /**
+     * Get low byte of 16-bit integer.
+     * @param x The integer.
+     * @return The low byte.
+     */
+    static byte getLowByte(final int x) {
+        return (byte) (x & 0xff);
+    }
+
+    /**
+     * Get high byte of 16-bit integer.
+     * @param x The integer.
+     * @return The high byte.
+     */
+    static byte getHighByte(final int x) {
+        return (byte) ((x >> 8) & 0xff);
+    }
+
+    /**
+     * Fade linearly from the last sample to the mean of the last packet, where the next packet most likely starts
+     * since samples are coded around the mean. The carried {@code delta2} is unknown and is reset, which offsets only
+     * the first sample of the next packet by at most one step. The mean and step of the last packet are repeated in
+     * the histories, so they stay one entry per packet.
+     */
+    @Override
+    public void conceal(final byte[] decoded, int decodedIndex) {
+        if (decodedIndex == 0) {
+            meanHistory.clear();
+            stepHistory.clear();
+        }
+        final int size = meanHistory.size();
+        final int mean = size > 0 ? meanHistory.get(size - 1) : 0;
+        final int step = size > 0 ? stepHistory.get(size - 1) : 0;
+        meanHistory.add(mean);
+        stepHistory.add(step);
+        oldDelta2 = 0;
+        final int last = decodedIndex > 0 ? getInt(decoded[decodedIndex - 2], decoded[decodedIndex - 1]) : 0;
+        final int samples = 2 * AUDIO_PACKAGE_LENGTH;
+        for (int i = 1; i <= samples; i++) {
+            final int X = last + (mean - last) * i / samples;
+            decoded[decodedIndex++] = getLowByte(X);
+            decoded[decodedIndex++] = getHighByte(X);
+        }
+    }
+
+    @Override
+    public void decode(final byte[] buffer, final byte[] decoded, int decodedIndex) {
+        if (decodedIndex == 0) {
+            // When we start decoding a new audio file, initialize last byte to 0.
+            oldDelta2 = 0;
+            meanHistory.clear();
+            stepHistory.clear();
+        }
+
+        // Grab mean and step from header.
+        final int mean = getInt(buffer[0], buffer[1]);
+        meanHistory.add(mean);
+        final int step = getInt(buffer[2], buffer[3]);
+        stepHistory.add(step);
+        if (logger.isLoggable(Level.FINEST)) {
+            logger.finest("mean: " + mean + " step: " + step);
+        }
+        oldDelta2 = decode(buffer, 0, decoded, decodedIndex, oldDelta2);
+    }
+
+    /**
+     * Decode a packet, header included, without touching the histories.
+     *
+     * @param buffer       Array holding the packet.
+     * @param offset       Index of the packet's first byte.
+     * @param decoded      The decoded result.
+     * @param decodedIndex The place to start decoding in the buffer.
+     * @param oldDelta2    The last delta2 of the packet before, 0 for the first packet.
+     * @return The last delta2 of the packet.
+     */
+    static int decode(final byte[] buffer, final int offset, final byte[] decoded, int decodedIndex,
+                      int oldDelta2) {
+        final int mean = getInt(buffer[offset], buffer[offset + 1]);
+        final int step = getInt(buffer[offset + 2], buffer[offset + 3]);
+        for (int i = offset + 4; i < offset + AUDIO_PACKAGE_LENGTH + 4; ++i) {
+            final byte lsByte = (byte) (buffer[i] & 0x0f);
+            final byte msByte = (byte) ((buffer[i] >> 4) & 0x0f);
+            final int delta1 = (msByte - 8) * step;
+            final int delta2 = (lsByte - 8) * step;
+
+            final int X1 = delta1 + oldDelta2 + mean;
+            final int X2 = delta2 + delta1 + mean;
+            oldDelta2 = delta2;
+
+            decoded[decodedIndex++] = getLowByte(X1);
+            decoded[decodedIndex++] = getHighByte(X1);
+            decoded[decodedIndex++] = getLowByte(X2);
+            decoded[decodedIndex++] = getHighByte(X2);
+
+        }
+        return oldDelta2;
+    }
+
+    /**
+     * The last delta2 of a packet, carried into the first sample of the next one: its last low nibble times its
+     * step.
+     *
+     * @param buffer Array holding the packet.
+     * @param offset Index of the packet's first byte.
+     * @return The delta2.
+     */
+    static int lastDelta2(final byte[] buffer, final int offset) {
+        return ((buffer[offset + AUDIO_PACKAGE_LENGTH + 3] & 0x0f) - 8)
+                * getInt(buffer[offset + 2], buffer[offset + 3]);
+    }
+}
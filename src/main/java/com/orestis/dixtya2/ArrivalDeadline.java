@@ -0,0 +1,121 @@
+package com.orestis.dixtya2;
+
+/**
+ * Deadline for the next packet of a stream sent at a steady rate, derived from the inter-arrival times seen so far.
+ * <p>
+ * The mean and mean deviation of the inter-arrival time are smoothed like the round trip time of TCP (RFC 6298)
+ * and the deadline is twice the mean plus four deviations, so jitter stretches it while a steady stream keeps it
+ * tight. Packets carry no sequence number, so a packet arriving after its deadline is taken for the next one:
+ * the deadline has a floor well above scheduling and GC pauses, for servers that send in bursts.
+ * Until two packets have arrived there is no estimate and the initial timeout is used. A packet whose deadline
+ * passes is considered lost. Once nothing has arrived for the whole gap budget, the stream is considered over.</p>
+ * <p>
+ * A single lost packet of a paced stream doesn't reach the deadline, so it is also inferred from the gap before
+ * the next arrival: a gap longer than the mean plus half the mean or four deviations, whichever is more, and of
+ * about {@code n + 1} mean intervals means {@code n} packets were lost. Packets sent back-to-back, less than
+ * {@link ArrivalDeadline#MIN_PACED_INTERVAL_NANOS} apart, get no such inference, since any pause would look like
+ * a long run of losses. Neither does a stream whose estimate hasn't settled: while the intervals keep landing on
+ * one side of the mean, eg as it climbs after a burst, each gap would be split into too many short intervals and
+ * the estimate would lock onto a fraction of the real one. For the same reason a gap right after one that was
+ * taken for loss isn't: a pace that is a whole multiple of the estimate looks like steady loss without any drift,
+ * while real losses seldom leave a single packet between them.</p>
+ */
+public class ArrivalDeadline {
+    /**
+     * Lower bound of the deadline, so pauses on a fast stream aren't taken for loss.
+     */
+    static final long MIN_DEADLINE_NANOS = 100000000;
+    /**
+     * Smallest mean inter-arrival time of a stream paced by the server, below which loss isn't inferred from gaps.
+     */
+    static final long MIN_PACED_INTERVAL_NANOS = 2000000;
+
+    final long initialTimeoutNanos;
+    final long gapBudgetNanos;
+    /**
+     * Smoothed inter-arrival time, 0 until two packets have arrived.
+     */
+    long meanNanos;
+    /**
+     * Smoothed mean deviation of the inter-arrival time.
+     */
+    long deviationNanos;
+    /**
+     * Smoothed signed difference of the inter-arrival time from the mean, away from 0 while the mean is drifting.
+     */
+    long driftNanos;
+    /**
+     * {@link System#nanoTime()} of the last arrival, or of the start.
+     */
+    long lastArrival;
+    boolean arrived;
+    /**
+     * Whether packets were inferred lost at the last arrival.
+     */
+    boolean inferred;
+
+    /**
+     * @param initialTimeoutMillis Time to wait for the first two packets, and upper bound of the deadline.
+     * @param gapBudgetMillis      Time without any packet after which the stream is considered over.
+     */
+    public ArrivalDeadline(final long initialTimeoutMillis, final long gapBudgetMillis) {
+        initialTimeoutNanos = initialTimeoutMillis * 1000000;
+        gapBudgetNanos = gapBudgetMillis * 1000000;
+        lastArrival = System.nanoTime();
+    }
+
+    /**
+     * Record the arrival of a packet.
+     *
+     * @param nanos {@link System#nanoTime()} of the arrival.
+     * @return Number of packets inferred lost since the previous arrival, including any whose deadline passed.
+     */
+    public int onArrival(final long nanos) {
+        int missing = 0;
+        if (arrived) {
+            final long gap = nanos - lastArrival;
+            if (meanNanos >= MIN_PACED_INTERVAL_NANOS && Math.abs(driftNanos) < meanNanos / 4 && !inferred
+                    && gap > meanNanos + Math.max(meanNanos / 2, 4 * deviationNanos)) {
+                missing = (int) Math.min(Integer.MAX_VALUE, (gap + meanNanos / 2) / meanNanos - 1);
+            }
+            // Smooth the interval between packets sent, not the gap left by the lost ones.
+            final long interval = gap / (missing + 1);
+            if (meanNanos == 0) {
+                meanNanos = interval;
+                deviationNanos = interval / 2;
+            } else {
+                driftNanos += (interval - meanNanos - driftNanos) / 4;
+                deviationNanos += (Math.abs(interval - meanNanos) - deviationNanos) / 4;
+                meanNanos += (interval - meanNanos) / 8;
+            }
+        }
+        arrived = true;
+        inferred = missing > 0;
+        lastArrival = nanos;
+        return missing;
+    }
+
+    /**
+     * @return Time to wait for the next packet, at least 1 ms.
+     */
+    public long getDeadlineMillis() {
+        if (meanNanos == 0) {
+            return Math.max(1, initialTimeoutNanos / 1000000);
+        }
+        final long deadline = Math.min(initialTimeoutNanos,
+                Math.max(MIN_DEADLINE_NANOS, 2 * meanNanos + 4 * deviationNanos));
+        return Math.max(1, deadline / 1000000);
+    }
+
+    /**
+     * @param nanos {@link System#nanoTime()} now.
+     * @return {@code true} if nothing has arrived for the whole gap budget.
+     */
+    public boolean isExhausted(final long nanos) {
+        return nanos - lastArrival >= gapBudgetNanos;
+    }
+
+    public long getMeanNanos() {
+        return meanNanos;
+    }
+}
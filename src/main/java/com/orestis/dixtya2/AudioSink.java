@@ -0,0 +1,31 @@
+package com.orestis.dixtya2;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+
+/**
+ * Destination of decoded audio, eg the sound card or nothing at all on headless machines.
+ */
+public interface AudioSink {
+    /**
+     * Prepare the sink for audio of the given format.
+     *
+     * @param format The format of the data that will be written.
+     * @throws LineUnavailableException
+     */
+    void open(AudioFormat format) throws LineUnavailableException;
+
+    /**
+     * Write audio data, blocking while the sink can't accept more.
+     *
+     * @param data   The audio data.
+     * @param offset Index of the first byte to write.
+     * @param length Number of bytes to write.
+     */
+    void write(byte[] data, int offset, int length);
+
+    /**
+     * Play any remaining data and release the sink.
+     */
+    void close();
+}
@@ -0,0 +1,43 @@
+package com.orestis.dixtya2;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of equally sized direct {@link ByteBuffer}s, so that receiving datagrams doesn't allocate.
+ * <p>
+ * Not thread-safe: it is meant to be owned by a single {@link Reactor} thread.</p>
+ */
+public class BufferPool {
+    final int bufferSize;
+    final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>();
+
+    /**
+     * @param bufferSize     Capacity of each buffer, at least the largest expected datagram.
+     * @param initialBuffers Number of buffers allocated up front.
+     */
+    public BufferPool(final int bufferSize, final int initialBuffers) {
+        this.bufferSize = bufferSize;
+        for (int i = 0; i < initialBuffers; i++) {
+            buffers.push(ByteBuffer.allocateDirect(bufferSize));
+        }
+    }
+
+    /**
+     * @return A cleared buffer, allocating a new one if the pool is empty.
+     */
+    public ByteBuffer acquire() {
+        final ByteBuffer buffer = buffers.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Return a buffer to the pool.
+     *
+     * @param buffer A buffer obtained by {@link BufferPool#acquire()}.
+     */
+    public void release(final ByteBuffer buffer) {
+        buffer.clear();
+        buffers.push(buffer);
+    }
+}
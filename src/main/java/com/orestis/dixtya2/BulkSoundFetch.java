@@ -0,0 +1,198 @@
+package com.orestis.dixtya2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Downloads many sound tracks at once, each on a port pair taken from a {@link PortPool}.
+ * <p>
+ * At most {@code concurrency} downloads run at a time, and never more than there are port pairs. The
+ * {@link Downloader} must use a decoder of its own for every download, since decoders carry state from packet to
+ * packet.</p>
+ */
+public class BulkSoundFetch {
+    private final static Logger logger = Logger.getLogger(BulkSoundFetch.class.getName());
+
+    /**
+     * Downloads a track on the given port pair.
+     */
+    public interface Downloader {
+        SoundResult download(int portOffset, int trackId, boolean useAQ, int totalPackages) throws Exception;
+    }
+
+    /**
+     * Outcome of one download of a bulk fetch.
+     */
+    public static class TrackResult {
+        final int trackId;
+        final boolean useAQ;
+        final SoundResult sound;
+        final Exception failure;
+        final long startNanos;
+        final long endNanos;
+
+        TrackResult(final int trackId, final boolean useAQ, final SoundResult sound, final Exception failure,
+                    final long startNanos, final long endNanos) {
+            this.trackId = trackId;
+            this.useAQ = useAQ;
+            this.sound = sound;
+            this.failure = failure;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+        }
+
+        public int getTrackId() {
+            return trackId;
+        }
+
+        public boolean isUseAQ() {
+            return useAQ;
+        }
+
+        /**
+         * @return The download's result, {@code null} if it failed.
+         */
+        public SoundResult getSound() {
+            return sound;
+        }
+
+        /**
+         * @return Why the download failed, {@code null} if it didn't.
+         */
+        public Exception getFailure() {
+            return failure;
+        }
+
+        public long getElapsedNanos() {
+            return endNanos - startNanos;
+        }
+    }
+
+    final PortPool ports;
+    final int concurrency;
+
+    /**
+     * @param ports       Port pairs the downloads run on.
+     * @param concurrency Maximum number of downloads at once.
+     */
+    public BulkSoundFetch(final PortPool ports, final int concurrency) {
+        if (concurrency < 1) {
+            final String message = "Invalid bulk fetch concurrency: " + concurrency;
+            logger.severe(message);
+            throw new IllegalArgumentException(message);
+        }
+        this.ports = ports;
+        this.concurrency = Math.min(concurrency, ports.size());
+    }
+
+    /**
+     * Parse a list of track numbers.
+     *
+     * @param tracks Comma separated numbers and ranges, eg {@code "1-10,23"}.
+     * @return The track numbers, in order.
+     */
+    public static List<Integer> parseTracks(final String tracks) {
+        final List<Integer> result = new ArrayList<>();
+        for (final String part : tracks.split(",")) {
+            final String trimmed = part.trim();
+            final int dash = trimmed.indexOf('-');
+            try {
+                final int first = Integer.parseInt(dash > 0 ? trimmed.substring(0, dash).trim() : trimmed);
+                final int last = dash > 0 ? Integer.parseInt(trimmed.substring(dash + 1).trim()) : first;
+                for (int track = first; track <= last; track++) {
+                    result.add(track);
+                }
+            } catch (final NumberFormatException exception) {
+                final String message = "Invalid track list: " + tracks;
+                logger.severe(message);
+                throw new IllegalArgumentException(message);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Download every track in every mode.
+     *
+     * @param downloader    Downloads a single track.
+     * @param trackIds      The tracks.
+     * @param modes         The modes, {@code false} for DPCM and {@code true} for AQ-DPCM.
+     * @param totalPackages Packets per track.
+     * @return The result of each download, in the order of {@code trackIds}, then {@code modes}.
+     * @throws InterruptedException
+     */
+    public List<TrackResult> fetch(final Downloader downloader, final List<Integer> trackIds, final boolean[] modes,
+                                   final int totalPackages) throws InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        final List<Future<TrackResult>> futures = new ArrayList<>();
+        final long start = System.nanoTime();
+        for (final int trackId : trackIds) {
+            for (final boolean useAQ : modes) {
+                futures.add(executor.submit(() -> {
+                    final int portOffset = ports.acquire();
+                    final long trackStart = System.nanoTime();
+                    try {
+                        return new TrackResult(trackId, useAQ,
+                                downloader.download(portOffset, trackId, useAQ, totalPackages), null, trackStart,
+                                System.nanoTime());
+                    } catch (final Exception exception) {
+                        logger.severe(String.format("Track %d %s failed: %s", trackId, useAQ ? "AQ-DPCM" : "DPCM",
+                                exception));
+                        return new TrackResult(trackId, useAQ, null, exception, trackStart, System.nanoTime());
+                    } finally {
+                        ports.release(portOffset);
+                    }
+                }));
+            }
+        }
+        executor.shutdown();
+        final List<TrackResult> results = new ArrayList<>(futures.size());
+        try {
+            for (final Future<TrackResult> future : futures) {
+                results.add(future.get());
+            }
+        } catch (final ExecutionException exception) {
+            // Failures are caught inside the task, so this is a bug.
+            throw new IllegalStateException(exception.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        logger.info(report(results, System.nanoTime() - start));
+        return results;
+    }
+
+    /**
+     * @param results      Results of a bulk fetch.
+     * @param elapsedNanos Duration of the whole fetch.
+     * @return A report of the aggregate throughput and the completion time of each track.
+     */
+    public static String report(final List<TrackResult> results, final long elapsedNanos) {
+        long packets = 0;
+        long bytes = 0;
+        int failed = 0;
+        final StringBuilder tracks = new StringBuilder();
+        for (final TrackResult result : results) {
+            tracks.append(String.format("%nL%02d %-7s ", result.trackId, result.useAQ ? "AQ-DPCM" : "DPCM"));
+            if (result.sound == null) {
+                failed++;
+                tracks.append(String.format("failed after %d ms: %s", result.getElapsedNanos() / 1000000,
+                        result.failure));
+            } else {
+                packets += result.sound.getReceived();
+                bytes += (long) result.sound.getReceived()
+                        * (Decoder.AUDIO_PACKAGE_LENGTH + (result.useAQ ? 4 : 0));
+                tracks.append(String.format("done in %d ms: %s", result.getElapsedNanos() / 1000000,
+                        result.sound));
+            }
+        }
+        final double seconds = Math.max(1, elapsedNanos) / 1e9;
+        return String.format("Fetched %d tracks (%d failed) in %.1f s: %d packets, %.1f packets/s, %.1f kbit/s.",
+                results.size() - failed, failed, seconds, packets, packets / seconds, 8 * bytes / seconds / 1000)
+                + tracks;
+    }
+}
@@ -0,0 +1,288 @@
+package com.orestis.dixtya2;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+/**
+ * Continuous capture of a camera: frames are requested back to back for a duration, like a video feed.
+ * <p>
+ * The calling thread receives each frame's packets straight into a {@link FramePool} frame and hands it over
+ * complete to a consumer thread, which writes it to an optional MJPEG file, the concatenated JPEG frames that eg
+ * {@code ffplay -f mjpeg} plays, and records its statistics. The receiver never waits for the consumer, and a
+ * consumer that falls behind skips frames instead.</p>
+ * <p>
+ * A frame ends like a download of {@code downloadImage}: on the end of image marker, on a packet shorter than the
+ * packet length, or on a timeout, after which the incomplete frame is discarded and the late packets of it are
+ * drained before the next frame is requested, so they don't land in that one. Its latency runs from its request to
+ * its last packet. Frames are counted in {@link Metrics#IMAGE_FRAME} and their packets in
+ * {@link Metrics#IMAGE}.</p>
+ */
+public class CameraStream {
+    private final static Logger logger = Logger.getLogger(CameraStream.class.getName());
+    /**
+     * Time the consumer waits for a frame before checking whether the stream is over.
+     */
+    static final int POLL_MILLIS = 50;
+    /**
+     * Time without packets after which the socket is considered drained after an incomplete frame.
+     */
+    static final int QUIET_MILLIS = 100;
+
+    /**
+     * Outcome of a stream.
+     */
+    public static class Result {
+        final String command;
+        final LatencyHistogram latency = new LatencyHistogram();
+        long frames;
+        long bytes;
+        long received;
+        long incomplete;
+        long dropped;
+        long elapsedNanos;
+
+        Result(final String command) {
+            this.command = command;
+        }
+
+        /**
+         * @return Frames consumed per second.
+         */
+        public double getFramesPerSecond() {
+            return frames * 1e9 / Math.max(1, elapsedNanos);
+        }
+
+        /**
+         * @return Bytes of the frames consumed per second.
+         */
+        public double getBytesPerSecond() {
+            return bytes * 1e9 / Math.max(1, elapsedNanos);
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getFrames() {
+            return frames;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d frames in %.1f s, %.2f frames/s, %.0f bytes/s, %d skipped by the consumer, "
+                            + "%d incomplete. Frame latency ms: p50 %.3f p90 %.3f p99 %.3f max %.3f", command, frames,
+                    elapsedNanos / 1e9, getFramesPerSecond(), getBytesPerSecond(), dropped, incomplete,
+                    latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(90) / 1e6,
+                    latency.getValueAtPercentile(99) / 1e6, latency.getMax() / 1e6);
+        }
+    }
+
+    final DatagramSocket server;
+    final DatagramSocket client;
+    final String command;
+    final int maxLength;
+    final boolean useFlow;
+    final RtoEstimator rto;
+    final FramePool pool;
+    final File mjpegFile;
+    volatile boolean receiving;
+
+    /**
+     * @param server    Socket connected to the server's port, requests are sent from.
+     * @param client    Socket packets arrive at.
+     * @param command   The image command, eg {@code "M1234UDP=1024CAM=FIX"}.
+     * @param maxLength The length of each UDP packet.
+     * @param useFlow   {@code true} if the command asks for FLOW, so each packet after the first is requested.
+     * @param rto       Timeout of the waits for packets, sampled with the first packet of each frame.
+     * @param frames    Frames in the pool, at least {@link FramePool#MIN_FRAMES}.
+     * @param mjpegFile File the frames are written to, {@code null} for none.
+     */
+    public CameraStream(final DatagramSocket server, final DatagramSocket client, final String command,
+                        final int maxLength, final boolean useFlow, final RtoEstimator rto, final int frames,
+                        final File mjpegFile) {
+        this.server = server;
+        this.client = client;
+        this.command = command;
+        this.maxLength = maxLength;
+        this.useFlow = useFlow;
+        this.rto = rto;
+        // Room for a typical frame of the cameras, frames grow for larger ones.
+        pool = new FramePool(frames, 64 * maxLength);
+        this.mjpegFile = mjpegFile;
+    }
+
+    /**
+     * Stream frames for a while.
+     *
+     * @param durationMillis Time after which no further frame is requested.
+     * @return The outcome.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public Result run(final long durationMillis) throws IOException, InterruptedException {
+        final Result result = new Result(command);
+        final FileChannel out = mjpegFile != null ? FileChannel.open(mjpegFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING) : null;
+        final IOException[] consumeFailure = new IOException[1];
+        receiving = true;
+        final Thread consumer = new Thread(() -> {
+            try {
+                consume(out, result);
+            } catch (final IOException exception) {
+                consumeFailure[0] = exception;
+            } catch (final InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        }, "camera-" + command);
+        logger.info(String.format("Streaming %s for %d ms.", command, durationMillis));
+        final long start = System.nanoTime();
+        consumer.start();
+        try {
+            receive(start + durationMillis * 1000000, result);
+        } finally {
+            receiving = false;
+            consumer.join();
+            if (out != null) {
+                out.close();
+            }
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        result.dropped = pool.getDropped();
+        if (consumeFailure[0] != null) {
+            throw consumeFailure[0];
+        }
+        logger.info(result.toString());
+        return result;
+    }
+
+    /**
+     * Receive frames until the end time, run by the calling thread.
+     *
+     * @param endNanos {@link System#nanoTime()} after which no further frame is requested.
+     * @param result   Where received and incomplete frames are counted.
+     * @throws IOException
+     */
+    void receive(final long endNanos, final Result result) throws IOException {
+        final byte[] commandBytes = command.getBytes();
+        final DatagramPacket request = new DatagramPacket(commandBytes, commandBytes.length);
+        final byte[] nextBytes = "NEXT".getBytes();
+        final DatagramPacket next = new DatagramPacket(nextBytes, nextBytes.length);
+        final DatagramPacket packet = new DatagramPacket(new byte[0], 0);
+        final JpegScanner scanner = new JpegScanner();
+        final OperationMetrics packetMetrics = Metrics.get(Metrics.IMAGE);
+        final OperationMetrics frameMetrics = Metrics.get(Metrics.IMAGE_FRAME);
+        final int socketTimeout = client.getSoTimeout();
+        long sequence = 0;
+        try {
+            while (System.nanoTime() - endNanos < 0) {
+                final FramePool.Frame frame = pool.acquire();
+                scanner.reset();
+                server.send(request);
+                frame.requestNanos = System.nanoTime();
+                boolean complete = false;
+                while (true) {
+                    frame.ensureCapacity(frame.length + maxLength);
+                    // Packets land right after the previous ones, without copying.
+                    packet.setData(frame.data, frame.length, maxLength);
+                    final long waitStart = System.nanoTime();
+                    client.setSoTimeout(rto.getTimeoutMillis());
+                    try {
+                        client.receive(packet);
+                    } catch (final SocketTimeoutException exception) {
+                        packetMetrics.onTimeout();
+                        rto.onTimeout();
+                        break;
+                    }
+                    final long receiveNanos = System.nanoTime();
+                    final int packetLength = packet.getLength();
+                    if (frame.length == 0) {
+                        rto.onSample(receiveNanos - frame.requestNanos);
+                    }
+                    packetMetrics.onPacket(packetLength, receiveNanos - waitStart);
+                    final int imageLength = scanner.scan(frame.data, frame.length, packetLength);
+                    frame.length += imageLength >= 0 ? imageLength : packetLength;
+                    if (imageLength >= 0 || packetLength < maxLength) {
+                        complete = true;
+                        frame.completeNanos = receiveNanos;
+                        break;
+                    }
+                    if (useFlow) {
+                        server.send(next);
+                    }
+                }
+                if (complete) {
+                    frame.sequence = sequence++;
+                    result.received++;
+                    frameMetrics.onPacket(frame.length, frame.getLatencyNanos());
+                    pool.publish(frame);
+                } else {
+                    result.incomplete++;
+                    pool.release(frame);
+                    drain();
+                }
+            }
+        } finally {
+            client.setSoTimeout(socketTimeout);
+        }
+    }
+
+    /**
+     * Receive and discard packets until none arrives for {@link CameraStream#QUIET_MILLIS}.
+     *
+     * @throws IOException
+     */
+    void drain() throws IOException {
+        final byte[] buffer = new byte[maxLength];
+        final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        client.setSoTimeout(QUIET_MILLIS);
+        try {
+            while (true) {
+                client.receive(packet);
+            }
+        } catch (final SocketTimeoutException exception) {
+            // Drained.
+        }
+    }
+
+    /**
+     * Consume frames until the receiver is done and every frame is consumed, run by the consumer thread.
+     *
+     * @param out    The MJPEG file, {@code null} for none.
+     * @param result Where consumed frames are counted.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    void consume(final FileChannel out, final Result result) throws IOException, InterruptedException {
+        while (true) {
+            // Read before taking, so that a frame published just before the end isn't missed.
+            final boolean last = !receiving;
+            final FramePool.Frame frame = pool.take(POLL_MILLIS);
+            if (frame == null) {
+                if (last) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                if (out != null) {
+                    final ByteBuffer image = frame.getImage();
+                    while (image.hasRemaining()) {
+                        out.write(image);
+                    }
+                }
+                result.frames++;
+                result.bytes += frame.length;
+                result.latency.record(frame.getLatencyNanos());
+            } finally {
+                pool.release(frame);
+            }
+        }
+    }
+}
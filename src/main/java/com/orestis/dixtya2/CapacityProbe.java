@@ -0,0 +1,448 @@
+package com.orestis.dixtya2;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Estimates the bottleneck capacity and the per-byte latency of the path to the server, for each direction, from
+ * the dispersion of back-to-back packets.
+ * <p>
+ * Packets sent back to back leave the narrowest link of a path spaced by their transmission time on it, and keep
+ * that spacing, so {@code (n - 1) * size / (t_n - t_1)} over a train of {@code n} packets estimates the link's
+ * capacity. Sizes include the {@link CapacityProbe#UDP_IP_OVERHEAD} of the headers. Cross traffic spreads trains
+ * apart and stray gaps squeeze them, so the median over repeated trains is taken. Packet pairs, trains of two, are
+ * the least disturbed by cross traffic but also the most by timer resolution, so both pairs and longer trains are
+ * run.</p>
+ * <ul>
+ * <li>Uplink: trains of echo requests padded with trailing spaces to a size, which the server answers one by one
+ * with short replies. The replies keep the spacing the requests arrived with.</li>
+ * <li>Downlink: image requests without FLOW, which the server answers with the whole image in back-to-back
+ * packets of the {@code UDP=} size, a train of its own. Only the full-size packets are timed.</li>
+ * </ul>
+ * <p>
+ * The smallest round trip time of each size, the one least delayed by queues, grows with the size by the time it
+ * takes to transmit a byte, so a least squares line through them gives the per-byte latency and the base latency
+ * of the path.</p>
+ */
+public class CapacityProbe {
+    private final static Logger logger = Logger.getLogger(CapacityProbe.class.getName());
+    /**
+     * Bytes of the IPv4 and UDP headers of a datagram.
+     */
+    public static final int UDP_IP_OVERHEAD = 28;
+    /**
+     * Time without packets after which the socket is considered drained after a lost train.
+     */
+    static final int QUIET_MILLIS = 100;
+    static final String UPLINK = "uplink";
+    static final String DOWNLINK = "downlink";
+
+    /**
+     * Estimate of a direction for one packet size and train length.
+     */
+    public static class Estimate {
+        final String direction;
+        final int size;
+        final int trainLength;
+        /**
+         * Capacity estimate of each complete train in bytes/s.
+         */
+        final double[] capacities;
+        final long minRttNanos;
+
+        Estimate(final String direction, final int size, final int trainLength, final double[] capacities,
+                 final long minRttNanos) {
+            this.direction = direction;
+            this.size = size;
+            this.trainLength = trainLength;
+            this.capacities = capacities;
+            this.minRttNanos = minRttNanos;
+        }
+
+        /**
+         * @return The median capacity over the trains in bytes/s, 0 if none completed.
+         */
+        public double getCapacity() {
+            if (capacities.length == 0) {
+                return 0;
+            }
+            final double[] sorted = capacities.clone();
+            Arrays.sort(sorted);
+            return sorted.length % 2 == 1 ? sorted[sorted.length / 2]
+                    : (sorted[sorted.length / 2 - 1] + sorted[sorted.length / 2]) / 2;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public long getMinRttNanos() {
+            return minRttNanos;
+        }
+    }
+
+    /**
+     * Least squares line of the smallest round trip times over the sizes.
+     */
+    public static class Fit {
+        final double nanosPerByte;
+        final double baseNanos;
+
+        Fit(final double nanosPerByte, final double baseNanos) {
+            this.nanosPerByte = nanosPerByte;
+            this.baseNanos = baseNanos;
+        }
+
+        /**
+         * Fit the estimates of a direction, one point per size.
+         *
+         * @param estimates The estimates.
+         * @return The fit, {@code null} for fewer than two sizes.
+         */
+        static Fit of(final List<Estimate> estimates) {
+            final List<double[]> points = new ArrayList<>();
+            for (final Estimate estimate : estimates) {
+                if (estimate.minRttNanos == Long.MAX_VALUE) {
+                    continue;
+                }
+                boolean seen = false;
+                for (final double[] point : points) {
+                    if (point[0] == estimate.size + UDP_IP_OVERHEAD) {
+                        point[1] = Math.min(point[1], estimate.minRttNanos);
+                        seen = true;
+                    }
+                }
+                if (!seen) {
+                    points.add(new double[]{estimate.size + UDP_IP_OVERHEAD, estimate.minRttNanos});
+                }
+            }
+            if (points.size() < 2) {
+                return null;
+            }
+            double meanX = 0;
+            double meanY = 0;
+            for (final double[] point : points) {
+                meanX += point[0] / points.size();
+                meanY += point[1] / points.size();
+            }
+            double covariance = 0;
+            double variance = 0;
+            for (final double[] point : points) {
+                covariance += (point[0] - meanX) * (point[1] - meanY);
+                variance += (point[0] - meanX) * (point[0] - meanX);
+            }
+            final double slope = covariance / variance;
+            return new Fit(slope, meanY - slope * meanX);
+        }
+
+        public double getNanosPerByte() {
+            return nanosPerByte;
+        }
+
+        /**
+         * @return The bytes/s the per-byte latency amounts to, 0 if it isn't positive.
+         */
+        public double getBytesPerSecond() {
+            return nanosPerByte > 0 ? 1e9 / nanosPerByte : 0;
+        }
+
+        public double getBaseNanos() {
+            return baseNanos;
+        }
+    }
+
+    /**
+     * Outcome of a probe.
+     */
+    public static class Result {
+        final List<Estimate> uplink = new ArrayList<>();
+        final List<Estimate> downlink = new ArrayList<>();
+        final long startMillis = System.currentTimeMillis();
+
+        public Fit getUplinkFit() {
+            return Fit.of(uplink);
+        }
+
+        public Fit getDownlinkFit() {
+            return Fit.of(downlink);
+        }
+
+        /**
+         * @return The downlink size with the highest goodput, its capacity estimate less the share of the headers,
+         * which is the {@code UDP=} size images go fastest with, 0 if no downlink size was probed.
+         */
+        public int getBestDownlinkSize() {
+            int best = 0;
+            double bestGoodput = 0;
+            for (final Estimate estimate : downlink) {
+                final double goodput = estimate.getCapacity() * estimate.size / (estimate.size + UDP_IP_OVERHEAD);
+                if (goodput > bestGoodput) {
+                    best = estimate.size;
+                    bestGoodput = goodput;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * @return A line per estimate and per fit.
+         */
+        public String report() {
+            final StringBuilder builder = new StringBuilder("Capacity probe, median bytes/s over trains:");
+            for (final Estimate estimate : uplink) {
+                append(builder, estimate);
+            }
+            for (final Estimate estimate : downlink) {
+                append(builder, estimate);
+            }
+            appendFit(builder, UPLINK, getUplinkFit());
+            appendFit(builder, DOWNLINK, getDownlinkFit());
+            if (!downlink.isEmpty()) {
+                builder.append(String.format("%nFastest image packet size: UDP=%d", getBestDownlinkSize()));
+            }
+            return builder.toString();
+        }
+
+        void append(final StringBuilder builder, final Estimate estimate) {
+            builder.append(String.format("%n%s %4d bytes, trains of %2d: %.0f bytes/s over %d trains, min rtt %.3f ms",
+                    estimate.direction, estimate.size, estimate.trainLength, estimate.getCapacity(),
+                    estimate.capacities.length, estimate.minRttNanos == Long.MAX_VALUE ? Double.NaN
+                            : estimate.minRttNanos / 1e6));
+        }
+
+        void appendFit(final StringBuilder builder, final String direction, final Fit fit) {
+            if (fit != null) {
+                builder.append(String.format("%n%s latency: %.3f us/byte (%.0f bytes/s) over a base of %.3f ms",
+                        direction, fit.nanosPerByte / 1000, fit.getBytesPerSecond(), fit.baseNanos / 1e6));
+            }
+        }
+
+        /**
+         * Write the estimates as text like the echo history: the start time on the first line, then
+         * {@code direction:size:trainLength:capacity:minRttMicros} per estimate and
+         * {@code fit:direction:nanosPerByte:baseMicros} per direction.
+         *
+         * @param file The file.
+         * @throws FileNotFoundException
+         */
+        public void write(final File file) throws FileNotFoundException {
+            final PrintWriter out = new PrintWriter(file);
+            try {
+                out.println(startMillis);
+                for (final List<Estimate> estimates : Arrays.asList(uplink, downlink)) {
+                    for (final Estimate estimate : estimates) {
+                        out.println(String.format("%s:%d:%d:%.1f:%d", estimate.direction, estimate.size,
+                                estimate.trainLength, estimate.getCapacity(), estimate.minRttNanos == Long.MAX_VALUE
+                                        ? -1 : estimate.minRttNanos / 1000));
+                    }
+                }
+                for (final String direction : new String[]{UPLINK, DOWNLINK}) {
+                    final Fit fit = direction.equals(UPLINK) ? getUplinkFit() : getDownlinkFit();
+                    if (fit != null) {
+                        out.println(String.format("fit:%s:%.3f:%d", direction, fit.nanosPerByte,
+                                (long) (fit.baseNanos / 1000)));
+                    }
+                }
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    final DatagramSocket server;
+    final DatagramSocket client;
+    final String echoCode;
+    final String imageCode;
+    final String camera;
+    final int timeoutMillis;
+
+    /**
+     * @param server        Socket connected to the server's port, requests are sent from.
+     * @param client        Socket replies arrive at.
+     * @param echoCode      The echo code, eg {@code "E0000"}, best without the artificial delay.
+     * @param imageCode     The image request code, eg {@code "M1234"}.
+     * @param camera        The camera of the downlink trains.
+     * @param timeoutMillis Time a reply is waited for before its train is abandoned.
+     */
+    public CapacityProbe(final DatagramSocket server, final DatagramSocket client, final String echoCode,
+                         final String imageCode, final String camera, final int timeoutMillis) {
+        this.server = server;
+        this.client = client;
+        this.echoCode = echoCode;
+        this.imageCode = imageCode;
+        this.camera = camera;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Probe both directions.
+     *
+     * @param requestSizes  Sizes of the uplink echo requests, from the length of the echo code.
+     * @param responseSizes {@code UDP=} sizes of the downlink image packets.
+     * @param trainLength   Length of the uplink trains, run after the packet pairs of each size.
+     * @param trains        Number of trains of each kind.
+     * @return The outcome.
+     * @throws IOException
+     */
+    public Result run(final int[] requestSizes, final int[] responseSizes, final int trainLength, final int trains)
+            throws IOException {
+        final Result result = new Result();
+        final int socketTimeout = client.getSoTimeout();
+        logger.info(String.format("Probing capacity: requests %s, responses %s, trains of 2 and %d, %d each.",
+                Arrays.toString(requestSizes), Arrays.toString(responseSizes), trainLength, trains));
+        try {
+            for (final int size : requestSizes) {
+                result.uplink.add(probeUplink(size, 2, trains));
+                if (trainLength > 2) {
+                    result.uplink.add(probeUplink(size, trainLength, trains));
+                }
+            }
+            for (final int size : responseSizes) {
+                result.downlink.add(probeDownlink(size, trains));
+            }
+        } finally {
+            client.setSoTimeout(socketTimeout);
+        }
+        logger.info(result.report());
+        return result;
+    }
+
+    /**
+     * Send trains of padded echo requests.
+     *
+     * @param size        Size of each request, at least the length of the echo code.
+     * @param trainLength Requests per train.
+     * @param trains      Number of trains.
+     * @return The estimate.
+     * @throws IOException
+     */
+    Estimate probeUplink(final int size, final int trainLength, final int trains) throws IOException {
+        final byte[] code = echoCode.getBytes();
+        if (size < code.length) {
+            final String message = "Echo request size " + size + " is below the length of " + echoCode + ".";
+            logger.severe(message);
+            throw new IllegalArgumentException(message);
+        }
+        final byte[] requestBuffer = new byte[size];
+        Arrays.fill(requestBuffer, (byte) ' ');
+        System.arraycopy(code, 0, requestBuffer, 0, code.length);
+        final DatagramPacket request = new DatagramPacket(requestBuffer, size);
+        final byte[] replyBuffer = new byte[2048];
+        final DatagramPacket reply = new DatagramPacket(replyBuffer, replyBuffer.length);
+        final double[] capacities = new double[trains];
+        final long[] receiveNanos = new long[trainLength];
+        int complete = 0;
+        long minRtt = Long.MAX_VALUE;
+        client.setSoTimeout(timeoutMillis);
+        for (int train = 0; train < trains; train++) {
+            final long sendNanos = System.nanoTime();
+            for (int i = 0; i < trainLength; i++) {
+                server.send(request);
+            }
+            int received = 0;
+            try {
+                for (; received < trainLength; received++) {
+                    client.receive(reply);
+                    receiveNanos[received] = System.nanoTime();
+                }
+            } catch (final SocketTimeoutException exception) {
+                logger.fine(String.format("Lost %d replies of an uplink train of %d bytes.", trainLength - received,
+                        size));
+                drain();
+                continue;
+            }
+            minRtt = Math.min(minRtt, receiveNanos[0] - sendNanos);
+            final long dispersion = receiveNanos[trainLength - 1] - receiveNanos[0];
+            if (dispersion > 0) {
+                capacities[complete++] = (trainLength - 1) * (size + UDP_IP_OVERHEAD) * 1e9 / dispersion;
+            }
+        }
+        return new Estimate(UPLINK, size, trainLength, Arrays.copyOf(capacities, complete), minRtt);
+    }
+
+    /**
+     * Download images without FLOW, whose packets arrive back to back.
+     *
+     * @param size   The {@code UDP=} size.
+     * @param trains Number of images.
+     * @return The estimate, with the train length of the shortest image.
+     * @throws IOException
+     */
+    Estimate probeDownlink(final int size, final int trains) throws IOException {
+        final byte[] command = (imageCode + "UDP=" + size + "CAM=" + camera).getBytes();
+        final DatagramPacket request = new DatagramPacket(command, command.length);
+        final byte[] packetBuffer = new byte[size];
+        final DatagramPacket packet = new DatagramPacket(packetBuffer, packetBuffer.length);
+        final JpegScanner scanner = new JpegScanner();
+        final double[] capacities = new double[trains];
+        int complete = 0;
+        int shortest = Integer.MAX_VALUE;
+        long minRtt = Long.MAX_VALUE;
+        client.setSoTimeout(timeoutMillis);
+        for (int train = 0; train < trains; train++) {
+            scanner.reset();
+            final long sendNanos = System.nanoTime();
+            server.send(request);
+            long first = 0;
+            long last = 0;
+            int fullPackets = 0;
+            boolean done = false;
+            try {
+                while (!done) {
+                    client.receive(packet);
+                    final long now = System.nanoTime();
+                    if (first == 0) {
+                        minRtt = Math.min(minRtt, now - sendNanos);
+                    }
+                    final int length = packet.getLength();
+                    done = scanner.scan(packetBuffer, 0, length) >= 0 || length < size;
+                    if (length == size) {
+                        if (fullPackets++ == 0) {
+                            first = now;
+                        }
+                        last = now;
+                    }
+                }
+            } catch (final SocketTimeoutException exception) {
+                logger.fine(String.format("Downlink train of %d bytes ended by a timeout.", size));
+                drain();
+                continue;
+            }
+            if (fullPackets > 1 && last > first) {
+                capacities[complete++] = (fullPackets - 1) * (size + UDP_IP_OVERHEAD) * 1e9 / (last - first);
+                shortest = Math.min(shortest, fullPackets);
+            }
+        }
+        return new Estimate(DOWNLINK, size, complete > 0 ? shortest : 0, Arrays.copyOf(capacities, complete),
+                minRtt);
+    }
+
+    /**
+     * Discard late replies of a broken train, so they aren't taken for those of the next one.
+     *
+     * @throws IOException
+     */
+    void drain() throws IOException {
+        final byte[] buffer = new byte[2048];
+        final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        client.setSoTimeout(QUIET_MILLIS);
+        try {
+            while (true) {
+                client.receive(packet);
+            }
+        } catch (final SocketTimeoutException exception) {
+            // Drained.
+        } finally {
+            client.setSoTimeout(timeoutMillis);
+        }
+    }
+}
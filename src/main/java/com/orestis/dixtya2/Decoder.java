@@ -0,0 +1,34 @@
+package com.orestis.dixtya2;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+/**
+ * Interface that hold {@link Decoder#decode(byte[], byte[], int)} function for decoding of received audio
+ * files in @{code byte[]} format.
+ */
+public interface Decoder {
+    /**
+     * The length in bytes for a UDP audio package, excluding any header.
+     */
+    int AUDIO_PACKAGE_LENGTH = 128;
+
+    /**
+     * Decode an encoded buffer.
+     *
+     * @param buffer       The buffer.
+     * @param decoded      The decoded result.
+     * @param decodedIndex The place to start decoding in the buffer.
+     */
+    void decode(final byte[] buffer, byte[] decoded, int decodedIndex);
+
+    /**
+     * Fill in a packet that was never received, leaving the decoder ready to decode the packet after it.
+     *
+     * @param decoded      The decoded result.
+     * @param decodedIndex The place to start writing the concealed packet.
+     */
+    void conceal(byte[] decoded, int decodedIndex);
+
+    void saveHistory(File filename) throws FileNotFoundException;
+}
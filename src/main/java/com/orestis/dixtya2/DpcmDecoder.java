@@ -0,0 +1,65 @@
+package com.orestis.dixtya2;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * {@link Decoder} used for DPCM decoding of audio bytes.
+ */
+public class DpcmDecoder implements Decoder {
+    @Override
+    public void decode(final byte[] buffer, final byte[] decoded, final int decodedIndex) {
+        decode(buffer, 0, decoded, decodedIndex, decodedIndex > 0 ? decoded[decodedIndex - 1] : 0);
+    }
+
+    /**
+     * Decode a packet following a given sample.
+     *
+     * @param buffer       Array holding the packet.
+     * @param offset       Index of the packet's first byte.
+     * @param decoded      The decoded result.
+     * @param decodedIndex The place to start decoding in the buffer.
+     * @param X2           The sample before the packet.
+     * @return The last sample of the packet.
+     */
+    static byte decode(final byte[] buffer, final int offset, final byte[] decoded, int decodedIndex, byte X2) {
+        for (int i = offset; i < offset + AUDIO_PACKAGE_LENGTH; i++) {
+            final byte lsByte = (byte) (buffer[i] & 0x0f);
+            final byte msByte = (byte) ((buffer[i] >> 4) & 0x0f);
+            final byte X1 = (byte) (msByte - 8 + X2);
+            X2 = (byte) (lsByte - 8 + X1);
+
+            decoded[decodedIndex++] = X1;
+            decoded[decodedIndex++] = X2;
+        }
+        return X2;
+    }
+
+    /**
+     * Sum of the differences coded in a packet, ie how much it moves the sample, modulo 256 like the samples.
+     *
+     * @param buffer Array holding the packet.
+     * @param offset Index of the packet's first byte.
+     * @return The sum.
+     */
+    static byte sum(final byte[] buffer, final int offset) {
+        int sum = 0;
+        for (int i = offset; i < offset + AUDIO_PACKAGE_LENGTH; i++) {
+            sum += ((buffer[i] >> 4) & 0x0f) + (buffer[i] & 0x0f) - 16;
+        }
+        return (byte) sum;
+    }
+
+    /**
+     * Hold the last sample. Decoding continues from {@code decoded[decodedIndex - 1]}, so the packet after the gap
+     * is decoded relative to the held value, which is the best guess of where the encoder was.
+     */
+    @Override
+    public void conceal(final byte[] decoded, final int decodedIndex) {
+        final byte last = decodedIndex > 0 ? decoded[decodedIndex - 1] : 0;
+        Arrays.fill(decoded, decodedIndex, decodedIndex + 2 * AUDIO_PACKAGE_LENGTH, last);
+    }
+
+    @Override
+    public void saveHistory(final File filename) {}
+}
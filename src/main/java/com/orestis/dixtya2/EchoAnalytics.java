@@ -0,0 +1,219 @@
+package com.orestis.dixtya2;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Logger;
+
+/**
+ * Command line tool summarising the text echo logs written by {@code testThroughput}, eg {@code E0000.txt}, into
+ * {@link EchoSessionStats}.
+ * <p>
+ * Each log is parsed in fixed-size chunks straight from its bytes, without building a string per line, and the
+ * logs are split between the threads of a {@link ForkJoinPool}.</p>
+ * <p>
+ * Usage: {@code EchoAnalytics [--windows 8,16,32] [--format csv|json] [--out file] E0000.txt [...]}. The summary is
+ * written to standard output unless {@code --out} is given.</p>
+ */
+public class EchoAnalytics {
+    private final static Logger logger = Logger.getLogger(EchoAnalytics.class.getName());
+    static final int[] DEFAULT_WINDOWS = {8, 16, 32};
+    static final int CHUNK_SIZE = 1 << 16;
+
+    public static void main(final String[] args) throws IOException {
+        int[] windows = DEFAULT_WINDOWS;
+        String format = "csv";
+        File out = null;
+        final List<File> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--windows") && i + 1 < args.length) {
+                final String[] values = args[++i].split(",");
+                windows = new int[values.length];
+                for (int j = 0; j < values.length; j++) {
+                    windows[j] = Integer.parseInt(values[j].trim());
+                }
+            } else if (args[i].equals("--format") && i + 1 < args.length) {
+                format = args[++i];
+            } else if (args[i].equals("--out") && i + 1 < args.length) {
+                out = new File(args[++i]);
+            } else {
+                files.add(new File(args[i]));
+            }
+        }
+        if (files.isEmpty() || !(format.equals("csv") || format.equals("json"))) {
+            System.err.println("Usage: EchoAnalytics [--windows 8,16,32] [--format csv|json] [--out file] "
+                    + "<log.txt>...");
+            System.exit(1);
+        }
+        final long start = System.nanoTime();
+        final List<EchoSessionStats> sessions = analyze(files, windows);
+        final Writer writer = out != null ? new FileWriter(out) : new OutputStreamWriter(System.out);
+        try {
+            if (format.equals("csv")) {
+                writeCsv(sessions, writer);
+            } else {
+                writeJson(sessions, writer);
+            }
+        } finally {
+            writer.flush();
+            if (out != null) {
+                writer.close();
+            }
+        }
+        logger.info(String.format("Analysed %d logs in %d ms.", sessions.size(),
+                (System.nanoTime() - start) / 1000000));
+    }
+
+    /**
+     * Analyse logs in parallel.
+     *
+     * @param files   The logs.
+     * @param windows Lengths of the throughput windows in seconds.
+     * @return The statistics of each log, in the order of {@code files}.
+     */
+    public static List<EchoSessionStats> analyze(final List<File> files, final int[] windows) {
+        return ForkJoinPool.commonPool().invoke(new AnalyzeTask(files.toArray(new File[0]), 0, files.size(),
+                windows));
+    }
+
+    /**
+     * Analyses the logs {@code from} to {@code to}, splitting the range in halves down to a single log.
+     */
+    static class AnalyzeTask extends RecursiveTask<List<EchoSessionStats>> {
+        final File[] files;
+        final int from;
+        final int to;
+        final int[] windows;
+
+        AnalyzeTask(final File[] files, final int from, final int to, final int[] windows) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+            this.windows = windows;
+        }
+
+        @Override
+        protected List<EchoSessionStats> compute() {
+            if (to - from <= 1) {
+                final List<EchoSessionStats> result = new ArrayList<>(1);
+                if (to > from) {
+                    try {
+                        result.add(parse(files[from], windows));
+                    } catch (final IOException exception) {
+                        logger.severe("Failed to analyse " + files[from] + ": " + exception);
+                    }
+                }
+                return result;
+            }
+            final int middle = (from + to) >>> 1;
+            final AnalyzeTask left = new AnalyzeTask(files, from, middle, windows);
+            left.fork();
+            final List<EchoSessionStats> result = new ArrayList<>(new AnalyzeTask(files, middle, to, windows)
+                    .compute());
+            result.addAll(0, left.join());
+            return result;
+        }
+    }
+
+    /**
+     * Parse a log. The first line holds the start time, every other one {@code receiveMillis:bytes:timeout}, and
+     * any further fields are ignored.
+     *
+     * @param file    The log.
+     * @param windows Lengths of the throughput windows in seconds.
+     * @return Its statistics.
+     * @throws IOException
+     */
+    public static EchoSessionStats parse(final File file, final int[] windows) throws IOException {
+        final EchoSessionStats stats = new EchoSessionStats(file.getName(), windows);
+        final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            final long[] fields = new long[3];
+            int field = 0;
+            boolean digits = false;
+            boolean firstLine = true;
+            long line = 1;
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    final byte b = buffer.get();
+                    if (b == '\n') {
+                        if (firstLine) {
+                            stats.onStart(fields[0]);
+                            firstLine = false;
+                        } else if (field >= 2) {
+                            stats.onRecord(fields[0], (int) fields[1], fields[2] != 0);
+                        } else if (field > 0 || digits) {
+                            throw new IOException("Malformed record at line " + line + " of " + file);
+                        }
+                        line++;
+                        Arrays.fill(fields, 0);
+                        field = 0;
+                        digits = false;
+                    } else if (b == ':') {
+                        field++;
+                    } else if (field < 2 && b >= '0' && b <= '9') {
+                        fields[field] = 10 * fields[field] + (b - '0');
+                        digits = true;
+                    } else if (field == 2 && b == 't') {
+                        fields[2] = 1;
+                    }
+                }
+                buffer.clear();
+            }
+            if (field >= 2) {
+                // Last line without a newline.
+                stats.onRecord(fields[0], (int) fields[1], fields[2] != 0);
+            }
+        } finally {
+            channel.close();
+        }
+        return stats;
+    }
+
+    /**
+     * Write statistics as CSV, one row per session.
+     *
+     * @param sessions The statistics.
+     * @param out      The destination.
+     */
+    public static void writeCsv(final List<EchoSessionStats> sessions, final Writer out) {
+        final PrintWriter writer = new PrintWriter(out);
+        if (!sessions.isEmpty()) {
+            writer.println(sessions.get(0).csvHeader());
+        }
+        for (final EchoSessionStats session : sessions) {
+            writer.println(session.toCsv());
+        }
+        writer.flush();
+    }
+
+    /**
+     * Write statistics as a JSON array, one object per session.
+     *
+     * @param sessions The statistics.
+     * @param out      The destination.
+     */
+    public static void writeJson(final List<EchoSessionStats> sessions, final Writer out) {
+        final JsonArray array = new JsonArray();
+        for (final EchoSessionStats session : sessions) {
+            array.add(session.toJson());
+        }
+        new GsonBuilder().setPrettyPrinting().create().toJson(array, out);
+    }
+}
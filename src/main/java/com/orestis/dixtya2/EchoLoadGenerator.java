@@ -0,0 +1,257 @@
+package com.orestis.dixtya2;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Open-loop echo load: requests are sent at the times a {@link RateSchedule} sets, whether or not earlier replies
+ * have arrived, and each latency is measured from the time its request was meant to be sent.
+ * <p>
+ * A closed-loop test like {@code testThroughput} sends the next request only after a reply, so a slow reply
+ * delays the requests behind it and their wait never shows in the latencies (coordinated omission). Here a
+ * sender thread keeps to the schedule and, if it falls behind, the time it lost is charged to the requests it
+ * sends late.</p>
+ * <p>
+ * Echo replies carry no request identifier, so each reply is matched to the oldest outstanding request, and a
+ * request still unanswered after the timeout is counted lost. Latencies go to a {@link LatencyHistogram} for the
+ * whole run and one per second of the schedule, which shows the rate at which the server's queue starts
+ * growing.</p>
+ */
+public class EchoLoadGenerator {
+    private final static Logger logger = Logger.getLogger(EchoLoadGenerator.class.getName());
+    /**
+     * Capacity of the ring of outstanding requests.
+     */
+    static final int RING_SIZE = 1 << 16;
+    /**
+     * Receive timeout of the receiving loop, bounding how late lost requests are noticed.
+     */
+    static final int POLL_MILLIS = 20;
+    /**
+     * Waits shorter than this are spun instead of parked, since parking overshoots.
+     */
+    static final long SPIN_NANOS = 100000;
+    static final long SECOND_NANOS = 1000000000;
+
+    /**
+     * Outcome of a run.
+     */
+    public static class Result {
+        final String code;
+        final RateSchedule schedule;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram[] secondLatency;
+        final long[] secondSent;
+        final long[] secondLost;
+        long sent;
+        long lost;
+        long overflows;
+        long strays;
+        /**
+         * Largest delay of a send behind its intended time.
+         */
+        long maxSendLagNanos;
+
+        Result(final String code, final RateSchedule schedule) {
+            this.code = code;
+            this.schedule = schedule;
+            final int seconds = (int) ((schedule.getDurationNanos() + SECOND_NANOS - 1) / SECOND_NANOS);
+            secondLatency = new LatencyHistogram[seconds];
+            for (int i = 0; i < seconds; i++) {
+                secondLatency[i] = new LatencyHistogram();
+            }
+            secondSent = new long[seconds];
+            secondLost = new long[seconds];
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        public long getLost() {
+            return lost;
+        }
+
+        /**
+         * @return A summary with the latency distribution and a line per second of the schedule.
+         */
+        public String report() {
+            final StringBuilder builder = new StringBuilder();
+            builder.append(String.format("Open-loop %s, schedule %s: %d sent, %d replies, %d lost, %d not sent, "
+                            + "%d stray replies, max send lag %.3f ms.%n", code, schedule, sent, latency.getCount(),
+                    lost, overflows, strays, maxSendLagNanos / 1e6));
+            builder.append("Latency from intended send time, ms:");
+            for (final double percentile : new double[]{50, 75, 90, 95, 99, 99.9, 99.99}) {
+                builder.append(String.format(" p%s %.3f", percentile == (int) percentile
+                        ? String.valueOf((int) percentile) : String.valueOf(percentile),
+                        latency.getValueAtPercentile(percentile) / 1e6));
+            }
+            builder.append(String.format(" max %.3f%n", latency.getMax() / 1e6));
+            builder.append("second,targetRate,sent,replies,lost,p50,p99,max");
+            for (int i = 0; i < secondLatency.length; i++) {
+                final LatencyHistogram histogram = secondLatency[i];
+                builder.append(String.format("%n%d,%.1f,%d,%d,%d,%.3f,%.3f,%.3f", i,
+                        schedule.getRate(i * SECOND_NANOS), secondSent[i], histogram.getCount(), secondLost[i],
+                        histogram.getValueAtPercentile(50) / 1e6, histogram.getValueAtPercentile(99) / 1e6,
+                        histogram.getMax() / 1e6));
+            }
+            return builder.toString();
+        }
+    }
+
+    final DatagramSocket server;
+    final DatagramSocket client;
+    final String code;
+    final RateSchedule schedule;
+    final long timeoutNanos;
+    /**
+     * Intended send times of the outstanding requests, relative to the start, written by the sender.
+     */
+    final long[] intended = new long[RING_SIZE];
+    /**
+     * Number of requests sent, published by the sender once their intended time is in the ring.
+     */
+    final AtomicLong published = new AtomicLong();
+    /**
+     * Number of requests answered or lost, published by the receiver.
+     */
+    final AtomicLong consumed = new AtomicLong();
+    volatile boolean sending;
+
+    /**
+     * @param server        Socket connected to the server's port, requests are sent from.
+     * @param client        Socket replies arrive at.
+     * @param code          The echo code, eg {@code "E0000"}.
+     * @param schedule      When requests are sent.
+     * @param timeoutMillis Time after its intended send time a request is counted lost.
+     */
+    public EchoLoadGenerator(final DatagramSocket server, final DatagramSocket client, final String code,
+                             final RateSchedule schedule, final long timeoutMillis) {
+        this.server = server;
+        this.client = client;
+        this.code = code;
+        this.schedule = schedule;
+        timeoutNanos = timeoutMillis * 1000000;
+    }
+
+    /**
+     * Run the schedule and wait for the last replies.
+     *
+     * @return The outcome.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public Result run() throws IOException, InterruptedException {
+        final Result result = new Result(code, schedule);
+        final OperationMetrics metrics = Metrics.get(Metrics.ECHO);
+        final byte[] receiveBuffer = new byte[128];
+        final DatagramPacket reply = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+        final int socketTimeout = client.getSoTimeout();
+        final long start = System.nanoTime() + 10000000;
+        final IOException[] sendFailure = new IOException[1];
+        sending = true;
+        final Thread sender = new Thread(() -> {
+            try {
+                send(start, result);
+            } catch (final IOException exception) {
+                sendFailure[0] = exception;
+            } finally {
+                sending = false;
+            }
+        }, "echo-load-" + code);
+        logger.info(String.format("Starting open-loop echo %s with schedule %s.", code, schedule));
+        sender.start();
+        long next = 0;
+        client.setSoTimeout(POLL_MILLIS);
+        try {
+            // Stop once the sender is done and every request is answered or lost.
+            while (sending || next < published.get()) {
+                boolean arrived = true;
+                try {
+                    client.receive(reply);
+                } catch (final SocketTimeoutException exception) {
+                    arrived = false;
+                }
+                final long now = System.nanoTime() - start;
+                final long available = published.get();
+                while (next < available && now - intended[(int) (next & (RING_SIZE - 1))] > timeoutNanos) {
+                    final int second = second(intended[(int) (next & (RING_SIZE - 1))], result);
+                    result.lost++;
+                    result.secondLost[second]++;
+                    metrics.onTimeout();
+                    consumed.lazySet(++next);
+                }
+                if (arrived) {
+                    if (next < available) {
+                        final long sendTime = intended[(int) (next & (RING_SIZE - 1))];
+                        final long latency = Math.max(0, now - sendTime);
+                        result.latency.record(latency);
+                        result.secondLatency[second(sendTime, result)].record(latency);
+                        metrics.onPacket(reply.getLength() + code.length(), latency);
+                        consumed.lazySet(++next);
+                    } else {
+                        result.strays++;
+                    }
+                }
+            }
+        } finally {
+            client.setSoTimeout(socketTimeout);
+            sending = false;
+            sender.join();
+        }
+        if (sendFailure[0] != null) {
+            throw sendFailure[0];
+        }
+        return result;
+    }
+
+    int second(final long offsetNanos, final Result result) {
+        return (int) Math.min(result.secondLatency.length - 1, offsetNanos / SECOND_NANOS);
+    }
+
+    /**
+     * Send the requests at their intended times, run by the sender thread.
+     *
+     * @param start  {@link System#nanoTime()} at the start of the schedule.
+     * @param result Where the sent and unsent requests are counted.
+     * @throws IOException
+     */
+    void send(final long start, final Result result) throws IOException {
+        final byte[] command = code.getBytes();
+        final DatagramPacket request = new DatagramPacket(command, command.length);
+        final long duration = schedule.getDurationNanos();
+        long offset = 0;
+        long count = 0;
+        while (offset < duration && sending) {
+            final long due = start + offset;
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                if (wait > SPIN_NANOS) {
+                    LockSupport.parkNanos(wait - SPIN_NANOS);
+                }
+            }
+            if (count - consumed.get() >= RING_SIZE) {
+                // The receiver is too far behind to match another request.
+                result.overflows++;
+            } else {
+                intended[(int) (count & (RING_SIZE - 1))] = offset;
+                // Published before sending, so that the reply can't arrive ahead of its request.
+                published.set(++count);
+                server.send(request);
+                result.maxSendLagNanos = Math.max(result.maxSendLagNanos, System.nanoTime() - due);
+                result.secondSent[second(offset, result)]++;
+                result.sent++;
+            }
+            offset += (long) (SECOND_NANOS / schedule.getRate(offset));
+        }
+    }
+}
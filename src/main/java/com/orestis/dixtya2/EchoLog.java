@@ -0,0 +1,157 @@
+package com.orestis.dixtya2;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only binary log of echo packets, memory-mapped so that every completed packet is on its way to disk
+ * without growing the heap.
+ * <p>
+ * Layout, big endian:</p>
+ * <pre>
+ * header:  magic (8) | start epoch ms (8) | start System.nanoTime() (8) | record count (8)
+ * records: send ns (8) | receive ns (8) | bytes (4) | flags (4) | deadline ms (4)
+ * </pre>
+ * <p>
+ * The record count is updated after each record is written, so a log of a killed process is readable up to the
+ * last complete record. Bit 0 of the flags is set for timeouts. The deadline is the receive timeout the packet was
+ * waited for with.</p>
+ */
+public class EchoLog implements Closeable {
+    static final long MAGIC = 0x4543484f4c4f4732L; // "ECHOLOG2"
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 28;
+    static final int COUNT_OFFSET = 24;
+    static final int FLAG_TIMEOUT = 1;
+    /**
+     * Number of records the mapping grows by.
+     */
+    static final int RECORDS_PER_CHUNK = 1 << 16;
+
+    final FileChannel channel;
+    final long startMillis;
+    final long startNanos;
+    MappedByteBuffer map;
+    long count;
+
+    /**
+     * Create a new log, replacing any existing file.
+     *
+     * @param file The file.
+     * @throws IOException
+     */
+    public EchoLog(final File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        startMillis = System.currentTimeMillis();
+        startNanos = System.nanoTime();
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) RECORDS_PER_CHUNK * RECORD_SIZE);
+        map.putLong(0, MAGIC);
+        map.putLong(8, startMillis);
+        map.putLong(16, startNanos);
+        map.putLong(COUNT_OFFSET, 0);
+    }
+
+    /**
+     * Append the record of a completed packet.
+     *
+     * @param sendNanos      {@link System#nanoTime()} when the request was sent.
+     * @param receiveNanos   {@link System#nanoTime()} when the reply arrived or the wait timed out.
+     * @param bytes          Bytes sent and received.
+     * @param timeout        {@code true} if no reply arrived.
+     * @param deadlineMillis The receive timeout the reply was waited for with, from the send time.
+     * @throws IOException
+     */
+    public void append(final long sendNanos, final long receiveNanos, final int bytes, final boolean timeout,
+                       final int deadlineMillis) throws IOException {
+        final long position = HEADER_SIZE + count * RECORD_SIZE;
+        if (position + RECORD_SIZE > map.capacity()) {
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    map.capacity() + (long) RECORDS_PER_CHUNK * RECORD_SIZE);
+        }
+        final int index = (int) position;
+        map.putLong(index, sendNanos);
+        map.putLong(index + 8, receiveNanos);
+        map.putInt(index + 16, bytes);
+        map.putInt(index + 20, timeout ? FLAG_TIMEOUT : 0);
+        map.putInt(index + 24, deadlineMillis);
+        map.putLong(COUNT_OFFSET, ++count);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Flush the mapping and trim the file to the records written.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        map.force();
+        channel.truncate(HEADER_SIZE + count * RECORD_SIZE);
+        channel.close();
+    }
+
+    /**
+     * Convert a log to the text format of {@code testThroughput}: the start time on the first line and a
+     * {@code timestamp:bytes:timeout} line per packet, timestamps being epoch ms of the reply.
+     *
+     * @param file The log.
+     * @param out  Destination of the text. Not closed.
+     * @throws IOException
+     */
+    public static void toText(final File file, final Writer out) throws IOException {
+        toText(file, out, false);
+    }
+
+    /**
+     * Convert a log to text, optionally with the deadlines.
+     *
+     * @param file      The log.
+     * @param out       Destination of the text. Not closed.
+     * @param deadlines {@code true} to append the receive timeout in ms to each line, giving
+     *                  {@code timestamp:bytes:timeout:deadline} lines.
+     * @throws IOException
+     * @see EchoLog#toText(File, Writer)
+     */
+    public static void toText(final File file, final Writer out, final boolean deadlines) throws IOException {
+        final PrintWriter writer = new PrintWriter(out);
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            final MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (map.getLong(0) != MAGIC) {
+                throw new IOException("Not an echo log: " + file);
+            }
+            final long startMillis = map.getLong(8);
+            final long startNanos = map.getLong(16);
+            // A killed process may have left a mapping larger than its records, or a partial last record.
+            final long count = Math.min(map.getLong(COUNT_OFFSET), (channel.size() - HEADER_SIZE) / RECORD_SIZE);
+            writer.println(startMillis);
+            for (long i = 0; i < count; i++) {
+                final int index = (int) (HEADER_SIZE + i * RECORD_SIZE);
+                final long receiveMillis = startMillis + (map.getLong(index + 8) - startNanos) / 1000000;
+                writer.print(receiveMillis);
+                writer.print(':');
+                writer.print(map.getInt(index + 16));
+                writer.print(':');
+                writer.print((map.getInt(index + 20) & FLAG_TIMEOUT) != 0);
+                if (deadlines) {
+                    writer.print(':');
+                    writer.print(map.getInt(index + 24));
+                }
+                writer.println();
+            }
+        } finally {
+            channel.close();
+        }
+        writer.flush();
+    }
+}
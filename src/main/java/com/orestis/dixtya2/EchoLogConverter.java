@@ -0,0 +1,71 @@
+package com.orestis.dixtya2;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.logging.Logger;
+
+/**
+ * Command line tool converting binary {@link EchoLog}s to the text format read by the analysis scripts.
+ * <p>
+ * Usage: {@code EchoLogConverter [--deadline] E0000.echo [...]}, writing {@code E0000.txt} next to each log. With
+ * {@code --deadline}, each line also gets the receive timeout the packet was waited for with.</p>
+ */
+public class EchoLogConverter {
+    private final static Logger logger = Logger.getLogger(EchoLogConverter.class.getName());
+
+    public static void main(final String[] args) throws IOException {
+        final boolean deadlines = args.length > 0 && args[0].equals("--deadline");
+        if (args.length == (deadlines ? 1 : 0)) {
+            System.err.println("Usage: EchoLogConverter [--deadline] <log.echo>...");
+            System.exit(1);
+        }
+        for (int i = deadlines ? 1 : 0; i < args.length; i++) {
+            final File log = new File(args[i]);
+            final File text = textFile(log);
+            convert(log, text, deadlines);
+            logger.info("Converted " + log + " to " + text + ".");
+        }
+    }
+
+    /**
+     * @param log The binary log.
+     * @return The text file with the same base name and a {@code .txt} extension.
+     */
+    public static File textFile(final File log) {
+        final String name = log.getName();
+        final int dot = name.lastIndexOf('.');
+        return new File(log.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + ".txt");
+    }
+
+    /**
+     * Convert a binary log to a text file of {@code timestamp:bytes:timeout} lines.
+     *
+     * @param log  The binary log.
+     * @param text The text file, replaced if it exists.
+     * @throws IOException
+     */
+    public static void convert(final File log, final File text) throws IOException {
+        convert(log, text, false);
+    }
+
+    /**
+     * Convert a binary log to a text file.
+     *
+     * @param log       The binary log.
+     * @param text      The text file, replaced if it exists.
+     * @param deadlines {@code true} to append the deadline of each packet, see
+     *                  {@link EchoLog#toText(File, Writer, boolean)}.
+     * @throws IOException
+     */
+    public static void convert(final File log, final File text, final boolean deadlines) throws IOException {
+        final Writer out = new BufferedWriter(new FileWriter(text));
+        try {
+            EchoLog.toText(log, out, deadlines);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.orestis.dixtya2;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.logging.Logger;
+
+/**
+ * {@link ReactorSession} that sends echo requests back-to-back for a given duration, like
+ * {@code testThroughput} with a window of one.
+ * <p>
+ * Packets are appended as they complete to an {@link EchoLog} with the {@code .echo} extension next to
+ * {@code historyFile}, which is converted to the {@code timestamp:bytes:timeout} text history at the end.</p>
+ * <p>
+ * Each reply is waited for with the timeout of an {@link RtoEstimator}, fed with the round trip times. After a
+ * timeout, replies are discarded until none has arrived for the expired timeout, so that the late reply to the
+ * lost request isn't taken for the next one's.</p>
+ */
+public class EchoSession extends ReactorSession {
+    private final static Logger logger = Logger.getLogger(EchoSession.class.getName());
+    final String code;
+    final long duration;
+    final RtoEstimator rto;
+    final File historyFile;
+    EchoLog history;
+    File logFile;
+    long timeStart;
+    long sendTime;
+    int deadlineMillis;
+    /**
+     * {@code true} after a timeout, when the next reply may be the late one of the previous request.
+     */
+    boolean ambiguous;
+    /**
+     * {@code true} after a timeout, while discarding late replies until the channel is quiet for
+     * {@link EchoSession#deadlineMillis}.
+     */
+    boolean draining;
+    int counter;
+    int timeouts;
+    int lastLength;
+
+    /**
+     * @param code          The echo code, eg {@code "E0000"}.
+     * @param clientPort    Local port the server replies to.
+     * @param serverAddress Address and port the server listens at.
+     * @param duration      Duration of the test in ms.
+     * @param rto           Estimator of the time to wait for each reply.
+     * @param historyFile   File for the per-packet history.
+     */
+    public EchoSession(final String code, final int clientPort, final SocketAddress serverAddress,
+                       final long duration, final RtoEstimator rto, final File historyFile) {
+        super(code, clientPort, serverAddress);
+        this.code = code;
+        this.duration = duration;
+        this.rto = rto;
+        this.historyFile = historyFile;
+    }
+
+    @Override
+    protected void start() throws IOException {
+        final String historyName = historyFile.getName();
+        final int dot = historyName.lastIndexOf('.');
+        logFile = new File(historyFile.getParentFile(), (dot > 0 ? historyName.substring(0, dot) : historyName)
+                + ".echo");
+        history = new EchoLog(logFile);
+        timeStart = System.currentTimeMillis();
+        sendNext();
+    }
+
+    void sendNext() throws IOException {
+        sendTime = System.nanoTime();
+        send(code);
+        deadlineMillis = rto.getTimeoutMillis();
+        setTimeout(deadlineMillis);
+    }
+
+    void record(final boolean timeout) throws IOException {
+        counter++;
+        history.append(sendTime, System.nanoTime(), lastLength + code.length(), timeout, deadlineMillis);
+        if (timeout) {
+            draining = true;
+            setTimeout(deadlineMillis);
+        } else {
+            next();
+        }
+    }
+
+    void next() throws IOException {
+        if (System.currentTimeMillis() - timeStart < duration) {
+            sendNext();
+        } else {
+            clearTimeout();
+            finish();
+        }
+    }
+
+    @Override
+    protected void onDatagram(final ByteBuffer datagram) throws IOException {
+        if (draining) {
+            // A late reply: wait for the channel to be quiet again.
+            setTimeout(deadlineMillis);
+            return;
+        }
+        lastLength = datagram.remaining();
+        if (ambiguous) {
+            ambiguous = false;
+        } else {
+            rto.onSample(System.nanoTime() - sendTime);
+        }
+        record(false);
+    }
+
+    @Override
+    protected void onTimeout() throws IOException {
+        if (draining) {
+            draining = false;
+            next();
+            return;
+        }
+        logger.severe(name + ": echo reply timed out.");
+        timeouts++;
+        rto.onTimeout();
+        ambiguous = true;
+        record(true);
+    }
+
+    @Override
+    protected void onFinish() throws IOException {
+        logger.info(String.format("%s: received %d packets in %d ms, %d timeouts, %s.", name, counter, duration,
+                timeouts, rto));
+        history.close();
+        EchoLogConverter.convert(logFile, historyFile);
+    }
+
+    /**
+     * @return The binary {@link EchoLog} next to the history file, {@code null} before the session starts.
+     */
+    public File getLogFile() {
+        return logFile;
+    }
+}
@@ -0,0 +1,270 @@
+package com.orestis.dixtya2;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.Arrays;
+
+/**
+ * Statistics of a single echo session, accumulated one record at a time by {@link EchoAnalytics} so a log is never
+ * held in memory.
+ * <p>
+ * As in {@code graphs.py}, the response time of a reply is the time since the previous reply, which is the round
+ * trip time for stop-and-wait sessions. Response times are counted per millisecond, the resolution of the logs, so
+ * percentiles are exact. Throughput is counted per second of the session and averaged over sliding windows that
+ * advance by a second.</p>
+ */
+public class EchoSessionStats {
+    static final double[] PERCENTILES = {50, 90, 95, 99};
+
+    final String name;
+    final int[] windowSeconds;
+    long startMillis;
+    long records;
+    long timeouts;
+    long replies;
+    long bytes;
+    long firstReplyMillis = -1;
+    long lastReplyMillis = -1;
+    /**
+     * Number of response times of each millisecond.
+     */
+    long[] responseCounts = new long[1024];
+    long responses;
+    double responseMean;
+    /**
+     * Sum of squared differences from the mean, updated with Welford's method.
+     */
+    double responseM2;
+    long responseMax;
+    long responseMin = Long.MAX_VALUE;
+    /**
+     * Replies and bytes received in each second since the first reply.
+     */
+    long[] packetsPerSecond = new long[256];
+    long[] bytesPerSecond = new long[256];
+    int seconds;
+
+    /**
+     * @param name          Name of the session, eg the log file's.
+     * @param windowSeconds Lengths of the throughput windows in seconds.
+     */
+    public EchoSessionStats(final String name, final int[] windowSeconds) {
+        for (final int window : windowSeconds) {
+            if (window < 1) {
+                throw new IllegalArgumentException("Invalid throughput window: " + window);
+            }
+        }
+        this.name = name;
+        this.windowSeconds = windowSeconds.clone();
+    }
+
+    void onStart(final long startMillis) {
+        this.startMillis = startMillis;
+    }
+
+    /**
+     * Add a record of the log.
+     *
+     * @param receiveMillis Time the reply was received, or the timeout expired, in epoch ms.
+     * @param length        Bytes sent and received.
+     * @param timeout       {@code true} if no reply was received.
+     */
+    void onRecord(final long receiveMillis, final int length, final boolean timeout) {
+        records++;
+        if (timeout) {
+            timeouts++;
+            return;
+        }
+        replies++;
+        bytes += length;
+        if (lastReplyMillis >= 0) {
+            addResponse(Math.max(0, receiveMillis - lastReplyMillis));
+        } else {
+            firstReplyMillis = receiveMillis;
+        }
+        lastReplyMillis = receiveMillis;
+        final int second = (int) ((receiveMillis - firstReplyMillis) / 1000);
+        if (second >= packetsPerSecond.length) {
+            final int capacity = Math.max(second + 1, 2 * packetsPerSecond.length);
+            packetsPerSecond = Arrays.copyOf(packetsPerSecond, capacity);
+            bytesPerSecond = Arrays.copyOf(bytesPerSecond, capacity);
+        }
+        packetsPerSecond[second]++;
+        bytesPerSecond[second] += length;
+        seconds = Math.max(seconds, second + 1);
+    }
+
+    void addResponse(final long millis) {
+        if (millis >= responseCounts.length) {
+            responseCounts = Arrays.copyOf(responseCounts, (int) Math.max(millis + 1, 2L * responseCounts.length));
+        }
+        responseCounts[(int) millis]++;
+        responses++;
+        final double delta = millis - responseMean;
+        responseMean += delta / responses;
+        responseM2 += delta * (millis - responseMean);
+        responseMax = Math.max(responseMax, millis);
+        responseMin = Math.min(responseMin, millis);
+    }
+
+    /**
+     * @param percentile The percentile, from 0 to 100.
+     * @return The response time in ms below or at which {@code percentile}% of them are, 0 if there are none.
+     */
+    public long getResponsePercentile(final double percentile) {
+        if (responses == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * responses));
+        long seen = 0;
+        for (int i = 0; i < responseCounts.length; i++) {
+            seen += responseCounts[i];
+            if (seen >= rank) {
+                return i;
+            }
+        }
+        return responseMax;
+    }
+
+    public double getResponseMean() {
+        return responseMean;
+    }
+
+    public double getResponseStd() {
+        return responses > 1 ? Math.sqrt(responseM2 / responses) : 0;
+    }
+
+    /**
+     * @return The fraction of requests that timed out.
+     */
+    public double getTimeoutRate() {
+        return records == 0 ? 0 : (double) timeouts / records;
+    }
+
+    /**
+     * Throughput over sliding windows.
+     *
+     * @param window Length of the window in seconds.
+     * @param counts Count of each second, {@link EchoSessionStats#packetsPerSecond} or
+     *               {@link EchoSessionStats#bytesPerSecond}.
+     * @return The minimum, mean and maximum rate per second over every position of the window, zeros if there are
+     * no replies. A session shorter than the window is a single window of its own length.
+     */
+    double[] windowRates(final int window, final long[] counts) {
+        if (seconds == 0) {
+            return new double[3];
+        }
+        final int length = Math.min(window, seconds);
+        long sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += counts[i];
+        }
+        double min = sum, max = sum, total = sum;
+        int positions = 1;
+        for (int i = length; i < seconds; i++) {
+            sum += counts[i] - counts[i - length];
+            min = Math.min(min, sum);
+            max = Math.max(max, sum);
+            total += sum;
+            positions++;
+        }
+        return new double[]{min / length, total / positions / length, max / length};
+    }
+
+    /**
+     * @return Header of the rows of {@link EchoSessionStats#toCsv()}, for these windows.
+     */
+    public String csvHeader() {
+        final StringBuilder builder = new StringBuilder("session,start,records,replies,timeouts,timeoutRate,"
+                + "responseMean,responseStd,responseMin,responseMax");
+        for (final double percentile : PERCENTILES) {
+            builder.append(",responseP").append((int) percentile);
+        }
+        for (final int window : windowSeconds) {
+            for (final String unit : new String[]{"pps", "bps"}) {
+                for (final String statistic : new String[]{"Min", "Mean", "Max"}) {
+                    builder.append(",w").append(window).append(unit).append(statistic);
+                }
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return The statistics as a CSV row, response times in ms, throughput in packets/s and bits/s.
+     */
+    public String toCsv() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(name).append(',').append(startMillis).append(',').append(records).append(',')
+                .append(replies).append(',').append(timeouts).append(',')
+                .append(String.format("%.5f,%.3f,%.3f,%d,%d", getTimeoutRate(), responseMean, getResponseStd(),
+                        responses == 0 ? 0 : responseMin, responseMax));
+        for (final double percentile : PERCENTILES) {
+            builder.append(',').append(getResponsePercentile(percentile));
+        }
+        for (final int window : windowSeconds) {
+            for (final double rate : windowRates(window, packetsPerSecond)) {
+                builder.append(String.format(",%.3f", rate));
+            }
+            for (final double rate : windowRates(window, bytesPerSecond)) {
+                builder.append(String.format(",%.1f", 8 * rate));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return The statistics as JSON, response times in ms, throughput in packets/s and bits/s.
+     */
+    public JsonObject toJson() {
+        final JsonObject json = new JsonObject();
+        json.addProperty("session", name);
+        json.addProperty("start", startMillis);
+        json.addProperty("records", records);
+        json.addProperty("replies", replies);
+        json.addProperty("timeouts", timeouts);
+        json.addProperty("timeoutRate", getTimeoutRate());
+        final JsonObject response = new JsonObject();
+        response.addProperty("mean", responseMean);
+        response.addProperty("std", getResponseStd());
+        response.addProperty("min", responses == 0 ? 0 : responseMin);
+        response.addProperty("max", responseMax);
+        for (final double percentile : PERCENTILES) {
+            response.addProperty("p" + (int) percentile, getResponsePercentile(percentile));
+        }
+        json.add("responseMillis", response);
+        final JsonArray throughput = new JsonArray();
+        for (final int window : windowSeconds) {
+            final JsonObject windowJson = new JsonObject();
+            windowJson.addProperty("windowSeconds", window);
+            final double[] packets = windowRates(window, packetsPerSecond);
+            final double[] bits = windowRates(window, bytesPerSecond);
+            windowJson.addProperty("ppsMin", packets[0]);
+            windowJson.addProperty("ppsMean", packets[1]);
+            windowJson.addProperty("ppsMax", packets[2]);
+            windowJson.addProperty("bpsMin", 8 * bits[0]);
+            windowJson.addProperty("bpsMean", 8 * bits[1]);
+            windowJson.addProperty("bpsMax", 8 * bits[2]);
+            throughput.add(windowJson);
+        }
+        json.add("throughput", throughput);
+        return json;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public long getReplies() {
+        return replies;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+}
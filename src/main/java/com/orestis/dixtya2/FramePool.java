@@ -0,0 +1,163 @@
+package com.orestis.dixtya2;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Fixed set of preallocated frame buffers handed from a receiving thread to a consuming one, so that streaming
+ * doesn't allocate per frame.
+ * <p>
+ * The receiver fills a frame while the consumer works on the previous one, and the frame between them waits ready,
+ * like the back buffer of double buffering. The receiver never waits for the consumer: if no frame is free it takes
+ * back the oldest ready one, which the consumer then never sees. Three frames are enough for that, one being filled,
+ * one ready and one being consumed.</p>
+ * <p>
+ * Frames grow to fit the largest image seen, and keep their size when recycled.</p>
+ */
+public class FramePool {
+    private final static Logger logger = Logger.getLogger(FramePool.class.getName());
+    /**
+     * Minimum number of frames, see {@link FramePool}.
+     */
+    public static final int MIN_FRAMES = 3;
+
+    /**
+     * A frame buffer and the image it holds.
+     */
+    public static class Frame {
+        byte[] data;
+        /**
+         * {@link Frame#data} wrapped, so that writing a frame doesn't allocate.
+         */
+        ByteBuffer buffer;
+        int length;
+        long sequence;
+        long requestNanos;
+        long completeNanos;
+
+        Frame(final int capacity) {
+            data = new byte[capacity];
+            buffer = ByteBuffer.wrap(data);
+        }
+
+        /**
+         * Grow the buffer, keeping its contents, to hold at least {@code capacity} bytes.
+         *
+         * @param capacity The capacity needed.
+         */
+        void ensureCapacity(final int capacity) {
+            if (data.length < capacity) {
+                data = Arrays.copyOf(data, Math.max(capacity, 2 * data.length));
+                buffer = ByteBuffer.wrap(data);
+            }
+        }
+
+        /**
+         * @return The image bytes, from the start of {@link Frame#getData()} up to its length.
+         */
+        public ByteBuffer getImage() {
+            buffer.clear().limit(length);
+            return buffer;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * @return Time from the frame's request to its last packet.
+         */
+        public long getLatencyNanos() {
+            return completeNanos - requestNanos;
+        }
+    }
+
+    final BlockingQueue<Frame> free;
+    final BlockingQueue<Frame> ready;
+    final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param frames        Number of frames, at least {@link FramePool#MIN_FRAMES}.
+     * @param frameCapacity Initial capacity of each frame in bytes.
+     */
+    public FramePool(final int frames, final int frameCapacity) {
+        if (frames < MIN_FRAMES || frameCapacity < 1) {
+            final String message = "Invalid frame pool: " + frames + " frames of " + frameCapacity + " bytes.";
+            logger.severe(message);
+            throw new IllegalArgumentException(message);
+        }
+        free = new ArrayBlockingQueue<>(frames);
+        ready = new ArrayBlockingQueue<>(frames);
+        for (int i = 0; i < frames; i++) {
+            free.add(new Frame(frameCapacity));
+        }
+    }
+
+    /**
+     * Take a frame to fill, never waiting: a free one, or else the oldest ready one, which is dropped.
+     *
+     * @return The frame, emptied.
+     */
+    public Frame acquire() {
+        Frame frame = free.poll();
+        if (frame == null) {
+            frame = ready.poll();
+            if (frame == null) {
+                // Only if more than one frame is held outside the pool.
+                throw new IllegalStateException("No frame left in the pool.");
+            }
+            dropped.incrementAndGet();
+        }
+        frame.length = 0;
+        return frame;
+    }
+
+    /**
+     * Hand a filled frame to the consumer.
+     *
+     * @param frame A frame obtained by {@link FramePool#acquire()}.
+     */
+    public void publish(final Frame frame) {
+        ready.add(frame);
+    }
+
+    /**
+     * Take the oldest ready frame, waiting for one for a while.
+     *
+     * @param timeoutMillis Time to wait.
+     * @return The frame, {@code null} if none got ready in time.
+     * @throws InterruptedException
+     */
+    public Frame take(final long timeoutMillis) throws InterruptedException {
+        return ready.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Return a frame to the pool, once consumed or if it turned out incomplete.
+     *
+     * @param frame A frame obtained by {@link FramePool#acquire()} or {@link FramePool#take(long)}.
+     */
+    public void release(final Frame frame) {
+        free.add(frame);
+    }
+
+    /**
+     * @return Number of ready frames taken back by the receiver before the consumer got to them.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+}
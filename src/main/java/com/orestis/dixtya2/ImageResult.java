@@ -0,0 +1,40 @@
+package com.orestis.dixtya2;
+
+/**
+ * Outcome of a single image download.
+ */
+public class ImageResult {
+    final boolean complete;
+    final long bytes;
+    final int packets;
+    final long elapsedNanos;
+
+    /**
+     * @param complete     {@code true} if a whole image was received and saved.
+     * @param bytes        Bytes of image data received.
+     * @param packets      Packets received.
+     * @param elapsedNanos Time from the request until the end of the download.
+     */
+    public ImageResult(final boolean complete, final long bytes, final int packets, final long elapsedNanos) {
+        this.complete = complete;
+        this.bytes = bytes;
+        this.packets = packets;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public int getPackets() {
+        return packets;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+}
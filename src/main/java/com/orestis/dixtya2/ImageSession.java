@@ -0,0 +1,137 @@
+package com.orestis.dixtya2;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+/**
+ * {@link ReactorSession} that downloads a single image, writing each packet straight to a file.
+ * <p>
+ * The image is complete when a {@link JpegScanner} finds the end of image marker, when a packet shorter than
+ * {@code maxLength} arrives, or when the timer expires and the last bytes received are the JPEG terminating
+ * sequence {@code FFD9}. Otherwise the partial file is deleted.</p>
+ * <p>
+ * Each packet is waited for with the timeout of an {@link RtoEstimator}, sampled like {@code downloadImage} by the
+ * packets that answer a single request: the first one, and in FLOW mode those after {@code "NEXT"}.</p>
+ */
+public class ImageSession extends ReactorSession {
+    private final static Logger logger = Logger.getLogger(ImageSession.class.getName());
+    final int maxLength;
+    final boolean useFlow;
+    final RtoEstimator rto;
+    final File file;
+    final JpegScanner scanner = new JpegScanner();
+    /**
+     * Heap copy of the current packet for the {@link JpegScanner}.
+     */
+    final byte[] scanBuffer;
+    FileChannel out;
+    long totalBytes;
+    /**
+     * The last two bytes received.
+     */
+    byte secondToLast, last;
+    boolean complete;
+    /**
+     * Send time of the request the next packet answers, 0 if it doesn't answer a single request.
+     */
+    long requestNanos;
+
+    /**
+     * @param command       The image command, eg {@code "M1234FLOW=ONUDP=512CAM=FIX"}.
+     * @param clientPort    Local port the server replies to.
+     * @param serverAddress Address and port the server listens at.
+     * @param maxLength     The length of each UDP packet.
+     * @param useFlow       {@code true} if ithaki's "FLOW" feature is used.
+     * @param rto           Estimator of the time to wait for each packet.
+     * @param file          Where the image is saved.
+     */
+    public ImageSession(final String command, final int clientPort, final SocketAddress serverAddress,
+                        final int maxLength, final boolean useFlow, final RtoEstimator rto, final File file) {
+        super(command, clientPort, serverAddress);
+        this.maxLength = maxLength;
+        this.useFlow = useFlow;
+        this.rto = rto;
+        this.file = file;
+        scanBuffer = new byte[maxLength];
+    }
+
+    @Override
+    protected void start() throws IOException {
+        out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        send(name);
+        requestNanos = System.nanoTime();
+        setTimeout(rto.getTimeoutMillis());
+    }
+
+    @Override
+    protected void onDatagram(final ByteBuffer datagram) throws IOException {
+        if (requestNanos != 0) {
+            rto.onSample(System.nanoTime() - requestNanos);
+            requestNanos = 0;
+        }
+        final int scanLength = Math.min(scanBuffer.length, datagram.remaining());
+        datagram.duplicate().get(scanBuffer, 0, scanLength);
+        final int imageLength = scanner.scan(scanBuffer, 0, scanLength);
+        if (imageLength >= 0) {
+            // Drop anything after the end of the image.
+            datagram.limit(datagram.position() + imageLength);
+        }
+        final int packetLength = datagram.remaining();
+        if (packetLength >= 2) {
+            secondToLast = datagram.get(datagram.limit() - 2);
+        } else if (packetLength == 1) {
+            secondToLast = last;
+        }
+        if (packetLength >= 1) {
+            last = datagram.get(datagram.limit() - 1);
+        }
+        if (useFlow && imageLength < 0 && packetLength == maxLength) {
+            // Ask for the next packet before writing this one, to overlap the server's send with our write.
+            send("NEXT");
+            requestNanos = System.nanoTime();
+        }
+        while (datagram.hasRemaining()) {
+            out.write(datagram);
+        }
+        totalBytes += packetLength;
+        if (imageLength >= 0 || packetLength < maxLength) {
+            complete = true;
+            finish();
+        } else {
+            setTimeout(rto.getTimeoutMillis());
+        }
+    }
+
+    @Override
+    protected void onTimeout() {
+        complete = secondToLast == (byte) 0xff && last == (byte) 0xd9;
+        if (complete) {
+            logger.info(name + ": image download stopped by timeout.");
+        } else {
+            rto.onTimeout();
+            logger.warning(name + ": image download stopped by timeout. Last bytes aren't those that terminate a "
+                    + ".jpg image. No image will be saved.");
+        }
+        finish();
+    }
+
+    @Override
+    protected void onFinish() throws IOException {
+        out.close();
+        if (complete) {
+            logger.info(String.format("%s: saved %d bytes to %s.", name, totalBytes, file));
+        } else if (!file.delete()) {
+            logger.warning("Failed to delete incomplete image " + file);
+        }
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+}
@@ -0,0 +1,148 @@
+package com.orestis.dixtya2;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Picks the {@code UDP=} packet size and, in FLOW mode, the number of {@code NEXT} requests kept ahead of the
+ * received packets, by downloading a few images with each candidate setting.
+ * <p>
+ * Settings are scored by effective bytes/s, counting only complete images, so a setting that loses images ranks
+ * low. The best setting of each camera and mode is remembered for the rest of the session.</p>
+ */
+public class ImageTuner {
+    private final static Logger logger = Logger.getLogger(ImageTuner.class.getName());
+    /**
+     * Candidate packet sizes.
+     */
+    static final int[] PACKET_SIZES = {128, 256, 512, 1024};
+    /**
+     * Candidate FLOW prefetch depths.
+     */
+    static final int[] PREFETCH_DEPTHS = {1, 2, 4};
+
+    /**
+     * Downloads an image with the given settings.
+     */
+    public interface Downloader {
+        ImageResult download(int maxLength, boolean useFlow, String camera, int prefetch) throws IOException;
+    }
+
+    /**
+     * A tuned setting and the figures it achieved while probing.
+     */
+    public static class Setting {
+        final int maxLength;
+        final int prefetch;
+        final double imagesPerSecond;
+        final double bytesPerSecond;
+        final double lossRate;
+
+        Setting(final int maxLength, final int prefetch, final double imagesPerSecond, final double bytesPerSecond,
+                final double lossRate) {
+            this.maxLength = maxLength;
+            this.prefetch = prefetch;
+            this.imagesPerSecond = imagesPerSecond;
+            this.bytesPerSecond = bytesPerSecond;
+            this.lossRate = lossRate;
+        }
+
+        public int getMaxLength() {
+            return maxLength;
+        }
+
+        public int getPrefetch() {
+            return prefetch;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("UDP=%d prefetch=%d: %.2f images/s, %.0f bytes/s, %.0f%% lost", maxLength, prefetch,
+                    imagesPerSecond, bytesPerSecond, 100 * lossRate);
+        }
+    }
+
+    final int trialImages;
+    final Map<String, Setting> best = new ConcurrentHashMap<>();
+
+    /**
+     * @param trialImages Number of images downloaded with each candidate setting.
+     */
+    public ImageTuner(final int trialImages) {
+        this.trialImages = trialImages;
+    }
+
+    /**
+     * Get the best setting for a camera, probing every candidate the first time.
+     *
+     * @param downloader Used to download the trial images.
+     * @param camera     The camera.
+     * @param useFlow    {@code true} if ithaki's "FLOW" feature is used.
+     * @return The best setting.
+     * @throws IOException
+     */
+    public Setting tune(final Downloader downloader, final String camera, final boolean useFlow) throws IOException {
+        final String key = camera + (useFlow ? "-FLOW" : "");
+        Setting setting = best.get(key);
+        if (setting != null) {
+            return setting;
+        }
+        for (final int maxLength : PACKET_SIZES) {
+            for (final int prefetch : useFlow ? PREFETCH_DEPTHS : new int[]{1}) {
+                final Setting candidate = probe(downloader, camera, useFlow, maxLength, prefetch);
+                logger.info(key + ": " + candidate);
+                if (setting == null || candidate.bytesPerSecond > setting.bytesPerSecond) {
+                    setting = candidate;
+                }
+            }
+        }
+        logger.info(key + ": best " + setting);
+        best.put(key, setting);
+        return setting;
+    }
+
+    Setting probe(final Downloader downloader, final String camera, final boolean useFlow, final int maxLength,
+                  final int prefetch) throws IOException {
+        long elapsedNanos = 0;
+        long bytes = 0;
+        int complete = 0;
+        for (int i = 0; i < trialImages; i++) {
+            final ImageResult result = downloader.download(maxLength, useFlow, camera, prefetch);
+            elapsedNanos += result.elapsedNanos;
+            if (result.complete) {
+                complete++;
+                bytes += result.bytes;
+            }
+        }
+        final double seconds = Math.max(1, elapsedNanos) / 1e9;
+        return new Setting(maxLength, prefetch, complete / seconds, bytes / seconds,
+                1 - (double) complete / trialImages);
+    }
+
+    /**
+     * Summarize the downloads made with a tuned setting.
+     *
+     * @param camera  The camera.
+     * @param results The downloads.
+     * @return A summary line.
+     */
+    public static String report(final String camera, final Iterable<ImageResult> results) {
+        long elapsedNanos = 0;
+        long bytes = 0;
+        int images = 0;
+        int total = 0;
+        for (final ImageResult result : results) {
+            total++;
+            elapsedNanos += result.elapsedNanos;
+            if (result.complete) {
+                images++;
+                bytes += result.bytes;
+            }
+        }
+        final double seconds = Math.max(1, elapsedNanos) / 1e9;
+        return String.format("%s: %d/%d images, %.2f images/s, %.0f bytes/s", camera, images, total,
+                images / seconds, bytes / seconds);
+    }
+}
@@ -0,0 +1,60 @@
+package com.orestis.dixtya2;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Growable history of primitive {@code int} values, avoiding the boxing of an {@code ArrayList<Integer>}.
+ */
+public class IntHistory {
+    int[] values;
+    int size;
+
+    /**
+     * @param initialCapacity Number of values that can be added before the backing array has to grow.
+     */
+    public IntHistory(final int initialCapacity) {
+        values = new int[Math.max(1, initialCapacity)];
+    }
+
+    public void add(final int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, 2 * size);
+        }
+        values[size++] = value;
+    }
+
+    public int get(final int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return values[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Remove all values, keeping the backing array.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Print the values as a JSON array, eg {@code [1, 2, 3]}, without building an intermediate {@link String}.
+     *
+     * @param out The writer.
+     */
+    public void print(final PrintWriter out) {
+        out.print('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                out.print(", ");
+            }
+            out.print(values[i]);
+        }
+        out.print(']');
+    }
+}
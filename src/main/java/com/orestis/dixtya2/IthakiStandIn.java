@@ -0,0 +1,412 @@
+package com.orestis.dixtya2;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local UDP server that speaks the same protocol as ithaki, for offline load and regression testing.
+ * <p>
+ * It reads the same {@code codes.json} as the client. Pointing the client at it only needs an extra
+ * {@code "serverAddress": "127.0.0.1"} entry. Network impairments are configured by an optional {@code "standIn"}
+ * object in the same file:</p>
+ * <pre>
+ * "standIn": {"delay": 0, "jitter": 0, "loss": 0.0, "reorder": 0.0, "echoDelay": 100, "soundPacketInterval": 0,
+ *             "bandwidth": 0, "uplinkBandwidth": 0, "portPairs": 1}
+ * </pre>
+ * <ul>
+ * <li>{@code delay}, {@code jitter}: base one-way delay and maximum extra random delay in ms.</li>
+ * <li>{@code loss}, {@code reorder}: probability for each datagram to be dropped or held back behind later
+ * ones.</li>
+ * <li>{@code echoDelay}: maximum artificial delay in ms of the {@code EXXXX} code.</li>
+ * <li>{@code soundPacketInterval}: pacing of sound packets in ms, 0 sends them back-to-back.</li>
+ * <li>{@code bandwidth}: rate in bytes/s, UDP and IP headers included, of the link every reply is serialized on
+ * before its delay, 0 for unlimited.</li>
+ * <li>{@code uplinkBandwidth}: rate in bytes/s at which each port pair takes in requests, which queue behind each
+ * other, 0 for unlimited.</li>
+ * <li>{@code portPairs}: number of consecutive port pairs served. Requests arriving at
+ * {@code serverListeningPort + i} are answered at {@code clientListeningPort + i}.</li>
+ * </ul>
+ */
+public class IthakiStandIn {
+    private final static Logger logger = Logger.getLogger(IthakiStandIn.class.getName());
+    /**
+     * Code used to use the "echo" functionality without the artificial delay.
+     */
+    static final String ECHO_WITHOUT_DELAY_CODE = "E0000";
+    /**
+     * Default JSON file with the codes, shared with the client.
+     */
+    static final String JSON_FILE_NAME = "codes.json";
+    /**
+     * Format of the echo reply, modeled after ithaki's.
+     */
+    static final String ECHO_REPLY_FORMAT = "PSTART %s PC %02d PSTOP";
+    /**
+     * Image command options, eg {@code "FLOW=ONUDP=512CAM=FIX"} after the request code.
+     */
+    static final Pattern IMAGE_PATTERN = Pattern.compile("(FLOW=ON)?(?:UDP=(\\d+))?(?:CAM=(\\w+))?");
+    /**
+     * Sound command options, eg {@code "L23AQF999"} after the request code.
+     */
+    static final Pattern SOUND_PATTERN = Pattern.compile("(?:L(\\d{2}))?(AQ)?([TF])(\\d{3})");
+
+    final int clientListeningPort;
+    final int serverListeningPort;
+    final String echoRequestCode;
+    final String imageRequestCode;
+    final String soundRequestCode;
+    final long delay;
+    final long jitter;
+    final double loss;
+    final double reorder;
+    final long echoDelay;
+    final long soundPacketInterval;
+    final long bandwidth;
+    final long uplinkBandwidth;
+    final int portPairs;
+    /**
+     * {@link System#nanoTime()} at which the link of {@link IthakiStandIn#bandwidth} is done with the replies
+     * queued so far.
+     */
+    long linkFreeNanos;
+    /**
+     * Delays and sends outgoing datagrams.
+     */
+    final ScheduledExecutorService sender = Executors.newSingleThreadScheduledExecutor();
+    /**
+     * Runs sound transmissions so they don't block the request loop of their port pair.
+     */
+    final ExecutorService streams = Executors.newCachedThreadPool();
+    /**
+     * Encoded JPEG image per camera, generated on first use.
+     */
+    final Map<String, byte[]> images = new HashMap<>();
+
+    public static void main(final String[] args) throws IOException {
+        final IthakiStandIn standIn = new IthakiStandIn(args.length > 0 ? args[0] : JSON_FILE_NAME);
+        standIn.start();
+    }
+
+    /**
+     * @param codesFileName JSON file with the codes and the optional {@code "standIn"} configuration.
+     * @throws FileNotFoundException
+     */
+    public IthakiStandIn(final String codesFileName) throws FileNotFoundException {
+        final JsonReader reader = new JsonReader(new FileReader(codesFileName));
+        final JsonObject json = new Gson().fromJson(reader, JsonObject.class);
+        clientListeningPort = json.get("clientListeningPort").getAsInt();
+        serverListeningPort = json.get("serverListeningPort").getAsInt();
+        echoRequestCode = json.get("echoRequestCode").getAsString();
+        imageRequestCode = json.get("imageRequestCode").getAsString();
+        soundRequestCode = json.get("soundRequestCode").getAsString();
+
+        final JsonObject config = json.has("standIn") ? json.getAsJsonObject("standIn") : new JsonObject();
+        delay = config.has("delay") ? config.get("delay").getAsLong() : 0;
+        jitter = config.has("jitter") ? config.get("jitter").getAsLong() : 0;
+        loss = config.has("loss") ? config.get("loss").getAsDouble() : 0;
+        reorder = config.has("reorder") ? config.get("reorder").getAsDouble() : 0;
+        echoDelay = config.has("echoDelay") ? config.get("echoDelay").getAsLong() : 100;
+        soundPacketInterval = config.has("soundPacketInterval") ? config.get("soundPacketInterval").getAsLong() : 0;
+        bandwidth = config.has("bandwidth") ? config.get("bandwidth").getAsLong() : 0;
+        uplinkBandwidth = config.has("uplinkBandwidth") ? config.get("uplinkBandwidth").getAsLong() : 0;
+        portPairs = config.has("portPairs") ? config.get("portPairs").getAsInt() : 1;
+    }
+
+    /**
+     * Bind every port pair and start serving requests, each pair on its own thread.
+     *
+     * @throws SocketException
+     */
+    public void start() throws SocketException {
+        logger.info(String.format("Stand-in serving ports %d..%d, replying to %d..%d. delay=%d jitter=%d loss=%.3f "
+                        + "reorder=%.3f bandwidth=%d uplinkBandwidth=%d", serverListeningPort,
+                serverListeningPort + portPairs - 1, clientListeningPort, clientListeningPort + portPairs - 1, delay,
+                jitter, loss, reorder, bandwidth, uplinkBandwidth));
+        for (int i = 0; i < portPairs; i++) {
+            final PortPair pair = new PortPair(new DatagramSocket(serverListeningPort + i), clientListeningPort + i);
+            final Thread thread = new Thread(pair, "stand-in-" + (serverListeningPort + i));
+            thread.start();
+        }
+    }
+
+    /**
+     * Time to serialize a datagram at a rate.
+     *
+     * @param length    Length of the payload.
+     * @param bandwidth Rate in bytes/s, UDP and IP headers included.
+     * @return The time in ns.
+     */
+    static long transmissionNanos(final int length, final long bandwidth) {
+        return (length + CapacityProbe.UDP_IP_OVERHEAD) * 1000000000L / bandwidth;
+    }
+
+    /**
+     * Queue a reply on the link of {@link IthakiStandIn#bandwidth}.
+     *
+     * @param length Length of the payload.
+     * @return Time in ns until the reply is through the link.
+     */
+    synchronized long reserveLink(final int length) {
+        final long now = System.nanoTime();
+        linkFreeNanos = Math.max(now, linkFreeNanos) + transmissionNanos(length, bandwidth);
+        return linkFreeNanos - now;
+    }
+
+    /**
+     * Send a datagram, applying the configured bandwidth, loss, delay, jitter and reordering.
+     *
+     * @param socket      Socket to send from.
+     * @param data        The payload. Not copied, so it must not be reused by the caller.
+     * @param length      Length of the payload.
+     * @param destination The receiver.
+     * @param extraDelay  Delay in ms to be added to the configured one, eg the artificial echo delay.
+     */
+    void send(final DatagramSocket socket, final byte[] data, final int length, final SocketAddress destination,
+              final long extraDelay) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (loss > 0 && random.nextDouble() < loss) {
+            return;
+        }
+        long totalDelay = delay + extraDelay + (jitter > 0 ? random.nextLong(jitter + 1) : 0);
+        if (reorder > 0 && random.nextDouble() < reorder) {
+            // Hold the datagram back long enough for the next ones to overtake it.
+            totalDelay += jitter + Math.max(1, soundPacketInterval) + 1;
+        }
+        final long totalDelayNanos = totalDelay * 1000000 + (bandwidth > 0 ? reserveLink(length) : 0);
+        final DatagramPacket packet = new DatagramPacket(data, length, destination);
+        if (totalDelayNanos <= 0) {
+            sendNow(socket, packet);
+        } else {
+            sender.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    sendNow(socket, packet);
+                }
+            }, totalDelayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    void sendNow(final DatagramSocket socket, final DatagramPacket packet) {
+        try {
+            socket.send(packet);
+        } catch (final IOException exception) {
+            logger.warning("Failed to send packet: " + exception);
+        }
+    }
+
+    /**
+     * Get the JPEG image of a camera, drawing it the first time.
+     *
+     * @param camera The camera name, eg {@code "FIX"}.
+     * @return The JPEG bytes, terminated by {@code FFD9}.
+     * @throws IOException
+     */
+    synchronized byte[] getImage(final String camera) throws IOException {
+        byte[] image = images.get(camera);
+        if (image == null) {
+            final boolean ptz = camera.equals("PTZ");
+            final BufferedImage picture = new BufferedImage(ptz ? 640 : 320, ptz ? 480 : 240,
+                    BufferedImage.TYPE_INT_RGB);
+            final Graphics2D graphics = picture.createGraphics();
+            graphics.setPaint(new GradientPaint(0, 0, Color.DARK_GRAY, picture.getWidth(), picture.getHeight(),
+                    ptz ? Color.ORANGE : Color.CYAN));
+            graphics.fillRect(0, 0, picture.getWidth(), picture.getHeight());
+            final Random random = new Random(camera.hashCode());
+            for (int i = 0; i < 40; i++) {
+                graphics.setColor(new Color(random.nextInt(0x1000000)));
+                graphics.fillOval(random.nextInt(picture.getWidth()), random.nextInt(picture.getHeight()), 30, 30);
+            }
+            graphics.setColor(Color.WHITE);
+            graphics.setFont(new Font(Font.MONOSPACED, Font.BOLD, 24));
+            graphics.drawString("ithaki stand-in " + camera, 10, 30);
+            graphics.dispose();
+            final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            ImageIO.write(picture, "jpg", stream);
+            image = stream.toByteArray();
+            images.put(camera, image);
+        }
+        return image;
+    }
+
+    /**
+     * Generate the samples of a track. The same track id always produces the same audio.
+     *
+     * @param trackId       Track number.
+     * @param totalSamples  Number of samples.
+     * @param amplitude     Peak amplitude, eg 100 for 8-bit and 8000 for 16-bit samples.
+     * @return The samples.
+     */
+    public static int[] generateTrack(final int trackId, final int totalSamples, final int amplitude) {
+        final int[] samples = new int[totalSamples];
+        final double base = 220 * Math.pow(2, (trackId % 24) / 12.0);
+        for (int i = 0; i < totalSamples; i++) {
+            final double t = i / 8000.0;
+            // A note with a couple of harmonics that changes pitch every half second.
+            final double frequency = base * (1 + ((i / 4000) % 4) / 4.0);
+            final double value = 0.6 * Math.sin(2 * Math.PI * frequency * t)
+                    + 0.25 * Math.sin(4 * Math.PI * frequency * t)
+                    + 0.15 * Math.sin(6 * Math.PI * frequency * t);
+            samples[i] = (int) Math.round(amplitude * value);
+        }
+        return samples;
+    }
+
+    /**
+     * Serves the requests arriving at one server port, answering at the matching client port.
+     */
+    class PortPair implements Runnable {
+        final DatagramSocket socket;
+        final int replyPort;
+        /**
+         * Image being sent in FLOW mode, waiting for {@code "NEXT"} requests.
+         */
+        byte[] flowImage;
+        int flowOffset;
+        int flowLength;
+        int echoCounter;
+
+        PortPair(final DatagramSocket socket, final int replyPort) {
+            this.socket = socket;
+            this.replyPort = replyPort;
+        }
+
+        @Override
+        public void run() {
+            final byte[] buffer = new byte[2048];
+            final DatagramPacket request = new DatagramPacket(buffer, buffer.length);
+            // Time at which the requests taken in so far are through the uplink.
+            long uplinkFreeNanos = 0;
+            while (!socket.isClosed()) {
+                try {
+                    socket.receive(request);
+                    if (uplinkBandwidth > 0) {
+                        final long now = System.nanoTime();
+                        uplinkFreeNanos = Math.max(now, uplinkFreeNanos)
+                                + transmissionNanos(request.getLength(), uplinkBandwidth);
+                        LockSupport.parkNanos(uplinkFreeNanos - now);
+                    }
+                    final String command = new String(buffer, 0, request.getLength()).trim();
+                    handle(command, new InetSocketAddress(request.getAddress(), replyPort));
+                } catch (final IOException | RuntimeException exception) {
+                    logger.warning("Failed to serve request: " + exception);
+                }
+            }
+        }
+
+        void handle(final String command, final InetSocketAddress destination) throws IOException {
+            if (command.equals("NEXT")) {
+                sendNextImagePacket(destination);
+            } else if (command.startsWith(ECHO_WITHOUT_DELAY_CODE) || command.startsWith(echoRequestCode)) {
+                final boolean delayed = !command.startsWith(ECHO_WITHOUT_DELAY_CODE);
+                final String date = new SimpleDateFormat("dd-MM-yyyy HH:mm:ss").format(new Date());
+                final byte[] reply = String.format(ECHO_REPLY_FORMAT, date, echoCounter++ % 100).getBytes();
+                send(socket, reply, reply.length, destination,
+                        delayed && echoDelay > 0 ? ThreadLocalRandom.current().nextLong(echoDelay + 1) : 0);
+            } else if (command.startsWith(imageRequestCode)) {
+                final Matcher matcher = IMAGE_PATTERN.matcher(command.substring(imageRequestCode.length()));
+                if (!matcher.matches()) {
+                    logger.warning("Invalid image command: " + command);
+                    return;
+                }
+                final byte[] image = getImage(matcher.group(3) != null ? matcher.group(3) : "FIX");
+                final int length = matcher.group(2) != null ? Integer.parseInt(matcher.group(2)) : 128;
+                if (matcher.group(1) != null) {
+                    flowImage = image;
+                    flowOffset = 0;
+                    flowLength = length;
+                    sendNextImagePacket(destination);
+                } else {
+                    for (int offset = 0; offset < image.length; offset += length) {
+                        final byte[] data = Arrays.copyOfRange(image, offset, Math.min(image.length, offset + length));
+                        send(socket, data, data.length, destination, 0);
+                    }
+                }
+            } else if (command.startsWith(soundRequestCode)) {
+                final Matcher matcher = SOUND_PATTERN.matcher(command.substring(soundRequestCode.length()));
+                if (!matcher.matches()) {
+                    logger.warning("Invalid sound command: " + command);
+                    return;
+                }
+                final int trackId = matcher.group(3).equals("T") ? ThreadLocalRandom.current().nextInt(1, 100)
+                        : (matcher.group(1) != null ? Integer.parseInt(matcher.group(1)) : 1);
+                final boolean useAQ = matcher.group(2) != null;
+                final int totalPackages = Integer.parseInt(matcher.group(4));
+                streams.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendSound(trackId, useAQ, totalPackages, destination);
+                    }
+                });
+            } else {
+                logger.warning("Unknown command: " + command);
+            }
+        }
+
+        void sendNextImagePacket(final InetSocketAddress destination) {
+            if (flowImage == null || flowOffset >= flowImage.length) {
+                return;
+            }
+            final int end = Math.min(flowImage.length, flowOffset + flowLength);
+            final byte[] data = Arrays.copyOfRange(flowImage, flowOffset, end);
+            flowOffset = end;
+            send(socket, data, data.length, destination, 0);
+        }
+
+        void sendSound(final int trackId, final boolean useAQ, final int totalPackages,
+                       final InetSocketAddress destination) {
+            final SoundEncoder encoder = SoundEncoder.create(useAQ);
+            final int[] samples = generateTrack(trackId, totalPackages * SoundEncoder.SAMPLES_PER_PACKAGE,
+                    useAQ ? 8000 : 100);
+            long nextSend = System.nanoTime();
+            for (int packageId = 0; packageId < totalPackages; packageId++) {
+                final byte[] packet = new byte[encoder.packetLength()];
+                encoder.encode(samples, packageId * SoundEncoder.SAMPLES_PER_PACKAGE, packet);
+                if (soundPacketInterval > 0) {
+                    nextSend += TimeUnit.MILLISECONDS.toNanos(soundPacketInterval);
+                    final long sleep = nextSend - System.nanoTime();
+                    if (sleep > 0) {
+                        try {
+                            TimeUnit.NANOSECONDS.sleep(sleep);
+                        } catch (final InterruptedException exception) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                }
+                send(socket, packet, packet.length, destination, 0);
+            }
+        }
+    }
+}
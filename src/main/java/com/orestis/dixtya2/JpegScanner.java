@@ -0,0 +1,152 @@
+package com.orestis.dixtya2;
+
+/**
+ * Incremental JPEG marker scanner that detects the end of an image (EOI, {@code FFD9}) as packets arrive.
+ * <p>
+ * It walks the marker segments using their lengths, so {@code FFD9} inside a segment, like the thumbnail of an EXIF
+ * header, isn't mistaken for the end. Inside entropy-coded data, stuffed {@code FF00} bytes and restart markers
+ * {@code FFD0}-{@code FFD7} are skipped and any other marker starts a new segment, as between the scans of a
+ * progressive image.</p>
+ */
+public class JpegScanner {
+    enum State {
+        SOI_FF, SOI_D8, MARKER_FF, MARKER_CODE, LENGTH_HIGH, LENGTH_LOW, SEGMENT, ENTROPY, ENTROPY_FF, DONE, INVALID
+    }
+
+    State state = State.SOI_FF;
+    /**
+     * Code of the marker whose segment is being read.
+     */
+    int marker;
+    /**
+     * Bytes of the current segment still to be skipped.
+     */
+    int remaining;
+    /**
+     * Total number of bytes scanned.
+     */
+    long scanned;
+
+    /**
+     * Scan the next bytes of the image.
+     *
+     * @param data   The bytes.
+     * @param offset Index of the first byte.
+     * @param length Number of bytes.
+     * @return Number of bytes of {@code data} up to and including the EOI marker if it was found, else -1.
+     */
+    public int scan(final byte[] data, final int offset, final int length) {
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            final int b = data[i] & 0xff;
+            switch (state) {
+                case SOI_FF:
+                    state = b == 0xff ? State.SOI_D8 : State.INVALID;
+                    break;
+                case SOI_D8:
+                    state = b == 0xd8 ? State.MARKER_FF : State.INVALID;
+                    break;
+                case MARKER_FF:
+                    state = b == 0xff ? State.MARKER_CODE : State.INVALID;
+                    break;
+                case MARKER_CODE:
+                    onMarker(b);
+                    break;
+                case LENGTH_HIGH:
+                    remaining = b << 8;
+                    state = State.LENGTH_LOW;
+                    break;
+                case LENGTH_LOW:
+                    // The length includes its own two bytes.
+                    remaining = (remaining | b) - 2;
+                    if (remaining < 0) {
+                        state = State.INVALID;
+                    } else {
+                        state = State.SEGMENT;
+                        if (remaining == 0) {
+                            endSegment();
+                        }
+                    }
+                    break;
+                case SEGMENT:
+                    // Skip the rest of the segment that is in this chunk at once.
+                    final int skip = Math.min(remaining, end - i);
+                    remaining -= skip;
+                    i += skip - 1;
+                    if (remaining == 0) {
+                        endSegment();
+                    }
+                    break;
+                case ENTROPY:
+                    if (b == 0xff) {
+                        state = State.ENTROPY_FF;
+                    }
+                    break;
+                case ENTROPY_FF:
+                    if (b == 0x00 || (b >= 0xd0 && b <= 0xd7)) {
+                        state = State.ENTROPY;
+                    } else if (b != 0xff) {
+                        onMarker(b);
+                    }
+                    break;
+                default:
+                    scanned += i - offset;
+                    return -1;
+            }
+            if (state == State.DONE) {
+                scanned += i + 1 - offset;
+                return i + 1 - offset;
+            }
+        }
+        scanned += length;
+        return -1;
+    }
+
+    void onMarker(final int code) {
+        if (code == 0xd9) {
+            state = State.DONE;
+        } else if (code == 0xff) {
+            // Fill byte before a marker.
+            state = State.MARKER_CODE;
+        } else if (code == 0x01 || (code >= 0xd0 && code <= 0xd8)) {
+            // Standalone markers without a length.
+            state = State.MARKER_FF;
+        } else {
+            marker = code;
+            state = State.LENGTH_HIGH;
+        }
+    }
+
+    void endSegment() {
+        // Entropy-coded data follows the header of a scan.
+        state = marker == 0xda ? State.ENTROPY : State.MARKER_FF;
+    }
+
+    /**
+     * Start over, for the next image.
+     */
+    public void reset() {
+        state = State.SOI_FF;
+        marker = 0;
+        remaining = 0;
+        scanned = 0;
+    }
+
+    /**
+     * @return {@code true} once the EOI marker has been scanned.
+     */
+    public boolean isComplete() {
+        return state == State.DONE;
+    }
+
+    /**
+     * @return {@code true} if the bytes scanned so far aren't a valid JPEG marker structure.
+     */
+    public boolean isInvalid() {
+        return state == State.INVALID;
+    }
+
+    public long getScanned() {
+        return scanned;
+    }
+}
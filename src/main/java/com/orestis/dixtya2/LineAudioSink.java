@@ -0,0 +1,36 @@
+package com.orestis.dixtya2;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * {@link AudioSink} that plays audio through a {@link SourceDataLine}.
+ */
+public class LineAudioSink implements AudioSink {
+    /**
+     * Size in bytes of the line's internal buffer.
+     */
+    static final int LINE_BUFFER_SIZE = 32000;
+    SourceDataLine lineOut;
+
+    @Override
+    public void open(final AudioFormat format) throws LineUnavailableException {
+        lineOut = AudioSystem.getSourceDataLine(format);
+        lineOut.open(format, LINE_BUFFER_SIZE);
+        lineOut.start();
+    }
+
+    @Override
+    public void write(final byte[] data, final int offset, final int length) {
+        lineOut.write(data, offset, length);
+    }
+
+    @Override
+    public void close() {
+        lineOut.drain();
+        lineOut.stop();
+        lineOut.close();
+    }
+}
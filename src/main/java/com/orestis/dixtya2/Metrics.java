@@ -0,0 +1,129 @@
+package com.orestis.dixtya2;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide registry of {@link OperationMetrics}.
+ * <p>
+ * Each operation is registered as the MBean {@code com.orestis.dixtya2:type=Operation,name=<name>} when first
+ * used, so it can be watched live with JConsole, and {@link Metrics#startSnapshots(File, long)} writes all of them
+ * to a JSON file periodically.</p>
+ */
+public class Metrics {
+    private final static Logger logger = Logger.getLogger(Metrics.class.getName());
+    public static final String ECHO = "echo";
+    public static final String IMAGE = "image";
+    public static final String IMAGE_FRAME = "image.frame";
+    public static final String SOUND = "sound";
+    public static final String DECODE_DPCM = "decode.dpcm";
+    public static final String DECODE_AQDPCM = "decode.aqdpcm";
+
+    static final ConcurrentMap<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+
+    /**
+     * @param name Name of the operation, eg {@link Metrics#ECHO}.
+     * @return The metrics of the operation, created and registered with JMX on first use.
+     */
+    public static OperationMetrics get(final String name) {
+        final OperationMetrics existing = operations.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        final OperationMetrics metrics = new OperationMetrics(name);
+        final OperationMetrics previous = operations.putIfAbsent(name, metrics);
+        if (previous != null) {
+            return previous;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+                    new ObjectName("com.orestis.dixtya2:type=Operation,name=" + ObjectName.quote(name)));
+        } catch (final JMException exception) {
+            logger.warning("Failed to register metrics " + name + " with JMX: " + exception);
+        }
+        return metrics;
+    }
+
+    /**
+     * @return The current values of every operation as JSON, latencies in microseconds.
+     */
+    public static JsonObject snapshot() {
+        final JsonObject json = new JsonObject();
+        json.addProperty("time", System.currentTimeMillis());
+        final Map<String, OperationMetrics> sorted = new TreeMap<>(operations);
+        for (final OperationMetrics metrics : sorted.values()) {
+            final JsonObject operation = new JsonObject();
+            operation.addProperty("packets", metrics.getPackets());
+            operation.addProperty("bytes", metrics.getBytes());
+            operation.addProperty("timeouts", metrics.getTimeouts());
+            operation.addProperty("latencyCount", metrics.getLatencyCount());
+            operation.addProperty("latencyMeanMicros", metrics.getLatencyMeanMicros());
+            operation.addProperty("latencyP50Micros", metrics.getLatencyP50Micros());
+            operation.addProperty("latencyP90Micros", metrics.latency.getValueAtPercentile(90) / 1000.0);
+            operation.addProperty("latencyP99Micros", metrics.getLatencyP99Micros());
+            operation.addProperty("latencyMaxMicros", metrics.getLatencyMaxMicros());
+            json.add(metrics.getName(), operation);
+        }
+        return json;
+    }
+
+    /**
+     * Write a {@link Metrics#snapshot()}, replacing the file at once so readers never see a partial one.
+     *
+     * @param file The file.
+     * @throws IOException
+     */
+    public static void writeSnapshot(final File file) throws IOException {
+        final File parent = file.getAbsoluteFile().getParentFile();
+        final File temporary = File.createTempFile(file.getName(), ".tmp", parent);
+        final Writer out = new FileWriter(temporary);
+        try {
+            new GsonBuilder().setPrettyPrinting().create().toJson(snapshot(), out);
+        } finally {
+            out.close();
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Write snapshots periodically on a daemon thread.
+     *
+     * @param file         The file.
+     * @param periodMillis Time between snapshots.
+     * @return The executor, to be shut down once done, after which a last snapshot should be written.
+     */
+    public static ScheduledExecutorService startSnapshots(final File file, final long periodMillis) {
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(() -> {
+            try {
+                writeSnapshot(file);
+            } catch (final IOException exception) {
+                logger.warning("Failed to write metrics to " + file + ": " + exception);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        return executor;
+    }
+}
@@ -0,0 +1,62 @@
+package com.orestis.dixtya2;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AudioSink} that discards audio, for headless machines.
+ * <p>
+ * When real-time, writes block for as long as a sound card would take to play the data, so that jitter buffer
+ * behaviour can be observed without audio hardware.</p>
+ */
+public class NullAudioSink implements AudioSink {
+    final boolean realTime;
+    double bytesPerNano;
+    /**
+     * Time at which all data written so far will have been "played".
+     */
+    long playedUntil;
+    volatile long bytesWritten;
+
+    /**
+     * @param realTime {@code true} to consume data at the rate of the audio format.
+     */
+    public NullAudioSink(final boolean realTime) {
+        this.realTime = realTime;
+    }
+
+    @Override
+    public void open(final AudioFormat format) {
+        bytesPerNano = format.getFrameRate() * format.getFrameSize() / 1e9;
+        playedUntil = System.nanoTime();
+    }
+
+    @Override
+    public void write(final byte[] data, final int offset, final int length) {
+        bytesWritten += length;
+        if (!realTime) {
+            return;
+        }
+        final long now = System.nanoTime();
+        // A sound card that ran dry starts playing new data immediately.
+        playedUntil = Math.max(playedUntil, now) + (long) (length / bytesPerNano);
+        final long sleep = playedUntil - now - (long) (LineAudioSink.LINE_BUFFER_SIZE / bytesPerNano);
+        if (sleep > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(sleep);
+            } catch (final InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return Total number of bytes written.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void close() {}
+}
@@ -0,0 +1,88 @@
+package com.orestis.dixtya2;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of packets, bytes and timeouts and a {@link LatencyHistogram} for a single kind of operation, eg echo
+ * requests or AQ-DPCM decoding. Obtained from {@link Metrics#get(String)}.
+ * <p>
+ * Updates are lock-free and cheap enough for the receive loops, unlike building a log message per packet.</p>
+ */
+public class OperationMetrics implements OperationMetricsMBean {
+    final String name;
+    final LongAdder packets = new LongAdder();
+    final LongAdder bytes = new LongAdder();
+    final LongAdder timeouts = new LongAdder();
+    final LatencyHistogram latency = new LatencyHistogram();
+
+    OperationMetrics(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Count a packet.
+     *
+     * @param length       Its length in bytes.
+     * @param latencyNanos Latency of the packet, whose meaning depends on the operation.
+     */
+    public void onPacket(final int length, final long latencyNanos) {
+        packets.increment();
+        bytes.add(length);
+        latency.record(latencyNanos);
+    }
+
+    /**
+     * Count a timeout.
+     */
+    public void onTimeout() {
+        timeouts.increment();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public long getPackets() {
+        return packets.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getLatencyCount() {
+        return latency.getCount();
+    }
+
+    @Override
+    public double getLatencyMeanMicros() {
+        return latency.getMean() / 1000;
+    }
+
+    @Override
+    public double getLatencyP50Micros() {
+        return latency.getValueAtPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getLatencyP99Micros() {
+        return latency.getValueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getLatencyMaxMicros() {
+        return latency.getMax() / 1000.0;
+    }
+}
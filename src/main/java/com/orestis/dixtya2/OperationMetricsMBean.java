@@ -0,0 +1,22 @@
+package com.orestis.dixtya2;
+
+/**
+ * JMX view of an {@link OperationMetrics}. Latencies are in microseconds.
+ */
+public interface OperationMetricsMBean {
+    long getPackets();
+
+    long getBytes();
+
+    long getTimeouts();
+
+    long getLatencyCount();
+
+    double getLatencyMeanMicros();
+
+    double getLatencyP50Micros();
+
+    double getLatencyP99Micros();
+
+    double getLatencyMaxMicros();
+}
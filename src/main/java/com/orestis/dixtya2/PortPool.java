@@ -0,0 +1,49 @@
+package com.orestis.dixtya2;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pool of port pair offsets. Offset {@code i} stands for the pair {@code clientListeningPort + i},
+ * {@code serverListeningPort + i}, so the pool size bounds how many operations can talk to the server at once.
+ */
+public class PortPool {
+    final BlockingQueue<Integer> offsets;
+
+    /**
+     * @param firstOffset Offset of the first pair in the pool.
+     * @param size        Number of consecutive pairs in the pool.
+     */
+    public PortPool(final int firstOffset, final int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Invalid port pool size: " + size);
+        }
+        offsets = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            offsets.add(firstOffset + i);
+        }
+    }
+
+    /**
+     * Take a port pair, waiting until one is free.
+     *
+     * @return The offset of the pair.
+     * @throws InterruptedException
+     */
+    public int acquire() throws InterruptedException {
+        return offsets.take();
+    }
+
+    /**
+     * Return a port pair obtained by {@link PortPool#acquire()}.
+     *
+     * @param offset The offset of the pair.
+     */
+    public void release(final int offset) {
+        offsets.add(offset);
+    }
+
+    public int size() {
+        return offsets.remainingCapacity() + offsets.size();
+    }
+}
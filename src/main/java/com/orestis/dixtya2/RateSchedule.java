@@ -0,0 +1,95 @@
+package com.orestis.dixtya2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Target request rate over time, as consecutive segments of a constant rate or a linear ramp.
+ * <p>
+ * Parsed from a comma separated list of {@code rate:seconds} or {@code from-to:seconds} segments, rates in packets
+ * per second, eg {@code "50:30,50-400:120,400:30"} for 30 s at 50 packets/s, a 2 minute ramp up to 400 packets/s
+ * and 30 s at that rate.</p>
+ */
+public class RateSchedule {
+    private final static Logger logger = Logger.getLogger(RateSchedule.class.getName());
+
+    static class Segment {
+        final double fromRate;
+        final double toRate;
+        final long startNanos;
+        final long durationNanos;
+
+        Segment(final double fromRate, final double toRate, final long startNanos, final long durationNanos) {
+            this.fromRate = fromRate;
+            this.toRate = toRate;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+        }
+    }
+
+    final String description;
+    final List<Segment> segments = new ArrayList<>();
+    final long durationNanos;
+
+    /**
+     * @param description The schedule, eg {@code "50:30,50-400:120"}.
+     */
+    public RateSchedule(final String description) {
+        this.description = description;
+        long start = 0;
+        for (final String part : description.split(",")) {
+            final String[] fields = part.trim().split(":");
+            final String[] rates = fields[0].split("-");
+            final double fromRate;
+            final double toRate;
+            final double seconds;
+            try {
+                if (fields.length != 2 || rates.length > 2) {
+                    throw new NumberFormatException(part);
+                }
+                fromRate = Double.parseDouble(rates[0].trim());
+                toRate = rates.length == 2 ? Double.parseDouble(rates[1].trim()) : fromRate;
+                seconds = Double.parseDouble(fields[1].trim());
+            } catch (final NumberFormatException exception) {
+                final String message = "Invalid rate schedule segment: " + part;
+                logger.severe(message);
+                throw new IllegalArgumentException(message, exception);
+            }
+            // NaN fails every comparison, so only infinities are left to check.
+            if (!(fromRate > 0) || !(toRate > 0) || !(seconds > 0) || Double.isInfinite(fromRate)
+                    || Double.isInfinite(toRate) || Double.isInfinite(seconds)) {
+                final String message = "Rates and durations must be positive and finite: " + part;
+                logger.severe(message);
+                throw new IllegalArgumentException(message);
+            }
+            final long duration = (long) (seconds * 1e9);
+            segments.add(new Segment(fromRate, toRate, start, duration));
+            start += duration;
+        }
+        durationNanos = start;
+    }
+
+    /**
+     * @param offsetNanos Time since the start of the schedule.
+     * @return The target rate in packets per second, 0 once the schedule is over.
+     */
+    public double getRate(final long offsetNanos) {
+        for (final Segment segment : segments) {
+            if (offsetNanos < segment.startNanos + segment.durationNanos) {
+                return segment.fromRate + (segment.toRate - segment.fromRate)
+                        * (offsetNanos - segment.startNanos) / segment.durationNanos;
+            }
+        }
+        return 0;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+}
@@ -0,0 +1,174 @@
+package com.orestis.dixtya2;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Single-threaded reactor multiplexing several {@link ReactorSession}s over non-blocking {@link DatagramChannel}s.
+ * <p>
+ * Received datagrams are read into pooled direct buffers and dispatched to the session that owns the channel.
+ * The {@link Selector} waits at most until the earliest session timer, so a lost packet only delays its own
+ * session. Likewise an exception thrown by a session only finishes that session, with the failure logged and kept in
+ * {@link ReactorSession#getFailure()}.</p>
+ */
+public class Reactor {
+    private final static Logger logger = Logger.getLogger(Reactor.class.getName());
+    /**
+     * Size of the pooled receive buffers, larger than any datagram ithaki sends.
+     */
+    static final int RECEIVE_BUFFER_SIZE = 2048;
+
+    final Selector selector;
+    final BufferPool pool = new BufferPool(RECEIVE_BUFFER_SIZE, 8);
+    final List<ReactorSession> sessions = new ArrayList<>();
+
+    public Reactor() throws IOException {
+        selector = Selector.open();
+    }
+
+    /**
+     * Bind a channel for a session and start it.
+     *
+     * @param session The session.
+     * @throws IOException If the channel can't be bound. A session that fails to start is only finished.
+     */
+    public void register(final ReactorSession session) throws IOException {
+        final DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.bind(new InetSocketAddress(session.clientPort));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, session);
+        } catch (final IOException | RuntimeException exception) {
+            channel.close();
+            throw exception;
+        }
+        session.reactor = this;
+        session.channel = channel;
+        sessions.add(session);
+        try {
+            session.start();
+        } catch (final IOException | RuntimeException exception) {
+            fail(session, exception);
+        }
+    }
+
+    /**
+     * Run until every registered session has finished. If the reactor itself fails, the sessions still running are
+     * finished and their channels closed before the exception is thrown.
+     *
+     * @throws IOException
+     */
+    public void run() throws IOException {
+        try {
+            loop();
+        } finally {
+            for (final ReactorSession session : sessions) {
+                session.finish();
+            }
+            reapFinished();
+        }
+    }
+
+    void loop() throws IOException {
+        while (!sessions.isEmpty()) {
+            final long now = System.nanoTime();
+            long nextDeadline = Long.MAX_VALUE;
+            for (final ReactorSession session : sessions) {
+                nextDeadline = Math.min(nextDeadline, session.deadline);
+            }
+            if (nextDeadline == Long.MAX_VALUE) {
+                selector.select();
+            } else if (nextDeadline > now) {
+                // select(0) blocks forever, so wait at least 1 ms.
+                selector.select(Math.max(1, (nextDeadline - now) / 1000000));
+            } else {
+                selector.selectNow();
+            }
+
+            final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                final SelectionKey key = keys.next();
+                keys.remove();
+                final ReactorSession session = (ReactorSession) key.attachment();
+                final ByteBuffer buffer = pool.acquire();
+                try {
+                    // Drain every datagram queued on the channel.
+                    while (!session.finished && session.channel.receive(buffer) != null) {
+                        buffer.flip();
+                        session.onDatagram(buffer);
+                        buffer.clear();
+                    }
+                } catch (final IOException | RuntimeException exception) {
+                    fail(session, exception);
+                } finally {
+                    pool.release(buffer);
+                }
+            }
+
+            final long afterSelect = System.nanoTime();
+            for (final ReactorSession session : sessions) {
+                if (!session.finished && session.deadline <= afterSelect) {
+                    session.clearTimeout();
+                    try {
+                        session.onTimeout();
+                    } catch (final IOException | RuntimeException exception) {
+                        fail(session, exception);
+                    }
+                }
+            }
+            reapFinished();
+        }
+    }
+
+    /**
+     * Finish a session that threw an exception.
+     *
+     * @param session   The session.
+     * @param exception The exception.
+     */
+    void fail(final ReactorSession session, final Exception exception) {
+        logger.severe("Session " + session.name + " failed: " + exception);
+        if (session.failure == null) {
+            session.failure = exception;
+        }
+        session.clearTimeout();
+        session.finish();
+    }
+
+    /**
+     * Close the channels of the finished sessions and let them release their resources.
+     */
+    void reapFinished() {
+        final Iterator<ReactorSession> iterator = sessions.iterator();
+        while (iterator.hasNext()) {
+            final ReactorSession session = iterator.next();
+            if (session.finished) {
+                iterator.remove();
+                try {
+                    session.channel.close();
+                } catch (final IOException exception) {
+                    logger.warning("Failed to close the channel of session " + session.name + ": " + exception);
+                }
+                try {
+                    session.onFinish();
+                } catch (final IOException | RuntimeException exception) {
+                    logger.severe("Session " + session.name + " failed to finish: " + exception);
+                    if (session.failure == null) {
+                        session.failure = exception;
+                    }
+                }
+                logger.fine("Session " + session.name + " finished.");
+            }
+        }
+    }
+}
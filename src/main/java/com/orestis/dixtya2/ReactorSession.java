@@ -0,0 +1,122 @@
+package com.orestis.dixtya2;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A single echo, image or sound operation driven by a {@link Reactor}.
+ * <p>
+ * Every session owns a port pair: a non-blocking {@link DatagramChannel} bound to its client port, used both to
+ * send commands to the server port and to receive the replies. Instead of a socket timeout, a session arms a
+ * per-session timer with {@link ReactorSession#setTimeout(long)}; {@link ReactorSession#onTimeout()} is called if
+ * no datagram arrives before it expires.</p>
+ */
+public abstract class ReactorSession {
+    /**
+     * Name used in logs, usually the command.
+     */
+    final String name;
+    final int clientPort;
+    final SocketAddress serverAddress;
+    Reactor reactor;
+    DatagramChannel channel;
+    /**
+     * {@link System#nanoTime()} at which the timer expires, {@link Long#MAX_VALUE} when disarmed.
+     */
+    long deadline = Long.MAX_VALUE;
+    boolean finished;
+    /**
+     * Exception the session failed with, {@code null} if none.
+     */
+    Exception failure;
+
+    /**
+     * @param name          Name used in logs.
+     * @param clientPort    Local port the server replies to.
+     * @param serverAddress Address and port the server listens at.
+     */
+    protected ReactorSession(final String name, final int clientPort, final SocketAddress serverAddress) {
+        this.name = name;
+        this.clientPort = clientPort;
+        this.serverAddress = serverAddress;
+    }
+
+    /**
+     * Called once the channel is registered, typically to send the first command.
+     *
+     * @throws IOException
+     */
+    protected abstract void start() throws IOException;
+
+    /**
+     * Handle a received datagram.
+     *
+     * @param datagram The datagram, flipped for reading. Only valid during the call.
+     * @throws IOException
+     */
+    protected abstract void onDatagram(ByteBuffer datagram) throws IOException;
+
+    /**
+     * Handle the expiration of the timer. The timer is disarmed before the call.
+     *
+     * @throws IOException
+     */
+    protected abstract void onTimeout() throws IOException;
+
+    /**
+     * Called once when the session finishes, to release resources and report results.
+     *
+     * @throws IOException
+     */
+    protected void onFinish() throws IOException {}
+
+    /**
+     * Send a command to the server.
+     *
+     * @param message The command.
+     * @throws IOException
+     */
+    protected void send(final String message) throws IOException {
+        final ByteBuffer buffer = reactor.pool.acquire();
+        buffer.put(message.getBytes(StandardCharsets.US_ASCII)).flip();
+        channel.send(buffer, serverAddress);
+        reactor.pool.release(buffer);
+    }
+
+    /**
+     * Arm the session timer.
+     *
+     * @param millis Time from now until {@link ReactorSession#onTimeout()} is called.
+     */
+    protected void setTimeout(final long millis) {
+        deadline = System.nanoTime() + millis * 1000000;
+    }
+
+    /**
+     * Disarm the session timer.
+     */
+    protected void clearTimeout() {
+        deadline = Long.MAX_VALUE;
+    }
+
+    /**
+     * Mark the session as finished. Its channel is closed by the {@link Reactor}.
+     */
+    protected void finish() {
+        finished = true;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return The exception the session failed with, {@code null} if it didn't.
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+}
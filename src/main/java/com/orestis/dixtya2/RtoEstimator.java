@@ -0,0 +1,106 @@
+package com.orestis.dixtya2;
+
+import java.util.logging.Logger;
+
+/**
+ * Retransmission timeout of a request type, estimated from the round trip times of its replies like TCP's
+ * (RFC 6298).
+ * <p>
+ * The first sample sets the smoothed RTT to itself and the RTT variance to half of it; later samples move them by
+ * 1/8 and 1/4 of their difference. The timeout is the smoothed RTT plus four variances, clamped between a minimum
+ * and a maximum. Each timeout doubles it, up to the maximum, and the next sample recomputes it. Until the first
+ * sample the initial timeout is used.</p>
+ * <p>
+ * A reply that arrives after its request timed out can't be told apart from the reply to the next request, so
+ * callers should skip the next sample after a timeout (Karn's algorithm).</p>
+ * <p>
+ * Every method is synchronized, so a single estimator can serve every download of a request type.</p>
+ */
+public class RtoEstimator {
+    private final static Logger logger = Logger.getLogger(RtoEstimator.class.getName());
+
+    final long minNanos;
+    final long maxNanos;
+    /**
+     * Smoothed round trip time, 0 before the first sample.
+     */
+    long srttNanos;
+    /**
+     * Smoothed mean deviation of the round trip time.
+     */
+    long rttvarNanos;
+    long rtoNanos;
+    long samples;
+    long timeouts;
+
+    /**
+     * @param initialMillis Timeout until the first sample.
+     * @param minMillis     Lower bound of the timeout.
+     * @param maxMillis     Upper bound of the timeout, also bounding the backoff.
+     */
+    public RtoEstimator(final long initialMillis, final long minMillis, final long maxMillis) {
+        if (minMillis < 1 || maxMillis < minMillis || initialMillis < minMillis || initialMillis > maxMillis) {
+            final String message = String.format("Invalid timeouts: initial %d, min %d, max %d ms.",
+                    initialMillis, minMillis, maxMillis);
+            logger.severe(message);
+            throw new IllegalArgumentException(message);
+        }
+        minNanos = minMillis * 1000000;
+        maxNanos = maxMillis * 1000000;
+        rtoNanos = initialMillis * 1000000;
+    }
+
+    /**
+     * Record the round trip time of a reply.
+     *
+     * @param rttNanos Time from sending the request to receiving the reply.
+     */
+    public synchronized void onSample(final long rttNanos) {
+        if (samples == 0) {
+            srttNanos = rttNanos;
+            rttvarNanos = rttNanos / 2;
+        } else {
+            rttvarNanos += (Math.abs(srttNanos - rttNanos) - rttvarNanos) / 4;
+            srttNanos += (rttNanos - srttNanos) / 8;
+        }
+        samples++;
+        rtoNanos = Math.min(maxNanos, Math.max(minNanos, srttNanos + 4 * rttvarNanos));
+    }
+
+    /**
+     * Record a request whose reply didn't arrive within the timeout, backing the timeout off.
+     */
+    public synchronized void onTimeout() {
+        timeouts++;
+        rtoNanos = Math.min(maxNanos, 2 * rtoNanos);
+    }
+
+    /**
+     * @return The current timeout, rounded up to whole ms as socket timeouts take.
+     */
+    public synchronized int getTimeoutMillis() {
+        return (int) ((rtoNanos + 999999) / 1000000);
+    }
+
+    public synchronized long getSrttNanos() {
+        return srttNanos;
+    }
+
+    public synchronized long getRttvarNanos() {
+        return rttvarNanos;
+    }
+
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    public synchronized long getTimeouts() {
+        return timeouts;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("srtt %.3f ms, rttvar %.3f ms, rto %d ms, %d samples, %d timeouts", srttNanos / 1e6,
+                rttvarNanos / 1e6, getTimeoutMillis(), samples, timeouts);
+    }
+}
@@ -0,0 +1,34 @@
+package com.orestis.dixtya2;
+
+/**
+ * Opt-in trace of one packet in every {@code every}, replacing a log message per packet in the receive loops.
+ * <p>
+ * An instance belongs to a single loop, so it isn't thread-safe. Callers build the message only when
+ * {@link SampledTrace#sample()} returns {@code true}.</p>
+ */
+public class SampledTrace {
+    final int every;
+    int countdown;
+
+    /**
+     * @param every Trace one packet in every {@code every}, 0 to disable.
+     */
+    public SampledTrace(final int every) {
+        if (every < 0) {
+            throw new IllegalArgumentException("Invalid trace sampling: " + every);
+        }
+        this.every = every;
+        countdown = 1;
+    }
+
+    /**
+     * @return {@code true} if the current packet is to be traced.
+     */
+    public boolean sample() {
+        if (every == 0 || --countdown > 0) {
+            return false;
+        }
+        countdown = every;
+        return true;
+    }
+}
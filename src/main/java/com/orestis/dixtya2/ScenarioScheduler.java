@@ -0,0 +1,268 @@
+package com.orestis.dixtya2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+/**
+ * Runs independent tasks of a session concurrently, each on its own thread and its own port pair.
+ * <p>
+ * A task starts once every task it depends on has succeeded; if one of them failed, the task is skipped. An
+ * exclusive task waits for all running tasks and runs alone, which keeps measurements like the echo throughput
+ * free of interference. Port pairs come from a {@link PortPool}, so with a single pair the tasks run one at a
+ * time.</p>
+ * <p>
+ * Tasks are dispatched one at a time by the thread calling {@link ScenarioScheduler#run()}, in the order they were
+ * added among those whose dependencies are done, and each gets its lock and port pair before the next is dispatched.
+ * So the order they start in is the order they were added, save for tasks still waiting for dependencies.</p>
+ */
+public class ScenarioScheduler {
+    private final static Logger logger = Logger.getLogger(ScenarioScheduler.class.getName());
+
+    /**
+     * Work done by a task.
+     */
+    public interface Body {
+        /**
+         * @param portOffset Offset of the port pair reserved for the task.
+         * @throws Exception
+         */
+        void run(int portOffset) throws Exception;
+    }
+
+    /**
+     * A named task, added with {@link ScenarioScheduler#add(String, Body)}.
+     */
+    public static class Task {
+        final String name;
+        final Body body;
+        final List<String> dependencies = new ArrayList<>();
+        /**
+         * Counted down once the task holds its lock and port pair, or gave up before.
+         */
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        boolean exclusive;
+        volatile boolean succeeded;
+        volatile long startMillis;
+        volatile long endMillis;
+
+        Task(final String name, final Body body) {
+            this.name = name;
+            this.body = body;
+        }
+
+        /**
+         * @param names Tasks that must succeed before this one starts.
+         * @return This task.
+         */
+        public Task after(final String... names) {
+            dependencies.addAll(Arrays.asList(names));
+            return this;
+        }
+
+        /**
+         * Make the task run with no other task running.
+         *
+         * @return This task.
+         */
+        public Task exclusive() {
+            exclusive = true;
+            return this;
+        }
+
+        public boolean isSucceeded() {
+            return succeeded;
+        }
+    }
+
+    final PortPool ports;
+    final Map<String, Task> tasks = new LinkedHashMap<>();
+    /**
+     * Held for reading by ordinary tasks and for writing by exclusive ones. Fair, so that an exclusive task isn't
+     * starved by a stream of ordinary ones.
+     */
+    final ReentrantReadWriteLock exclusion = new ReentrantReadWriteLock(true);
+    /**
+     * Released whenever a task is done, so that the dispatcher can look for tasks whose dependencies are done.
+     */
+    final Semaphore finished = new Semaphore(0);
+
+    /**
+     * @param ports Port pairs the tasks may use.
+     */
+    public ScenarioScheduler(final PortPool ports) {
+        this.ports = ports;
+    }
+
+    /**
+     * Add a task. Tasks are started in the order they are added, save for tasks waiting for their dependencies.
+     *
+     * @param name Unique name of the task.
+     * @param body The work.
+     * @return The task, for declaring dependencies or exclusivity.
+     */
+    public Task add(final String name, final Body body) {
+        if (tasks.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate task: " + name);
+        }
+        final Task task = new Task(name, body);
+        tasks.put(name, task);
+        return task;
+    }
+
+    /**
+     * Run every task and wait for all of them to finish.
+     *
+     * @return {@code true} if every task succeeded.
+     * @throws InterruptedException
+     */
+    public boolean run() throws InterruptedException {
+        validate();
+        final long start = System.currentTimeMillis();
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        final List<Task> pending = new ArrayList<>(tasks.values());
+        try {
+            while (!pending.isEmpty()) {
+                final Task task = nextReady(pending);
+                if (task == null) {
+                    // Every pending task waits for a running one.
+                    finished.acquire();
+                    continue;
+                }
+                pending.remove(task);
+                final String failed = failedDependency(task);
+                if (failed != null) {
+                    logger.warning("Skipping " + task.name + " since " + failed + " failed.");
+                    task.started.countDown();
+                    task.done.countDown();
+                    continue;
+                }
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        execute(task);
+                    }
+                });
+                task.started.await();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        boolean succeeded = true;
+        for (final Task task : tasks.values()) {
+            task.done.await();
+            succeeded &= task.succeeded;
+        }
+        final StringBuilder report = new StringBuilder("Scenario finished in ")
+                .append(System.currentTimeMillis() - start).append(" ms:");
+        for (final Task task : tasks.values()) {
+            report.append("\n").append(task.name).append(": ");
+            if (task.startMillis == 0) {
+                report.append("skipped");
+            } else {
+                report.append(task.succeeded ? "ok" : "failed").append(" in ")
+                        .append(task.endMillis - task.startMillis).append(" ms");
+            }
+        }
+        logger.info(report.toString());
+        return succeeded;
+    }
+
+    /**
+     * Check that every dependency exists and that there are no cycles.
+     */
+    void validate() {
+        final Set<String> visited = new HashSet<>();
+        for (final Task task : tasks.values()) {
+            visit(task, visited, new HashSet<String>());
+        }
+    }
+
+    void visit(final Task task, final Set<String> visited, final Set<String> path) {
+        if (!path.add(task.name)) {
+            throw new IllegalStateException("Dependency cycle through task: " + task.name);
+        }
+        if (visited.add(task.name)) {
+            for (final String dependency : task.dependencies) {
+                final Task other = tasks.get(dependency);
+                if (other == null) {
+                    throw new IllegalStateException("Task " + task.name + " depends on unknown task " + dependency);
+                }
+                visit(other, visited, path);
+            }
+        }
+        path.remove(task.name);
+    }
+
+    /**
+     * @param pending Tasks not dispatched yet, in the order they were added.
+     * @return The first of them whose dependencies are done, {@code null} if none.
+     */
+    Task nextReady(final List<Task> pending) {
+        for (final Task task : pending) {
+            boolean ready = true;
+            for (final String dependency : task.dependencies) {
+                ready &= tasks.get(dependency).done.getCount() == 0;
+            }
+            if (ready) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param task A task whose dependencies are done.
+     * @return The name of a dependency that failed, {@code null} if they all succeeded.
+     */
+    String failedDependency(final Task task) {
+        for (final String dependency : task.dependencies) {
+            if (!tasks.get(dependency).succeeded) {
+                return dependency;
+            }
+        }
+        return null;
+    }
+
+    void execute(final Task task) {
+        try {
+            final Lock lock = task.exclusive ? exclusion.writeLock() : exclusion.readLock();
+            lock.lockInterruptibly();
+            try {
+                final int portOffset = ports.acquire();
+                try {
+                    task.startMillis = System.currentTimeMillis();
+                    logger.info("Starting " + task.name + " on port pair " + portOffset + ".");
+                    task.started.countDown();
+                    task.body.run(portOffset);
+                    task.succeeded = true;
+                } finally {
+                    task.endMillis = System.currentTimeMillis();
+                    ports.release(portOffset);
+                }
+            } finally {
+                lock.unlock();
+            }
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        } catch (final Exception exception) {
+            logger.severe(task.name + " failed: " + exception);
+        } finally {
+            task.started.countDown();
+            task.done.countDown();
+            finished.release();
+        }
+    }
+}
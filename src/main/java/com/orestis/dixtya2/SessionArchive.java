@@ -0,0 +1,369 @@
+package com.orestis.dixtya2;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Append-only archive of the files a session produces, echo logs, images, sound recordings and decoder histories,
+ * kept as records of a single data file instead of loose files in the working directory.
+ * <p>
+ * Next to the data file, eg {@code session.archive}, a compact index {@code session.archive.index} holds an entry
+ * per record, so listing an archive reads only the index and extracting a record copies its bytes straight from
+ * their offset. The whole index is loaded on opening and kept in memory by command and in timestamp order.</p>
+ * <p>
+ * Index entry, big endian:</p>
+ * <pre>
+ * timestamp epoch ms (8) | data offset (8) | length (8) | type (1) | command length (1) | command
+ * </pre>
+ * <p>
+ * A record's bytes are forced to disk before its index entry is written, so a record is only listed once it is
+ * complete. Opening an archive truncates anything a killed process appended after its last complete record.</p>
+ * <p>
+ * Producers that need a file of their own, like the memory-mapped {@link SoundRecording} and {@link EchoLog}, write
+ * to a {@link SessionArchive#createScratchFile(String, String) scratch file}, which is
+ * {@link SessionArchive#append(Type, String, File) appended} once complete. Every method is synchronized, so a
+ * single archive can serve concurrent downloads.</p>
+ */
+public class SessionArchive implements Closeable {
+    private final static Logger logger = Logger.getLogger(SessionArchive.class.getName());
+    static final String INDEX_EXTENSION = ".index";
+    static final String SCRATCH_EXTENSION = ".tmp";
+    static final int ENTRY_HEADER_SIZE = 26;
+    static final int MAX_COMMAND_LENGTH = 255;
+
+    /**
+     * Kind of a record, with the extension of its loose file.
+     */
+    public enum Type {
+        /**
+         * {@code timestamp:bytes:timeout} echo history.
+         */
+        ECHO('E', "txt"),
+        /**
+         * JPEG image.
+         */
+        IMAGE('M', "jpg"),
+        /**
+         * Concatenated JPEG frames of a camera stream.
+         */
+        STREAM('S', "mjpeg"),
+        /**
+         * {@link SoundRecording}.
+         */
+        SOUND('V', "rec"),
+        /**
+         * Decoder history.
+         */
+        HISTORY('H', "txt"),
+        /**
+         * {@link CapacityProbe} estimates.
+         */
+        PROBE('P', "txt");
+
+        final byte code;
+        final String extension;
+
+        Type(final char code, final String extension) {
+            this.code = (byte) code;
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        static Type of(final byte code) {
+            for (final Type type : values()) {
+                if (type.code == code) {
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Index entry of a record.
+     */
+    public static class Record {
+        final int id;
+        final Type type;
+        final String command;
+        final long timestampMillis;
+        final long offset;
+        final long length;
+
+        Record(final int id, final Type type, final String command, final long timestampMillis, final long offset,
+               final long length) {
+            this.id = id;
+            this.type = type;
+            this.command = command;
+            this.timestampMillis = timestampMillis;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        public long getTimestampMillis() {
+            return timestampMillis;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d %s %s %tFT%<tT.%<tL %d", id, type, command, timestampMillis, length);
+        }
+    }
+
+    final File file;
+    final File scratchDirectory;
+    final FileChannel data;
+    final FileChannel index;
+    /**
+     * Records in the order they were appended, which is also timestamp order.
+     */
+    final List<Record> records = new ArrayList<>();
+    final Map<String, List<Record>> byCommand = new HashMap<>();
+    long dataEnd;
+    long indexEnd;
+
+    /**
+     * Open an archive, creating it if it doesn't exist.
+     *
+     * @param file The data file, eg {@code session.archive}.
+     * @throws IOException
+     */
+    public SessionArchive(final File file) throws IOException {
+        this.file = file;
+        scratchDirectory = new File(file.getPath() + SCRATCH_EXTENSION);
+        data = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            index = FileChannel.open(new File(file.getPath() + INDEX_EXTENSION).toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                load();
+            } catch (final IOException exception) {
+                index.close();
+                throw exception;
+            }
+        } catch (final IOException exception) {
+            data.close();
+            throw new IOException(exception.getMessage() + " " + file, exception);
+        }
+    }
+
+    void load() throws IOException {
+        final long dataSize = data.size();
+        final long indexSize = index.size();
+        final ByteBuffer buffer = ByteBuffer.allocate((int) indexSize);
+        while (buffer.hasRemaining() && index.read(buffer, buffer.position()) >= 0) {
+            // Read the whole index.
+        }
+        buffer.flip();
+        while (buffer.remaining() >= ENTRY_HEADER_SIZE) {
+            final int start = buffer.position();
+            final long timestampMillis = buffer.getLong();
+            final long offset = buffer.getLong();
+            final long length = buffer.getLong();
+            final Type type = Type.of(buffer.get());
+            final int commandLength = buffer.get() & 0xff;
+            // An entry that doesn't follow the previous record is the torn tail of an interrupted append.
+            if (type == null || buffer.remaining() < commandLength || offset != dataEnd
+                    || offset + length > dataSize) {
+                buffer.position(start);
+                break;
+            }
+            final byte[] command = new byte[commandLength];
+            buffer.get(command);
+            add(new Record(records.size(), type, new String(command, StandardCharsets.US_ASCII), timestampMillis,
+                    offset, length));
+            dataEnd = offset + length;
+        }
+        indexEnd = buffer.position();
+        if (indexEnd < indexSize || dataEnd < dataSize) {
+            logger.warning(String.format("Truncating incomplete records of %s: %d index and %d data bytes.", file,
+                    indexSize - indexEnd, dataSize - dataEnd));
+            index.truncate(indexEnd);
+            data.truncate(dataEnd);
+        }
+    }
+
+    void add(final Record record) {
+        records.add(record);
+        byCommand.computeIfAbsent(record.command, command -> new ArrayList<>()).add(record);
+    }
+
+    /**
+     * Create an empty file in the archive's scratch directory, {@code session.archive.tmp}, for a producer to write
+     * a record to before {@link SessionArchive#append(Type, String, File) appending} it.
+     *
+     * @param command   The request command the record belongs to.
+     * @param extension The extension of the file, without the dot.
+     * @return The new file, with a name no other caller gets.
+     * @throws IOException
+     */
+    public File createScratchFile(final String command, final String extension) throws IOException {
+        if (!scratchDirectory.isDirectory() && !scratchDirectory.mkdirs() && !scratchDirectory.isDirectory()) {
+            throw new IOException("Failed to create " + scratchDirectory);
+        }
+        return File.createTempFile(command + "-", "." + extension, scratchDirectory);
+    }
+
+    /**
+     * Append the contents of a file as a record.
+     *
+     * @param type    The kind of record.
+     * @param command The request command it belongs to, eg {@code "V1234L23AQF999"}.
+     * @param source  The file.
+     * @return The record.
+     * @throws IOException
+     */
+    public synchronized Record append(final Type type, final String command, final File source)
+            throws IOException {
+        final byte[] commandBytes = command.getBytes(StandardCharsets.US_ASCII);
+        if (commandBytes.length > MAX_COMMAND_LENGTH) {
+            final String message = "Command too long for an archive record: " + command;
+            logger.severe(message);
+            throw new IllegalArgumentException(message);
+        }
+        final long offset = dataEnd;
+        final FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+        final long length;
+        try {
+            length = in.size();
+            long position = 0;
+            while (position < length) {
+                position += data.transferFrom(in, offset + position, length - position);
+            }
+        } finally {
+            in.close();
+        }
+        data.force(false);
+        // Keep the records in timestamp order even if the clock steps back.
+        final long timestampMillis = Math.max(System.currentTimeMillis(),
+                records.isEmpty() ? 0 : records.get(records.size() - 1).timestampMillis);
+        final ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER_SIZE + commandBytes.length);
+        entry.putLong(timestampMillis).putLong(offset).putLong(length).put(type.code).put((byte) commandBytes.length)
+                .put(commandBytes).flip();
+        while (entry.hasRemaining()) {
+            indexEnd += index.write(entry, indexEnd);
+        }
+        dataEnd = offset + length;
+        final Record record = new Record(records.size(), type, command, timestampMillis, offset, length);
+        add(record);
+        return record;
+    }
+
+    /**
+     * @param id The id of a record, its position in the archive.
+     * @return The record.
+     */
+    public synchronized Record get(final int id) {
+        if (id < 0 || id >= records.size()) {
+            throw new IndexOutOfBoundsException("Record " + id + " of " + records.size());
+        }
+        return records.get(id);
+    }
+
+    /**
+     * @return Every record, in the order they were appended.
+     */
+    public synchronized List<Record> list() {
+        return new ArrayList<>(records);
+    }
+
+    /**
+     * List the records of a command appended in a time range.
+     *
+     * @param command    The command, {@code null} for any.
+     * @param fromMillis Earliest timestamp, inclusive, in epoch ms.
+     * @param toMillis   Latest timestamp, inclusive, in epoch ms.
+     * @return The records, in the order they were appended.
+     */
+    public synchronized List<Record> list(final String command, final long fromMillis, final long toMillis) {
+        final List<Record> candidates = command == null ? records
+                : byCommand.getOrDefault(command, Collections.emptyList());
+        // Binary search for the first record not before fromMillis.
+        int low = 0;
+        int high = candidates.size();
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (candidates.get(middle).timestampMillis < fromMillis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        final List<Record> result = new ArrayList<>();
+        for (int i = low; i < candidates.size() && candidates.get(i).timestampMillis <= toMillis; i++) {
+            result.add(candidates.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Copy a record to a file.
+     *
+     * @param record      The record.
+     * @param destination The file, replaced if it exists.
+     * @throws IOException
+     */
+    public void extract(final Record record, final File destination) throws IOException {
+        final FileChannel out = FileChannel.open(destination.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            long position = 0;
+            while (position < record.length) {
+                // Positional transfers don't move the channel's position, so concurrent appends are safe.
+                position += data.transferTo(record.offset + position, record.length - position, out);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public synchronized int getRecordCount() {
+        return records.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        index.force(false);
+        logger.info(String.format("Closed %s with %d records, %d bytes.", file, records.size(), dataEnd));
+        try {
+            index.close();
+        } finally {
+            data.close();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.orestis.dixtya2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Command line tool listing and extracting the records of a {@link SessionArchive}.
+ * <p>
+ * Usage:</p>
+ * <ul>
+ * <li>{@code SessionArchiveTool session.archive list [--command V1234L23AQF999] [--from ms] [--to ms]} prints a
+ * line per record: id, type, command, timestamp and length.</li>
+ * <li>{@code SessionArchiveTool session.archive extract <id> [file]} copies a record to a file, by default named
+ * after its command.</li>
+ * <li>{@code SessionArchiveTool session.archive export [directory] [--command ...] [--from ms] [--to ms]} writes
+ * the loose files a session used to leave in the working directory: {@code E0000.txt}, {@code M1234...CAM=FIX.jpg},
+ * {@code V1234L23AQF999.txt} and, for sound recordings, {@code V1234L23AQF999buffer.data} and
+ * {@code V1234L23AQF999decoded.data}. Repeated commands are numbered {@code -1}, {@code -2} and so on in archive
+ * order.</li>
+ * </ul>
+ */
+public class SessionArchiveTool {
+    private final static Logger logger = Logger.getLogger(SessionArchiveTool.class.getName());
+    static final String USAGE = "Usage: SessionArchiveTool <archive> list [--command c] [--from ms] [--to ms]\n"
+            + "       SessionArchiveTool <archive> extract <id> [file]\n"
+            + "       SessionArchiveTool <archive> export [directory] [--command c] [--from ms] [--to ms]";
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            usage();
+        }
+        String command = null;
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        String operand = null;
+        String secondOperand = null;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--command") && i + 1 < args.length) {
+                command = args[++i];
+            } else if (args[i].equals("--from") && i + 1 < args.length) {
+                from = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--to") && i + 1 < args.length) {
+                to = Long.parseLong(args[++i]);
+            } else if (operand == null) {
+                operand = args[i];
+            } else if (secondOperand == null) {
+                secondOperand = args[i];
+            } else {
+                usage();
+            }
+        }
+        final SessionArchive archive = new SessionArchive(new File(args[0]));
+        try {
+            switch (args[1]) {
+                case "list":
+                    for (final SessionArchive.Record record : archive.list(command, from, to)) {
+                        System.out.println(record);
+                    }
+                    break;
+                case "extract":
+                    if (operand == null) {
+                        usage();
+                    }
+                    final SessionArchive.Record record = archive.get(Integer.parseInt(operand));
+                    final File destination = secondOperand != null ? new File(secondOperand)
+                            : new File(record.getCommand() + "." + record.getType().getExtension());
+                    archive.extract(record, destination);
+                    logger.info("Extracted record " + record.getId() + " to " + destination + ".");
+                    break;
+                case "export":
+                    export(archive, archive.list(command, from, to), new File(operand != null ? operand : "."));
+                    break;
+                default:
+                    usage();
+            }
+        } finally {
+            archive.close();
+        }
+    }
+
+    static void usage() {
+        System.err.println(USAGE);
+        System.exit(1);
+    }
+
+    /**
+     * Write records as the loose files of a session.
+     *
+     * @param archive   The archive.
+     * @param records   The records, numbered in this order when their commands repeat.
+     * @param directory The destination directory.
+     * @throws IOException
+     */
+    public static void export(final SessionArchive archive, final List<SessionArchive.Record> records,
+                              final File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+        // Names handed out so far, so that numbering doesn't have to probe the directory.
+        final Set<String> names = new HashSet<>();
+        for (final SessionArchive.Record record : records) {
+            final String command = record.getCommand();
+            if (record.getType() == SessionArchive.Type.SOUND) {
+                final File recordingFile = File.createTempFile(command + "-", ".rec", directory);
+                try {
+                    archive.extract(record, recordingFile);
+                    final String suffix = uniqueSuffix(names, command + "buffer", command + "decoded", "data");
+                    SoundRecordingExporter.export(recordingFile,
+                            new File(directory, command + "buffer" + suffix + ".data"),
+                            new File(directory, command + "decoded" + suffix + ".data"));
+                } finally {
+                    if (!recordingFile.delete()) {
+                        logger.warning("Failed to delete " + recordingFile + ".");
+                    }
+                }
+            } else {
+                final String extension = record.getType().getExtension();
+                archive.extract(record, new File(directory, command + uniqueSuffix(names, command, command,
+                        extension) + "." + extension));
+            }
+        }
+        logger.info("Exported " + records.size() + " records to " + directory + ".");
+    }
+
+    /**
+     * Number loose files like {@code getUniqueFile} did: {@code name.ext}, then {@code name-1.ext} and so on.
+     *
+     * @param names     Names taken so far, updated with the chosen ones.
+     * @param base      Base name of a file.
+     * @param otherBase Base name of another file that takes the same suffix, or {@code base}.
+     * @param extension The extension.
+     * @return The suffix, empty for the first file.
+     */
+    static String uniqueSuffix(final Set<String> names, final String base, final String otherBase,
+                               final String extension) {
+        int i = 0;
+        String suffix = "";
+        while (names.contains(base + suffix + "." + extension)
+                || names.contains(otherBase + suffix + "." + extension)) {
+            suffix = "-" + ++i;
+        }
+        names.add(base + suffix + "." + extension);
+        names.add(otherBase + suffix + "." + extension);
+        return suffix;
+    }
+}
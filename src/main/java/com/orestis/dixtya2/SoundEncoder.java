@@ -0,0 +1,118 @@
+package com.orestis.dixtya2;
+
+/**
+ * Encoders producing the DPCM and AQ-DPCM packets sent by ithaki, the inverse of the client's decoders.
+ * <p>
+ * An encoder is stateful: the predictor state is carried from packet to packet exactly as the decoder carries it,
+ * so that a stream of packets produced by one encoder instance decodes back to (a quantized version of) the
+ * original samples.</p>
+ */
+public abstract class SoundEncoder {
+    /**
+     * The length in bytes of the encoded audio data of a packet, excluding any header.
+     */
+    public static final int AUDIO_PACKAGE_LENGTH = Decoder.AUDIO_PACKAGE_LENGTH;
+    /**
+     * Number of samples encoded in a single packet, two per byte.
+     */
+    public static final int SAMPLES_PER_PACKAGE = 2 * AUDIO_PACKAGE_LENGTH;
+
+    /**
+     * @param useAQ {@code true} for an AQ-DPCM encoder, {@code false} for a DPCM encoder.
+     * @return A new encoder at its initial state.
+     */
+    public static SoundEncoder create(final boolean useAQ) {
+        return useAQ ? new AqDpcm() : new Dpcm();
+    }
+
+    /**
+     * @return Length in bytes of the packets produced by this encoder.
+     */
+    public abstract int packetLength();
+
+    /**
+     * Encode {@link SoundEncoder#SAMPLES_PER_PACKAGE} samples into a packet.
+     *
+     * @param samples The samples, 8-bit range for DPCM and 16-bit range for AQ-DPCM.
+     * @param offset  Index of the first sample to encode.
+     * @param packet  Destination of at least {@link SoundEncoder#packetLength()} bytes.
+     */
+    public abstract void encode(final int[] samples, int offset, byte[] packet);
+
+    static int clamp(final int value, final int min, final int max) {
+        return value < min ? min : (value > max ? max : value);
+    }
+
+    /**
+     * DPCM encoder: each nibble holds the difference to the previous sample plus 8.
+     */
+    static class Dpcm extends SoundEncoder {
+        /**
+         * The last sample as reconstructed by the decoder.
+         */
+        int last;
+
+        @Override
+        public int packetLength() {
+            return AUDIO_PACKAGE_LENGTH;
+        }
+
+        @Override
+        public void encode(final int[] samples, int offset, final byte[] packet) {
+            for (int i = 0; i < AUDIO_PACKAGE_LENGTH; i++) {
+                final int d1 = clamp(samples[offset++] - last, -8, 7);
+                final int x1 = (byte) (last + d1);
+                final int d2 = clamp(samples[offset++] - x1, -8, 7);
+                last = (byte) (x1 + d2);
+                packet[i] = (byte) (((d1 + 8) << 4) | (d2 + 8));
+            }
+        }
+    }
+
+    /**
+     * AQ-DPCM encoder: a 4-byte little endian header with mean and step, followed by nibbles holding quantized
+     * deltas such that {@code X[k] = mean + delta[k] + delta[k - 1]}.
+     */
+    static class AqDpcm extends SoundEncoder {
+        /**
+         * The last delta, carried across packets like the decoder's {@code oldDelta2}.
+         */
+        int oldDelta;
+
+        @Override
+        public int packetLength() {
+            return AUDIO_PACKAGE_LENGTH + 4;
+        }
+
+        @Override
+        public void encode(final int[] samples, final int offset, final byte[] packet) {
+            long sum = 0;
+            for (int i = offset; i < offset + SAMPLES_PER_PACKAGE; i++) {
+                sum += samples[i];
+            }
+            final int mean = (int) (sum / SAMPLES_PER_PACKAGE);
+            int maxDeviation = 0;
+            for (int i = offset; i < offset + SAMPLES_PER_PACKAGE; i++) {
+                maxDeviation = Math.max(maxDeviation, Math.abs(samples[i] - mean));
+            }
+            final int step = clamp((maxDeviation + 7) / 8, 1, Short.MAX_VALUE);
+            packet[0] = (byte) mean;
+            packet[1] = (byte) (mean >> 8);
+            packet[2] = (byte) step;
+            packet[3] = (byte) (step >> 8);
+
+            int sample = offset;
+            for (int i = 4; i < AUDIO_PACKAGE_LENGTH + 4; i++) {
+                final int q1 = quantize(samples[sample++] - mean - oldDelta, step);
+                final int delta1 = q1 * step;
+                final int q2 = quantize(samples[sample++] - mean - delta1, step);
+                oldDelta = q2 * step;
+                packet[i] = (byte) (((q1 + 8) << 4) | (q2 + 8));
+            }
+        }
+
+        static int quantize(final int value, final int step) {
+            return clamp(Math.round((float) value / step), -8, 7);
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package com.orestis.dixtya2;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Recording of a sound download in a single file: the raw packets, the decoded PCM and an index of the packets with
+ * their receive times, each in its own section.
+ * <p>
+ * The sizes of the sections are known from the request, so the whole file is mapped once and every packet is
+ * written to memory, leaving the batching of disk writes to the OS instead of issuing a syscall per datagram.
+ * Packet {@code i} lives at a fixed offset in every section, so any range can be read, re-decoded or replayed
+ * without scanning the file.</p>
+ * <p>
+ * Layout, big endian:</p>
+ * <pre>
+ * header (128): magic (8) | packet length (4) | decoded packet length (4) | capacity (4) | count (4) |
+ *               start epoch ms (8) | start System.nanoTime() (8) | index offset (8) | raw offset (8) |
+ *               pcm offset (8) | command length (4) | command (up to 56)
+ * index:        per packet: receive ns (8) | length (4) | flags (4)
+ * raw:          per packet: packet length bytes
+ * pcm:          per packet: decoded packet length bytes
+ * </pre>
+ * <p>
+ * The count is updated after each packet is complete, so the recording of a killed process is readable up to its
+ * last complete packet.</p>
+ */
+public class SoundRecording implements Closeable {
+    static final long MAGIC = 0x534e445245433031L; // "SNDREC01"
+    static final int HEADER_SIZE = 128;
+    static final int INDEX_ENTRY_SIZE = 16;
+    static final int MAX_COMMAND_LENGTH = HEADER_SIZE - 72;
+    static final int COUNT_OFFSET = 20;
+    /**
+     * Index flag of a packet that was not received but concealed.
+     */
+    public static final int FLAG_CONCEALED = 1;
+    /**
+     * Index flag of a packet replayed from the track cache instead of received.
+     */
+    public static final int FLAG_CACHED = 2;
+
+    final FileChannel channel;
+    final MappedByteBuffer map;
+    final String command;
+    final int packetLength;
+    final int decodedPacketLength;
+    final int capacity;
+    final long startMillis;
+    final long startNanos;
+    final int indexOffset;
+    final int rawOffset;
+    final int pcmOffset;
+    int count;
+
+    SoundRecording(final FileChannel channel, final MappedByteBuffer map) throws IOException {
+        this.channel = channel;
+        this.map = map;
+        if (map.getLong(0) != MAGIC) {
+            throw new IOException("Not a sound recording.");
+        }
+        packetLength = map.getInt(8);
+        decodedPacketLength = map.getInt(12);
+        capacity = map.getInt(16);
+        count = map.getInt(COUNT_OFFSET);
+        startMillis = map.getLong(24);
+        startNanos = map.getLong(32);
+        indexOffset = (int) map.getLong(40);
+        rawOffset = (int) map.getLong(48);
+        pcmOffset = (int) map.getLong(56);
+        final byte[] commandBytes = new byte[map.getInt(64)];
+        final ByteBuffer commandBuffer = map.duplicate();
+        commandBuffer.position(68);
+        commandBuffer.get(commandBytes);
+        command = new String(commandBytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Create a recording, replacing any existing file.
+     *
+     * @param file                The file.
+     * @param command             The request command, eg {@code "V1234L23AQF999"}.
+     * @param packetLength        Length of a received packet.
+     * @param decodedPacketLength Length of a decoded packet.
+     * @param capacity            Number of packets requested.
+     * @return The recording, open for appending.
+     * @throws IOException
+     */
+    public static SoundRecording create(final File file, final String command, final int packetLength,
+                                        final int decodedPacketLength, final int capacity) throws IOException {
+        final byte[] commandBytes = command.getBytes(StandardCharsets.US_ASCII);
+        if (commandBytes.length > MAX_COMMAND_LENGTH) {
+            throw new IllegalArgumentException("Command too long for a recording: " + command);
+        }
+        final long indexOffset = HEADER_SIZE;
+        final long rawOffset = indexOffset + (long) capacity * INDEX_ENTRY_SIZE;
+        final long pcmOffset = rawOffset + (long) capacity * packetLength;
+        final long size = pcmOffset + (long) capacity * decodedPacketLength;
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        final MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        map.putLong(0, MAGIC);
+        map.putInt(8, packetLength);
+        map.putInt(12, decodedPacketLength);
+        map.putInt(16, capacity);
+        map.putInt(COUNT_OFFSET, 0);
+        map.putLong(24, System.currentTimeMillis());
+        map.putLong(32, System.nanoTime());
+        map.putLong(40, indexOffset);
+        map.putLong(48, rawOffset);
+        map.putLong(56, pcmOffset);
+        map.putInt(64, commandBytes.length);
+        final ByteBuffer commandBuffer = map.duplicate();
+        commandBuffer.position(68);
+        commandBuffer.put(commandBytes);
+        return new SoundRecording(channel, map);
+    }
+
+    /**
+     * Open an existing recording.
+     *
+     * @param file The file.
+     * @return The recording. Appending to it continues after its last packet.
+     * @throws IOException
+     */
+    public static SoundRecording open(final File file) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            return new SoundRecording(channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+        } catch (final IOException exception) {
+            channel.close();
+            throw new IOException(exception.getMessage() + " " + file, exception);
+        }
+    }
+
+    /**
+     * Open an existing recording for reading only, eg by offline tools.
+     *
+     * @param file The file.
+     * @return The recording. It can't be appended to.
+     * @throws IOException
+     */
+    public static SoundRecording openReadOnly(final File file) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return new SoundRecording(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (final IOException exception) {
+            channel.close();
+            throw new IOException(exception.getMessage() + " " + file, exception);
+        }
+    }
+
+    /**
+     * Append a packet.
+     *
+     * @param packet        The received packet, {@code null} for a concealed one, whose raw slot is left
+     *                      zero-filled.
+     * @param length        Its length, at most the recording's packet length, 0 for a concealed one.
+     * @param receiveNanos  {@link System#nanoTime()} at which it was received.
+     * @param flags         Index flags, eg {@link SoundRecording#FLAG_CONCEALED}.
+     * @param decoded       Array holding the decoded packet.
+     * @param decodedOffset Index of the decoded packet's first byte.
+     */
+    public void append(final byte[] packet, final int length, final long receiveNanos, final int flags,
+                       final byte[] decoded, final int decodedOffset) {
+        if (count == capacity) {
+            throw new IllegalStateException("Recording is full: " + capacity + " packets.");
+        }
+        final int index = indexOffset + count * INDEX_ENTRY_SIZE;
+        map.putLong(index, receiveNanos);
+        map.putInt(index + 8, length);
+        map.putInt(index + 12, flags);
+        final ByteBuffer raw = map.duplicate();
+        raw.position(rawOffset + count * packetLength);
+        if (packet != null) {
+            raw.put(packet, 0, Math.min(length, packetLength));
+        }
+        final ByteBuffer pcm = map.duplicate();
+        pcm.position(pcmOffset + count * decodedPacketLength);
+        pcm.put(decoded, decodedOffset, decodedPacketLength);
+        map.putInt(COUNT_OFFSET, ++count);
+    }
+
+    /**
+     * Copy a raw packet.
+     *
+     * @param packetId The packet.
+     * @param out      Destination of at least the recording's packet length.
+     * @return The length of the packet.
+     */
+    public int getPacket(final int packetId, final byte[] out) {
+        checkPacketId(packetId);
+        final ByteBuffer raw = map.duplicate();
+        raw.position(rawOffset + packetId * packetLength);
+        raw.get(out, 0, packetLength);
+        return map.getInt(indexOffset + packetId * INDEX_ENTRY_SIZE + 8);
+    }
+
+    /**
+     * Copy the raw packets of a range, each taking the recording's packet length.
+     *
+     * @param fromPacket First packet, inclusive.
+     * @param toPacket   Last packet, exclusive.
+     * @param out        Destination.
+     * @param offset     Index in {@code out} of the first byte.
+     */
+    public void getRaw(final int fromPacket, final int toPacket, final byte[] out, final int offset) {
+        if (fromPacket < 0 || toPacket > count || fromPacket > toPacket) {
+            throw new IndexOutOfBoundsException("Packets " + fromPacket + ".." + toPacket + " of " + count);
+        }
+        final ByteBuffer raw = map.duplicate();
+        raw.position(rawOffset + fromPacket * packetLength);
+        raw.get(out, offset, (toPacket - fromPacket) * packetLength);
+    }
+
+    /**
+     * Copy the decoded PCM of a range of packets.
+     *
+     * @param fromPacket First packet, inclusive.
+     * @param toPacket   Last packet, exclusive.
+     * @param out        Destination.
+     * @param offset     Index in {@code out} of the first byte.
+     */
+    public void getPcm(final int fromPacket, final int toPacket, final byte[] out, final int offset) {
+        if (fromPacket < 0 || toPacket > count || fromPacket > toPacket) {
+            throw new IndexOutOfBoundsException("Packets " + fromPacket + ".." + toPacket + " of " + count);
+        }
+        final ByteBuffer pcm = map.duplicate();
+        pcm.position(pcmOffset + fromPacket * decodedPacketLength);
+        pcm.get(out, offset, (toPacket - fromPacket) * decodedPacketLength);
+    }
+
+    /**
+     * @param packetId The packet.
+     * @return Receive time of the packet, in epoch ms.
+     */
+    public long getReceiveMillis(final int packetId) {
+        checkPacketId(packetId);
+        return startMillis + (map.getLong(indexOffset + packetId * INDEX_ENTRY_SIZE) - startNanos) / 1000000;
+    }
+
+    /**
+     * @param packetId The packet.
+     * @return The index flags of the packet.
+     */
+    public int getFlags(final int packetId) {
+        checkPacketId(packetId);
+        return map.getInt(indexOffset + packetId * INDEX_ENTRY_SIZE + 12);
+    }
+
+    void checkPacketId(final int packetId) {
+        if (packetId < 0 || packetId >= count) {
+            throw new IndexOutOfBoundsException("Packet " + packetId + " of " + count);
+        }
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getPacketLength() {
+        return packetLength;
+    }
+
+    public int getDecodedPacketLength() {
+        return decodedPacketLength;
+    }
+
+    /**
+     * Write the raw section as the concatenated packets of a {@code buffer.data} file.
+     * <p>
+     * Every packet keeps its slot, so the file stays aligned with {@link SoundRecording#exportPcm(File)}: a
+     * {@link SoundRecording#FLAG_CONCEALED concealed} packet is a zero-filled placeholder of the packet length,
+     * told apart from a received one only by the index.</p>
+     *
+     * @param file The destination, replaced if it exists.
+     * @throws IOException
+     */
+    public void exportRaw(final File file) throws IOException {
+        export(file, rawOffset, count * packetLength);
+    }
+
+    /**
+     * Write the PCM section as a {@code decoded.data} file.
+     *
+     * @param file The destination, replaced if it exists.
+     * @throws IOException
+     */
+    public void exportPcm(final File file) throws IOException {
+        export(file, pcmOffset, count * decodedPacketLength);
+    }
+
+    void export(final File file, final int offset, final int length) throws IOException {
+        final FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            long position = offset;
+            while (position < offset + length) {
+                position += channel.transferTo(position, offset + length - position, out);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        map.force();
+        channel.close();
+    }
+}
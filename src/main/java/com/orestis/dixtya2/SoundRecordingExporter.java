@@ -0,0 +1,63 @@
+package com.orestis.dixtya2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * Command line tool exporting the sections of {@link SoundRecording}s to the {@code buffer.data} and
+ * {@code decoded.data} files read by the analysis scripts.
+ * <p>
+ * Usage: {@code SoundRecordingExporter V1234L23AQF999.rec [...]}, writing {@code V1234L23AQF999buffer.data} and
+ * {@code V1234L23AQF999decoded.data} next to each recording.</p>
+ * <p>
+ * Packets that were concealed instead of received appear in {@code buffer.data} as zero-filled placeholders, so
+ * that packet {@code i} is at the same place in both files; the concealed PCM is in {@code decoded.data}.</p>
+ */
+public class SoundRecordingExporter {
+    private final static Logger logger = Logger.getLogger(SoundRecordingExporter.class.getName());
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: SoundRecordingExporter <recording.rec>...");
+            System.exit(1);
+        }
+        for (final String name : args) {
+            export(new File(name));
+        }
+    }
+
+    /**
+     * Export a recording next to it.
+     *
+     * @param file The recording.
+     * @throws IOException
+     */
+    public static void export(final File file) throws IOException {
+        final String name = file.getName();
+        final int dot = name.lastIndexOf('.');
+        final String base = dot > 0 ? name.substring(0, dot) : name;
+        export(file, new File(file.getParentFile(), base + "buffer.data"),
+                new File(file.getParentFile(), base + "decoded.data"));
+    }
+
+    /**
+     * Export a recording.
+     *
+     * @param file    The recording.
+     * @param rawFile Destination of the raw packets.
+     * @param pcmFile Destination of the decoded PCM.
+     * @throws IOException
+     */
+    public static void export(final File file, final File rawFile, final File pcmFile) throws IOException {
+        final SoundRecording recording = SoundRecording.openReadOnly(file);
+        try {
+            recording.exportRaw(rawFile);
+            recording.exportPcm(pcmFile);
+            logger.info(String.format("Exported %d packets of %s to %s and %s.", recording.getCount(), file,
+                    rawFile, pcmFile));
+        } finally {
+            recording.close();
+        }
+    }
+}
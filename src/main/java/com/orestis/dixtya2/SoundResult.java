@@ -0,0 +1,54 @@
+package com.orestis.dixtya2;
+
+/**
+ * Outcome of a single sound download.
+ */
+public class SoundResult {
+    final byte[] decoded;
+    final int received;
+    final int lost;
+    final int concealed;
+    final long elapsedNanos;
+
+    /**
+     * @param decoded      The decoded track, with concealment in place of the missing packets.
+     * @param received     Packets received.
+     * @param lost         Packets whose deadline passed, or found missing from the gap before a later packet.
+     * @param concealed    Packets concealed: the lost ones and those never received after the server went silent.
+     * @param elapsedNanos Time from the request until the end of the download.
+     */
+    public SoundResult(final byte[] decoded, final int received, final int lost, final int concealed,
+                       final long elapsedNanos) {
+        this.decoded = decoded;
+        this.received = received;
+        this.lost = lost;
+        this.concealed = concealed;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public byte[] getDecoded() {
+        return decoded;
+    }
+
+    public int getReceived() {
+        return received;
+    }
+
+    public int getLost() {
+        return lost;
+    }
+
+    public int getConcealed() {
+        return concealed;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d received, %d lost, %d concealed in %d ms", received, lost, concealed,
+                elapsedNanos / 1000000);
+    }
+}
@@ -0,0 +1,165 @@
+package com.orestis.dixtya2;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.logging.Logger;
+
+/**
+ * {@link ReactorSession} that downloads and decodes a sound track.
+ * <p>
+ * Raw and decoded packets are appended to a {@link SoundRecording} as they arrive. A packet that misses its
+ * {@link ArrivalDeadline} is concealed by the decoder, and once nothing has arrived for {@code timeoutMillis} the
+ * rest of the track is concealed and the session ends.</p>
+ * <p>
+ * Like {@code downloadSound}, the first packet answers the request, so it is waited for with the timeout of an
+ * {@link RtoEstimator} and samples it; the rest are paced by the server.</p>
+ */
+public class SoundSession extends ReactorSession {
+    private final static Logger logger = Logger.getLogger(SoundSession.class.getName());
+    final int totalPackages;
+    final boolean useAQ;
+    final Decoder decoder;
+    final RtoEstimator rto;
+    final long timeoutMillis;
+    final File recordingFile;
+    final byte[] packet;
+    final byte[] decoded;
+    final int decodedPacketLength;
+    ArrivalDeadline arrivalDeadline;
+    SoundRecording recording;
+    long startNanos;
+    /**
+     * Packets received or concealed so far.
+     */
+    int packageId;
+    int received;
+    int lost;
+    /**
+     * Packets that missed their deadline since the last arrival, counted as lost at the next arrival or at the end,
+     * so that the gap before the next arrival doesn't count them again.
+     */
+    int missed;
+    int concealed;
+    SoundResult result;
+
+    /**
+     * @param command       The sound command, eg {@code "V1234L23AQF999"}.
+     * @param clientPort    Local port the server replies to.
+     * @param serverAddress Address and port the server listens at.
+     * @param totalPackages Number of packets requested.
+     * @param useAQ         {@code true} if adaptive quantiser is used.
+     * @param decoder       Decoder owned by this session.
+     * @param rto           Estimator of the time to wait for the first packet.
+     * @param timeoutMillis Time without packets after which the server is considered gone.
+     * @param recordingFile File for the {@link SoundRecording}.
+     */
+    public SoundSession(final String command, final int clientPort, final SocketAddress serverAddress,
+                        final int totalPackages, final boolean useAQ, final Decoder decoder,
+                        final RtoEstimator rto, final long timeoutMillis, final File recordingFile) {
+        super(command, clientPort, serverAddress);
+        this.totalPackages = totalPackages;
+        this.useAQ = useAQ;
+        this.decoder = decoder;
+        this.rto = rto;
+        this.timeoutMillis = timeoutMillis;
+        this.recordingFile = recordingFile;
+        packet = new byte[Decoder.AUDIO_PACKAGE_LENGTH + (useAQ ? 4 : 0)];
+        decodedPacketLength = (useAQ ? 4 : 2) * Decoder.AUDIO_PACKAGE_LENGTH;
+        decoded = new byte[decodedPacketLength * totalPackages];
+    }
+
+    @Override
+    protected void start() throws IOException {
+        recording = SoundRecording.create(recordingFile, name, packet.length, decodedPacketLength, totalPackages);
+        startNanos = System.nanoTime();
+        arrivalDeadline = new ArrivalDeadline(rto.getTimeoutMillis(), timeoutMillis);
+        send(name);
+        setTimeout(arrivalDeadline.getDeadlineMillis());
+    }
+
+    @Override
+    protected void onDatagram(final ByteBuffer datagram) throws IOException {
+        final long receiveNanos = System.nanoTime();
+        if (packageId == 0) {
+            rto.onSample(receiveNanos - startNanos);
+        }
+        // Conceal the packets lost before this one that didn't reach their deadline, keeping a slot for this one.
+        final int extra = Math.min(Math.max(0, arrivalDeadline.onArrival(receiveNanos) - missed),
+                totalPackages - 1 - packageId);
+        for (int i = 0; i < extra; i++) {
+            concealPacket(receiveNanos);
+            packageId++;
+        }
+        lost += missed + extra;
+        missed = 0;
+        final int length = Math.min(packet.length, datagram.remaining());
+        datagram.get(packet, 0, length);
+        final int decodedIndex = decodedPacketLength * packageId;
+        decoder.decode(packet, decoded, decodedIndex);
+        recording.append(packet, length, receiveNanos, 0, decoded, decodedIndex);
+        received++;
+        next();
+    }
+
+    @Override
+    protected void onTimeout() {
+        final boolean exhausted = arrivalDeadline.isExhausted(System.nanoTime());
+        if (exhausted) {
+            logger.severe(String.format("%s: timed out after %d of %d packets.", name, packageId, totalPackages));
+        } else {
+            missed++;
+        }
+        if (packageId == 0) {
+            rto.onTimeout();
+        }
+        do {
+            concealPacket(System.nanoTime());
+            next();
+        } while (exhausted && packageId < totalPackages);
+    }
+
+    void concealPacket(final long nanos) {
+        final int decodedIndex = decodedPacketLength * packageId;
+        decoder.conceal(decoded, decodedIndex);
+        recording.append(null, 0, nanos, SoundRecording.FLAG_CONCEALED, decoded, decodedIndex);
+        concealed++;
+    }
+
+    void next() {
+        if (++packageId == totalPackages) {
+            clearTimeout();
+            finish();
+        } else {
+            setTimeout(arrivalDeadline.getDeadlineMillis());
+        }
+    }
+
+    @Override
+    protected void onFinish() throws IOException {
+        recording.close();
+        lost += missed;
+        missed = 0;
+        result = new SoundResult(decoded, received, lost, concealed, System.nanoTime() - startNanos);
+        logger.info(String.format("%s: %s.", name, result));
+    }
+
+    /**
+     * @return The decoded track, with the missing packets concealed.
+     */
+    public byte[] getDecoded() {
+        return decoded;
+    }
+
+    public int getReceived() {
+        return received;
+    }
+
+    /**
+     * @return The outcome, {@code null} until the session has finished.
+     */
+    public SoundResult getResult() {
+        return result;
+    }
+}
@@ -0,0 +1,403 @@
+package com.orestis.dixtya2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Logger;
+
+/**
+ * Command line tool decoding recorded sound offline, to WAV or to raw PCM like the {@code decoded.data} files.
+ * <p>
+ * Usage: {@code SoundTranscoder [--pcm] [--aq | --dpcm] [--chunk packets] [--out directory] file...}, where each
+ * file is either the concatenated packets of a {@code buffer.data} capture, AQ-DPCM if its name holds {@code AQ}
+ * unless {@code --aq} or {@code --dpcm} is given, or a {@link SoundRecording}. {@code V1234L23AQF999buffer.data}
+ * and {@code V1234L23AQF999.rec} are written as {@code V1234L23AQF999.wav}, or {@code V1234L23AQF999decoded.data}
+ * with {@code --pcm}.</p>
+ * <p>
+ * Inputs are memory-mapped and transcoded in parallel on the common fork/join pool, and each input is split in
+ * chunks of packets that are decoded in parallel into a memory-mapped output. The decoders only carry a little state
+ * from a packet to the next, which a chunk can work out without decoding what comes before it:</p>
+ * <ul>
+ * <li>AQ-DPCM carries the last {@code delta2}, which is the last low nibble of the previous packet times that
+ * packet's step, so it is read straight from the previous packet.</li>
+ * <li>DPCM carries the last sample, which is the sum modulo 256 of every difference before it. The sum of each chunk
+ * is computed in parallel first, and a prefix sum over the chunks gives the sample each chunk starts from.</li>
+ * </ul>
+ * <p>
+ * Packets a recording flags as concealed are copied from its PCM, and decoding continues after them like the live
+ * decoder did, so the output matches the recording's PCM byte for byte.</p>
+ */
+public class SoundTranscoder {
+    private final static Logger logger = Logger.getLogger(SoundTranscoder.class.getName());
+    static final String USAGE = "Usage: SoundTranscoder [--pcm] [--aq | --dpcm] [--chunk packets] [--out directory] "
+            + "<buffer.data | recording.rec>...";
+    static final int DEFAULT_CHUNK_PACKETS = 64;
+    static final int SAMPLE_RATE = 8000;
+    static final int WAV_HEADER_SIZE = 44;
+
+    public static void main(final String[] args) throws IOException {
+        boolean pcm = false;
+        Boolean aq = null;
+        int chunkPackets = DEFAULT_CHUNK_PACKETS;
+        File directory = null;
+        final List<File> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--pcm")) {
+                pcm = true;
+            } else if (args[i].equals("--aq")) {
+                aq = true;
+            } else if (args[i].equals("--dpcm")) {
+                aq = false;
+            } else if (args[i].equals("--chunk") && i + 1 < args.length) {
+                chunkPackets = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--out") && i + 1 < args.length) {
+                directory = new File(args[++i]);
+            } else {
+                files.add(new File(args[i]));
+            }
+        }
+        if (files.isEmpty() || chunkPackets < 1) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+        final long start = System.nanoTime();
+        final long packets = transcode(files, directory, aq, pcm, chunkPackets);
+        logger.info(String.format("Transcoded %d packets of %d files in %d ms.", packets, files.size(),
+                (System.nanoTime() - start) / 1000000));
+    }
+
+    /**
+     * Transcode files in parallel. A file that fails is logged and skipped.
+     *
+     * @param files        The {@code buffer.data} captures and recordings.
+     * @param directory    Where the outputs go, {@code null} for next to each input.
+     * @param aq           Whether captures are AQ-DPCM, {@code null} to tell from their names.
+     * @param pcm          Whether to write raw PCM instead of WAV.
+     * @param chunkPackets Packets decoded by a single task.
+     * @return The number of packets transcoded.
+     */
+    public static long transcode(final List<File> files, final File directory, final Boolean aq, final boolean pcm,
+                                 final int chunkPackets) {
+        return ForkJoinPool.commonPool().invoke(new FileTask(files.toArray(new File[0]), 0, files.size(),
+                directory, aq, pcm, chunkPackets));
+    }
+
+    /**
+     * Transcodes the files {@code from} to {@code to}, splitting the range in halves down to a single file.
+     */
+    static class FileTask extends RecursiveTask<Long> {
+        final File[] files;
+        final int from;
+        final int to;
+        final File directory;
+        final Boolean aq;
+        final boolean pcm;
+        final int chunkPackets;
+
+        FileTask(final File[] files, final int from, final int to, final File directory, final Boolean aq,
+                 final boolean pcm, final int chunkPackets) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+            this.directory = directory;
+            this.aq = aq;
+            this.pcm = pcm;
+            this.chunkPackets = chunkPackets;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from <= 1) {
+                if (to > from) {
+                    try {
+                        return (long) transcode(files[from], directory, aq, pcm, chunkPackets);
+                    } catch (final IOException | RuntimeException exception) {
+                        logger.severe("Failed to transcode " + files[from] + ": " + exception);
+                    }
+                }
+                return 0L;
+            }
+            final int middle = (from + to) >>> 1;
+            final FileTask left = new FileTask(files, from, middle, directory, aq, pcm, chunkPackets);
+            left.fork();
+            final long right = new FileTask(files, middle, to, directory, aq, pcm, chunkPackets).compute();
+            return right + left.join();
+        }
+    }
+
+    /**
+     * Packets of a capture or recording, mapped for reading.
+     */
+    static class Source {
+        final boolean aq;
+        final int packetLength;
+        final int decodedPacketLength;
+        final int count;
+        /**
+         * The packets of a {@code buffer.data} capture, {@code null} for a recording.
+         */
+        final MappedByteBuffer capture;
+        /**
+         * The recording, {@code null} for a capture.
+         */
+        final SoundRecording recording;
+
+        Source(final boolean aq, final int count, final MappedByteBuffer capture, final SoundRecording recording) {
+            this.aq = aq;
+            packetLength = Decoder.AUDIO_PACKAGE_LENGTH + (aq ? 4 : 0);
+            decodedPacketLength = 2 * Decoder.AUDIO_PACKAGE_LENGTH * (aq ? 2 : 1);
+            this.count = count;
+            this.capture = capture;
+            this.recording = recording;
+        }
+
+        /**
+         * Copy the raw packets of a range.
+         *
+         * @param fromPacket First packet, inclusive.
+         * @param toPacket   Last packet, exclusive.
+         * @param out        Destination, starting at its first byte.
+         */
+        void getRaw(final int fromPacket, final int toPacket, final byte[] out) {
+            if (recording != null) {
+                recording.getRaw(fromPacket, toPacket, out, 0);
+            } else {
+                final ByteBuffer raw = capture.duplicate();
+                raw.position(fromPacket * packetLength);
+                raw.get(out, 0, (toPacket - fromPacket) * packetLength);
+            }
+        }
+
+        boolean isConcealed(final int packetId) {
+            return recording != null && (recording.getFlags(packetId) & SoundRecording.FLAG_CONCEALED) != 0;
+        }
+    }
+
+    /**
+     * Transcode a file.
+     *
+     * @param file         A {@code buffer.data} capture or a recording.
+     * @param directory    Where the output goes, {@code null} for next to the input.
+     * @param aq           Whether a capture is AQ-DPCM, {@code null} to tell from its name.
+     * @param pcm          Whether to write raw PCM instead of WAV.
+     * @param chunkPackets Packets decoded by a single task.
+     * @return The number of packets transcoded.
+     * @throws IOException
+     */
+    public static int transcode(final File file, final File directory, final Boolean aq, final boolean pcm,
+                                final int chunkPackets) throws IOException {
+        final String name = file.getName();
+        final boolean isRecording = name.endsWith(".rec");
+        final String base = isRecording ? name.substring(0, name.length() - ".rec".length())
+                : name.replaceFirst("buffer(-\\d+)?\\.data$", "$1").replaceFirst("\\.data$", "");
+        final File out = new File(directory != null ? directory : file.getAbsoluteFile().getParentFile(),
+                base + (pcm ? "decoded.data" : ".wav"));
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        SoundRecording recording = null;
+        try {
+            final Source source;
+            if (isRecording) {
+                recording = SoundRecording.openReadOnly(file);
+                source = new Source(recording.getPacketLength() > Decoder.AUDIO_PACKAGE_LENGTH,
+                        recording.getCount(), null, recording);
+                if (source.packetLength != recording.getPacketLength()
+                        || source.decodedPacketLength != recording.getDecodedPacketLength()) {
+                    throw new IOException("Unknown packet lengths " + recording.getPacketLength() + " and "
+                            + recording.getDecodedPacketLength() + ".");
+                }
+            } else {
+                final boolean captureAq = aq != null ? aq : name.contains("AQ");
+                final int packetLength = Decoder.AUDIO_PACKAGE_LENGTH + (captureAq ? 4 : 0);
+                if (channel.size() % packetLength != 0) {
+                    final String message = String.format("%s is not made of %d byte %s packets.", file,
+                            packetLength, captureAq ? "AQ-DPCM" : "DPCM");
+                    logger.severe(message);
+                    throw new IllegalArgumentException(message);
+                }
+                source = new Source(captureAq, (int) (channel.size() / packetLength),
+                        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), null);
+            }
+            write(source, out, pcm, chunkPackets);
+            logger.info(String.format("Transcoded %d %s packets of %s to %s.", source.count,
+                    source.aq ? "AQ-DPCM" : "DPCM", file, out));
+            return source.count;
+        } finally {
+            try {
+                if (recording != null) {
+                    recording.close();
+                }
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Decode a source into a file.
+     *
+     * @param source       The packets.
+     * @param file         The output, replaced if it exists.
+     * @param pcm          Whether to write raw PCM instead of WAV.
+     * @param chunkPackets Packets decoded by a single task.
+     * @throws IOException
+     */
+    static void write(final Source source, final File file, final boolean pcm, final int chunkPackets)
+            throws IOException {
+        final int headerSize = pcm ? 0 : WAV_HEADER_SIZE;
+        final int dataSize = source.count * source.decodedPacketLength;
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            final MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, headerSize + dataSize);
+            if (!pcm) {
+                writeWavHeader(out, source.aq ? 16 : 8, dataSize);
+            }
+            final int chunks = (source.count + chunkPackets - 1) / chunkPackets;
+            // The sample each DPCM chunk starts from, the prefix sum of the chunk sums.
+            final byte[] carries = new byte[chunks];
+            if (!source.aq && chunks > 1) {
+                final byte[] sums = new byte[chunks];
+                new ChunkTask(source, chunkPackets, 0, chunks, sums, null, null, 0, false).invoke();
+                for (int i = 1; i < chunks; i++) {
+                    carries[i] = (byte) (carries[i - 1] + sums[i - 1]);
+                }
+            }
+            new ChunkTask(source, chunkPackets, 0, chunks, null, carries, out, headerSize, !pcm && !source.aq)
+                    .invoke();
+            out.force();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Write a canonical WAV header for mono signed little endian PCM, or unsigned for 8 bits as WAV has it.
+     *
+     * @param out      Destination, starting at its first byte.
+     * @param bits     Bits per sample.
+     * @param dataSize Bytes of PCM that follow.
+     */
+    static void writeWavHeader(final ByteBuffer out, final int bits, final int dataSize) {
+        final ByteBuffer header = out.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        header.position(0);
+        final int blockAlign = bits / 8;
+        header.put(new byte[]{'R', 'I', 'F', 'F'}).putInt(WAV_HEADER_SIZE - 8 + dataSize)
+                .put(new byte[]{'W', 'A', 'V', 'E', 'f', 'm', 't', ' '}).putInt(16).putShort((short) 1)
+                .putShort((short) 1).putInt(SAMPLE_RATE).putInt(SAMPLE_RATE * blockAlign)
+                .putShort((short) blockAlign).putShort((short) bits).put(new byte[]{'d', 'a', 't', 'a'})
+                .putInt(dataSize);
+    }
+
+    /**
+     * Works on the chunks {@code from} to {@code to}, splitting the range in halves down to a single chunk. With
+     * {@code sums} set it sums the differences of each DPCM chunk, otherwise it decodes each chunk to the output.
+     */
+    static class ChunkTask extends RecursiveAction {
+        final Source source;
+        final int chunkPackets;
+        final int from;
+        final int to;
+        final byte[] sums;
+        final byte[] carries;
+        final MappedByteBuffer out;
+        final int outOffset;
+        /**
+         * Whether 8 bit samples are written unsigned, as WAV takes them.
+         */
+        final boolean unsigned;
+
+        ChunkTask(final Source source, final int chunkPackets, final int from, final int to, final byte[] sums,
+                  final byte[] carries, final MappedByteBuffer out, final int outOffset, final boolean unsigned) {
+            this.source = source;
+            this.chunkPackets = chunkPackets;
+            this.from = from;
+            this.to = to;
+            this.sums = sums;
+            this.carries = carries;
+            this.out = out;
+            this.outOffset = outOffset;
+            this.unsigned = unsigned;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) {
+                    if (sums != null) {
+                        sum(from);
+                    } else {
+                        decode(from);
+                    }
+                }
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            final ChunkTask left = new ChunkTask(source, chunkPackets, from, middle, sums, carries, out, outOffset,
+                    unsigned);
+            left.fork();
+            new ChunkTask(source, chunkPackets, middle, to, sums, carries, out, outOffset, unsigned).compute();
+            left.join();
+        }
+
+        void sum(final int chunk) {
+            final int first = chunk * chunkPackets;
+            final int last = Math.min(source.count, first + chunkPackets);
+            final byte[] raw = new byte[(last - first) * source.packetLength];
+            source.getRaw(first, last, raw);
+            byte sum = 0;
+            for (int packetId = first; packetId < last; packetId++) {
+                // A concealed packet holds the last sample.
+                if (!source.isConcealed(packetId)) {
+                    sum += DpcmDecoder.sum(raw, (packetId - first) * source.packetLength);
+                }
+            }
+            sums[chunk] = sum;
+        }
+
+        void decode(final int chunk) {
+            final int first = chunk * chunkPackets;
+            final int last = Math.min(source.count, first + chunkPackets);
+            // AQ-DPCM chunks read the packet before them too, for the delta2 it carries.
+            final int rawFirst = source.aq ? Math.max(0, first - 1) : first;
+            final byte[] raw = new byte[(last - rawFirst) * source.packetLength];
+            source.getRaw(rawFirst, last, raw);
+            final byte[] decoded = new byte[(last - first) * source.decodedPacketLength];
+            int oldDelta2 = source.aq && first > 0 && !source.isConcealed(first - 1)
+                    ? AqDpcmDecoder.lastDelta2(raw, 0) : 0;
+            byte X2 = carries[chunk];
+            for (int packetId = first; packetId < last; packetId++) {
+                final int rawOffset = (packetId - rawFirst) * source.packetLength;
+                final int decodedIndex = (packetId - first) * source.decodedPacketLength;
+                if (source.isConcealed(packetId)) {
+                    source.recording.getPcm(packetId, packetId + 1, decoded, decodedIndex);
+                    oldDelta2 = 0;
+                } else if (source.aq) {
+                    oldDelta2 = AqDpcmDecoder.decode(raw, rawOffset, decoded, decodedIndex, oldDelta2);
+                } else {
+                    X2 = DpcmDecoder.decode(raw, rawOffset, decoded, decodedIndex, X2);
+                }
+            }
+            if (unsigned) {
+                for (int i = 0; i < decoded.length; i++) {
+                    decoded[i] ^= 0x80;
+                }
+            }
+            final ByteBuffer buffer = out.duplicate();
+            buffer.position(outOffset + first * source.decodedPacketLength);
+            buffer.put(decoded);
+        }
+    }
+}
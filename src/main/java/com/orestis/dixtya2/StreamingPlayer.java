@@ -0,0 +1,208 @@
+package com.orestis.dixtya2;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Plays decoded audio packets while they are still arriving, through a jitter buffer.
+ * <p>
+ * The receiving thread {@link StreamingPlayer#offer(byte[], int) offers} each decoded packet. A playback thread
+ * waits until {@code prebufferPackets} packets are buffered and then writes them to the {@link AudioSink} in
+ * order. The jitter buffer is a fixed ring of packet-sized slots: each packet is copied into the next free slot and
+ * played straight from it, so nothing is allocated per packet and memory doesn't grow with the track. A download
+ * that gets a whole ring ahead of playback waits for a slot to be played instead of losing audio, leaving the
+ * packets still arriving in the socket's receive buffer meanwhile.</p>
+ * <p>
+ * Counters:</p>
+ * <ul>
+ * <li>underruns: times the audio ran dry, ie a packet was written after everything written before it had
+ * finished playing.</li>
+ * <li>late packets: packets offered after the time they were due on the schedule set when playback started.</li>
+ * </ul>
+ */
+public class StreamingPlayer implements Runnable {
+    private final static Logger logger = Logger.getLogger(StreamingPlayer.class.getName());
+
+    final AudioSink sink;
+    final AudioFormat format;
+    final int packetBytes;
+    final int prebufferPackets;
+    /**
+     * Playback duration of a single packet.
+     */
+    final long packetNanos;
+    /**
+     * Number of slots of {@link StreamingPlayer#ring}.
+     */
+    final int capacityPackets;
+    /**
+     * Packets waiting to be played, a slot of {@code packetBytes} each. The slot at {@link StreamingPlayer#head} is
+     * the next to play and stays in use while it plays. {@code head}, {@link StreamingPlayer#buffered} and
+     * {@link StreamingPlayer#ended} are guarded by {@code this}.
+     */
+    final byte[] ring;
+    int head;
+    int buffered;
+    boolean ended;
+    final AtomicInteger underruns = new AtomicInteger();
+    final AtomicInteger latePackets = new AtomicInteger();
+    /**
+     * {@link System#nanoTime()} at which playback of the first packet started, 0 before that.
+     */
+    volatile long playStart;
+    /**
+     * {@link System#nanoTime()} at which everything written to the sink will have been played, only accessed by
+     * the playback thread.
+     */
+    long playedUntil;
+    /**
+     * Number of packets offered so far, only accessed by the receiving thread.
+     */
+    int offered;
+    Thread thread;
+
+    /**
+     * @param sink             Where audio is played.
+     * @param format           Format of the decoded audio.
+     * @param packetBytes      Length in bytes of a decoded packet.
+     * @param prebufferPackets Number of packets buffered before playback starts.
+     * @param capacityPackets  Maximum number of packets buffered.
+     */
+    public StreamingPlayer(final AudioSink sink, final AudioFormat format, final int packetBytes,
+                           final int prebufferPackets, final int capacityPackets) {
+        if (prebufferPackets < 1 || capacityPackets < prebufferPackets) {
+            throw new IllegalArgumentException("Invalid jitter buffer: prebuffer " + prebufferPackets
+                    + ", capacity " + capacityPackets);
+        }
+        this.sink = sink;
+        this.format = format;
+        this.packetBytes = packetBytes;
+        this.prebufferPackets = prebufferPackets;
+        packetNanos = (long) (1e9 * packetBytes / format.getFrameSize() / format.getFrameRate());
+        this.capacityPackets = capacityPackets;
+        ring = new byte[capacityPackets * packetBytes];
+    }
+
+    /**
+     * Open the sink and start the playback thread.
+     *
+     * @throws LineUnavailableException
+     */
+    public void start() throws LineUnavailableException {
+        sink.open(format);
+        thread = new Thread(this, "playback");
+        thread.start();
+    }
+
+    /**
+     * Copy a decoded packet into the jitter buffer for playback, waiting for a free slot if it is full.
+     *
+     * @param decoded Array holding the decoded packet.
+     * @param offset  Index of the packet's first byte.
+     * @throws InterruptedIOException If interrupted while waiting for a slot. The packet isn't queued.
+     */
+    public void offer(final byte[] decoded, final int offset) throws InterruptedIOException {
+        final long start = playStart;
+        if (start != 0 && System.nanoTime() > start + offered * packetNanos) {
+            latePackets.incrementAndGet();
+        }
+        synchronized (this) {
+            try {
+                while (buffered == capacityPackets) {
+                    wait();
+                }
+            } catch (final InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for the jitter buffer.");
+            }
+            // The slot after the buffered ones is never the one playing, since the ring isn't full.
+            System.arraycopy(decoded, offset, ring, (head + buffered) % capacityPackets * packetBytes,
+                    packetBytes);
+            buffered++;
+            notifyAll();
+        }
+        offered++;
+    }
+
+    /**
+     * Signal the end of the stream and wait until everything buffered has been played.
+     *
+     * @throws InterruptedException
+     */
+    public void finish() throws InterruptedException {
+        synchronized (this) {
+            ended = true;
+            notifyAll();
+        }
+        thread.join();
+        sink.close();
+        logger.info(String.format("Streamed %d packets: %d underruns, %d late.", offered, getUnderruns(),
+                getLatePackets()));
+    }
+
+    /**
+     * Wait for the next packet to play. Its slot stays in use until {@link StreamingPlayer#release()}.
+     *
+     * @return Index of the packet's first byte in {@link StreamingPlayer#ring}, -1 once the stream has ended and
+     * everything has been played.
+     * @throws InterruptedException
+     */
+    synchronized int take() throws InterruptedException {
+        while (buffered == 0 && !ended) {
+            wait();
+        }
+        return buffered == 0 ? -1 : head * packetBytes;
+    }
+
+    /**
+     * Free the slot of the packet just played.
+     */
+    synchronized void release() {
+        head = (head + 1) % capacityPackets;
+        buffered--;
+        notifyAll();
+    }
+
+    @Override
+    public void run() {
+        try {
+            synchronized (this) {
+                while (buffered < prebufferPackets && !ended) {
+                    wait();
+                }
+            }
+            playStart = System.nanoTime();
+            playedUntil = playStart;
+            int offset;
+            while ((offset = take()) >= 0) {
+                play(offset);
+                release();
+            }
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void play(final int offset) {
+        final long now = System.nanoTime();
+        if (now > playedUntil) {
+            if (playedUntil != playStart) {
+                underruns.incrementAndGet();
+            }
+            playedUntil = now;
+        }
+        playedUntil += packetNanos;
+        sink.write(ring, offset, packetBytes);
+    }
+
+    public int getUnderruns() {
+        return underruns.get();
+    }
+
+    public int getLatePackets() {
+        return latePackets.get();
+    }
+}
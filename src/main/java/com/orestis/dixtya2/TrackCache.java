@@ -0,0 +1,330 @@
+package com.orestis.dixtya2;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Cache of decoded sound tracks keyed by the exact request command, eg {@code "V1234L23AQF999"}.
+ * <p>
+ * Only deterministic requests belong here: a random {@code "T"} track differs on every request. Each track keeps
+ * the raw packets it was decoded from next to its PCM, so that a hit can be recorded like a download. Both are held
+ * in direct buffers, outside the Java heap, and the least recently used tracks are evicted once the total exceeds
+ * the capacity. With a directory, the cache is loaded from it on creation and saved to it by
+ * {@link TrackCache#close()}, so it survives across runs, as long as the request codes stay the same.</p>
+ * <p>
+ * Every method is synchronized, so a single cache can serve concurrent downloads.</p>
+ */
+public class TrackCache implements TrackCacheMBean {
+    private final static Logger logger = Logger.getLogger(TrackCache.class.getName());
+    static final String EXTENSION = ".track";
+    /**
+     * Header of a saved track: raw bytes (8) | fetch time in ns (8), followed by the raw packets and the PCM.
+     */
+    static final int FILE_HEADER_SIZE = 16;
+
+    /**
+     * A cached track, as returned by {@link TrackCache#get(String)}.
+     */
+    public static class Track {
+        final byte[] raw;
+        final byte[] decoded;
+
+        Track(final byte[] raw, final byte[] decoded) {
+            this.raw = raw;
+            this.decoded = decoded;
+        }
+
+        /**
+         * @return The packets received from the server, back to back.
+         */
+        public byte[] getRaw() {
+            return raw;
+        }
+
+        public byte[] getDecoded() {
+            return decoded;
+        }
+    }
+
+    static class Entry {
+        /**
+         * The packets received from the server to fetch the track.
+         */
+        final ByteBuffer raw;
+        final ByteBuffer pcm;
+        /**
+         * Time it took to fetch and decode the track.
+         */
+        final long fetchNanos;
+
+        Entry(final ByteBuffer raw, final ByteBuffer pcm, final long fetchNanos) {
+            this.raw = raw;
+            this.pcm = pcm;
+            this.fetchNanos = fetchNanos;
+        }
+
+        int size() {
+            return raw.capacity() + pcm.capacity();
+        }
+    }
+
+    final long capacity;
+    final File directory;
+    /**
+     * Entries from least to most recently used.
+     */
+    final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    long size;
+    long hits;
+    long misses;
+    long evictions;
+    long savedBytes;
+    long savedNanos;
+    /**
+     * Name the cache is registered with JMX under, {@code null} if registering failed.
+     */
+    ObjectName objectName;
+
+    /**
+     * @param capacity  Maximum total bytes of raw packets and decoded PCM held.
+     * @param directory Directory the cache is loaded from and saved to, {@code null} to keep it in memory only.
+     * @throws IOException
+     */
+    public TrackCache(final long capacity, final File directory) throws IOException {
+        if (capacity < 1) {
+            final String message = "Invalid track cache capacity: " + capacity;
+            logger.severe(message);
+            throw new IllegalArgumentException(message);
+        }
+        this.capacity = capacity;
+        this.directory = directory;
+        if (directory != null) {
+            load();
+        }
+        try {
+            final ObjectName name = new ObjectName("com.orestis.dixtya2:type=TrackCache,name="
+                    + System.identityHashCode(this));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+        } catch (final JMException exception) {
+            logger.warning("Failed to register track cache with JMX: " + exception);
+        }
+    }
+
+    /**
+     * Look a track up.
+     *
+     * @param command The request command.
+     * @return A copy of the track, {@code null} if it isn't cached.
+     */
+    public synchronized Track get(final String command) {
+        final Entry entry = entries.get(command);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        savedBytes += entry.raw.capacity();
+        savedNanos += entry.fetchNanos;
+        final byte[] raw = new byte[entry.raw.capacity()];
+        entry.raw.duplicate().get(raw);
+        final byte[] decoded = new byte[entry.pcm.capacity()];
+        entry.pcm.duplicate().get(decoded);
+        return new Track(raw, decoded);
+    }
+
+    /**
+     * Cache a track, evicting the least recently used ones to make room. A track larger than the whole capacity
+     * isn't cached.
+     *
+     * @param command    The request command.
+     * @param raw        The packets received from the server to fetch it, back to back.
+     * @param decoded    The decoded track.
+     * @param fetchNanos Time it took to fetch and decode it.
+     */
+    public synchronized void put(final String command, final byte[] raw, final byte[] decoded,
+                                 final long fetchNanos) {
+        final long length = (long) raw.length + decoded.length;
+        if (length > capacity) {
+            return;
+        }
+        final Entry previous = entries.remove(command);
+        if (previous != null) {
+            size -= previous.size();
+        }
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while (size + length > capacity && iterator.hasNext()) {
+            size -= iterator.next().size();
+            iterator.remove();
+            evictions++;
+        }
+        final ByteBuffer rawBuffer = ByteBuffer.allocateDirect(raw.length);
+        rawBuffer.put(raw).flip();
+        final ByteBuffer pcm = ByteBuffer.allocateDirect(decoded.length);
+        pcm.put(decoded).flip();
+        entries.put(command, new Entry(rawBuffer, pcm, fetchNanos));
+        size += length;
+    }
+
+    /**
+     * Load the saved tracks, oldest first, so the most recently saved ones stay if they don't all fit.
+     *
+     * @throws IOException
+     */
+    void load() throws IOException {
+        final File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (final File file : files) {
+            final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+                final long length = channel.size() - FILE_HEADER_SIZE;
+                if (length < 0 || length > capacity) {
+                    continue;
+                }
+                readFully(channel, header);
+                header.flip();
+                final long rawLength = header.getLong();
+                if (rawLength < 0 || rawLength > length) {
+                    logger.warning("Skipping corrupt track file " + file + ".");
+                    continue;
+                }
+                final byte[] raw = new byte[(int) rawLength];
+                readFully(channel, ByteBuffer.wrap(raw));
+                final byte[] decoded = new byte[(int) (length - rawLength)];
+                readFully(channel, ByteBuffer.wrap(decoded));
+                final String name = file.getName();
+                put(name.substring(0, name.length() - EXTENSION.length()), raw, decoded, header.getLong());
+            } finally {
+                channel.close();
+            }
+        }
+        logger.info(String.format("Loaded %d tracks, %d bytes, from %s.", entries.size(), size, directory));
+    }
+
+    static void readFully(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Truncated track file.");
+            }
+        }
+    }
+
+    /**
+     * Unregister the cache from JMX and save the cached tracks to the directory, if any, replacing those saved
+     * before.
+     *
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        logger.info(toString());
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (final JMException exception) {
+                logger.warning("Failed to unregister track cache from JMX: " + exception);
+            }
+            objectName = null;
+        }
+        if (directory == null) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create track cache directory " + directory);
+        }
+        final File[] stale = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (stale != null) {
+            for (final File file : stale) {
+                if (!entries.containsKey(file.getName().substring(0, file.getName().length() - EXTENSION.length()))
+                        && !file.delete()) {
+                    logger.warning("Failed to delete evicted track " + file + ".");
+                }
+            }
+        }
+        // Least recently used first, so the order is kept in the modification times.
+        for (final Map.Entry<String, Entry> cached : entries.entrySet()) {
+            final File file = new File(directory, cached.getKey() + EXTENSION);
+            final File temporary = new File(directory, cached.getKey() + EXTENSION + ".tmp");
+            final FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+                final Entry entry = cached.getValue();
+                header.putLong(entry.raw.capacity()).putLong(entry.fetchNanos).flip();
+                final ByteBuffer[] data = {header, entry.raw.duplicate(), entry.pcm.duplicate()};
+                while (data[0].hasRemaining() || data[1].hasRemaining() || data[2].hasRemaining()) {
+                    channel.write(data);
+                }
+            } finally {
+                channel.close();
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    @Override
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    @Override
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized long getSize() {
+        return size;
+    }
+
+    @Override
+    public long getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public synchronized int getEntries() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized long getSavedBytes() {
+        return savedBytes;
+    }
+
+    @Override
+    public synchronized long getSavedMillis() {
+        return savedNanos / 1000000;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Track cache: %d hits, %d misses, %d evictions, %d tracks of %d/%d bytes; saved %d "
+                + "bytes of traffic and %d ms of download.", hits, misses, evictions, entries.size(), size, capacity,
+                savedBytes, savedNanos / 1000000);
+    }
+}
@@ -0,0 +1,22 @@
+package com.orestis.dixtya2;
+
+/**
+ * JMX view of a {@link TrackCache}.
+ */
+public interface TrackCacheMBean {
+    long getHits();
+
+    long getMisses();
+
+    long getEvictions();
+
+    long getSize();
+
+    long getCapacity();
+
+    int getEntries();
+
+    long getSavedBytes();
+
+    long getSavedMillis();
+}
@@ -0,0 +1,253 @@
+package com.orestis.dixtya2;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Declarative workload, read with {@link Gson} from the {@code "workload"} of the codes file or from a file of its
+ * own, and run by a {@link WorkloadRunner}.
+ * <p>
+ * Each operation is run {@code warmup} times unmeasured, to warm up the JIT, the sockets and the server, and then
+ * {@code iterations} times measured. Both default to the workload's values, eg:</p>
+ * <pre>
+ * {
+ *   "warmup": 1,
+ *   "iterations": 5,
+ *   "report": "workload-report.json",
+ *   "operations": [
+ *     {"type": "echo", "duration": 30000, "delay": false},
+ *     {"type": "echoOpen", "schedule": "50-400:60", "delay": true, "iterations": 1},
+ *     {"type": "image", "camera": "FIX", "maxLength": 512, "flow": true},
+ *     {"type": "sound", "track": 23, "aq": true, "packets": 999},
+ *     {"type": "randomSound", "aq": false, "packets": 999, "warmup": 0}
+ *   ]
+ * }
+ * </pre>
+ * <p>
+ * Sound downloads bypass the track cache, so that every run of them is measured against the server.</p>
+ */
+public class Workload {
+    private final static Logger logger = Logger.getLogger(Workload.class.getName());
+    /**
+     * Stop-and-wait or windowed echo test of {@code duration} ms, with {@code window} requests in flight.
+     */
+    public static final String ECHO = "echo";
+    /**
+     * Open-loop echo test of the {@link RateSchedule} {@code schedule}.
+     */
+    public static final String ECHO_OPEN = "echoOpen";
+    /**
+     * Image of {@code camera} in packets of {@code maxLength}, with FLOW if {@code flow}.
+     */
+    public static final String IMAGE = "image";
+    /**
+     * {@code packets} packets of the sound track {@code track}, AQ-DPCM if {@code aq}.
+     */
+    public static final String SOUND = "sound";
+    /**
+     * {@code packets} packets of the random tone generator, AQ-DPCM if {@code aq}.
+     */
+    public static final String RANDOM_SOUND = "randomSound";
+
+    /**
+     * An operation and its parameters. Parameters that don't apply to its type are ignored.
+     */
+    public static class Operation {
+        String type;
+        /**
+         * Name in the report, defaults to the type and its main parameters.
+         */
+        String name;
+        Integer warmup;
+        Integer iterations;
+        long duration = 4 * 60 * 1000;
+        int window = 1;
+        boolean delay;
+        String schedule;
+        String camera = "FIX";
+        int maxLength = 512;
+        boolean flow;
+        int track = 1;
+        boolean aq;
+        int packets = 999;
+
+        public String getType() {
+            return type;
+        }
+
+        public String getName() {
+            if (name != null) {
+                return name;
+            }
+            switch (type) {
+                case ECHO:
+                    return ECHO + (delay ? "-delay" : "") + (window > 1 ? "-w" + window : "");
+                case ECHO_OPEN:
+                    return ECHO_OPEN + (delay ? "-delay" : "");
+                case IMAGE:
+                    return IMAGE + "-" + camera + "-" + maxLength + (flow ? "-flow" : "");
+                case SOUND:
+                    return SOUND + "-L" + track + (aq ? "-AQ" : "");
+                default:
+                    return type + (aq ? "-AQ" : "");
+            }
+        }
+
+        /**
+         * @return The {@link Metrics} operation its packets are counted in.
+         */
+        public String getMetrics() {
+            switch (type) {
+                case ECHO:
+                case ECHO_OPEN:
+                    return Metrics.ECHO;
+                case IMAGE:
+                    return Metrics.IMAGE;
+                default:
+                    return Metrics.SOUND;
+            }
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+
+        public int getWindow() {
+            return window;
+        }
+
+        public boolean isDelay() {
+            return delay;
+        }
+
+        public String getSchedule() {
+            return schedule;
+        }
+
+        public String getCamera() {
+            return camera;
+        }
+
+        public int getMaxLength() {
+            return maxLength;
+        }
+
+        public boolean isFlow() {
+            return flow;
+        }
+
+        public int getTrack() {
+            return track;
+        }
+
+        public boolean isAq() {
+            return aq;
+        }
+
+        public int getPackets() {
+            return packets;
+        }
+    }
+
+    int warmup = 1;
+    int iterations = 5;
+    /**
+     * File the {@link WorkloadRunner} writes its report to as JSON, {@code null} for none.
+     */
+    String report;
+    List<Operation> operations = new ArrayList<>();
+
+    /**
+     * Read and validate a workload.
+     *
+     * @param json The workload.
+     * @return The workload.
+     */
+    public static Workload parse(final JsonElement json) {
+        final Workload workload;
+        try {
+            workload = new Gson().fromJson(json, Workload.class);
+        } catch (final JsonParseException exception) {
+            final String message = "Invalid workload: " + exception.getMessage();
+            logger.severe(message);
+            throw new IllegalArgumentException(message, exception);
+        }
+        workload.validate();
+        return workload;
+    }
+
+    void validate() {
+        if (operations == null || operations.isEmpty()) {
+            fail("Workload without operations.");
+        }
+        for (final Operation operation : operations) {
+            if (operation.type == null) {
+                fail("Workload operation without a type.");
+            }
+            switch (operation.type) {
+                case ECHO:
+                    if (operation.duration <= 0 || operation.window < 1) {
+                        fail("Invalid duration or window of " + operation.getName() + ".");
+                    }
+                    break;
+                case ECHO_OPEN:
+                    if (operation.schedule == null) {
+                        fail("Open-loop echo without a schedule.");
+                    }
+                    // Fails on an invalid schedule.
+                    new RateSchedule(operation.schedule);
+                    break;
+                case IMAGE:
+                    if (operation.maxLength <= 0) {
+                        fail("Invalid packet length of " + operation.getName() + ".");
+                    }
+                    break;
+                case SOUND:
+                case RANDOM_SOUND:
+                    if (operation.packets < 1) {
+                        fail("Invalid packet count of " + operation.getName() + ".");
+                    }
+                    break;
+                default:
+                    fail("Unknown workload operation type: " + operation.type);
+            }
+            if (getWarmup(operation) < 0 || getIterations(operation) < 1) {
+                fail("Invalid warmup or iterations of " + operation.getName() + ".");
+            }
+        }
+    }
+
+    static void fail(final String message) {
+        logger.severe(message);
+        throw new IllegalArgumentException(message);
+    }
+
+    /**
+     * @param operation One of the operations.
+     * @return The number of unmeasured runs of the operation.
+     */
+    public int getWarmup(final Operation operation) {
+        return operation.warmup != null ? operation.warmup : warmup;
+    }
+
+    /**
+     * @param operation One of the operations.
+     * @return The number of measured runs of the operation.
+     */
+    public int getIterations(final Operation operation) {
+        return operation.iterations != null ? operation.iterations : iterations;
+    }
+
+    public String getReport() {
+        return report;
+    }
+
+    public List<Operation> getOperations() {
+        return operations;
+    }
+}
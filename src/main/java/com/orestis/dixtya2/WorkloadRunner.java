@@ -0,0 +1,275 @@
+package com.orestis.dixtya2;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Runs a {@link Workload}, each operation after its warmup runs, and reports statistics of its measured iterations.
+ * <p>
+ * Every iteration is timed, and the packets, bytes and timeouts it added to its {@link Metrics} operation are
+ * turned into rates. Operations run one at a time, so those differences belong to the iteration alone. For each
+ * measure the report gives the mean, the sample standard deviation and the nearest-rank percentiles over the
+ * iterations, and the JSON report also keeps every value, so sessions can be compared.</p>
+ */
+public class WorkloadRunner {
+    private final static Logger logger = Logger.getLogger(WorkloadRunner.class.getName());
+    static final double[] PERCENTILES = {50, 90, 99};
+
+    /**
+     * Runs a single iteration of an operation.
+     */
+    public interface Executor {
+        /**
+         * @param operation The operation.
+         * @param warmup    Whether the run is a warmup one, whose results are discarded.
+         * @throws Exception
+         */
+        void run(Workload.Operation operation, boolean warmup) throws Exception;
+    }
+
+    /**
+     * Values of a measure over the iterations of an operation.
+     */
+    public static class Statistic {
+        final String name;
+        final double[] values;
+        final double[] sorted;
+
+        Statistic(final String name, final double[] values) {
+            this.name = name;
+            this.values = values;
+            sorted = values.clone();
+            Arrays.sort(sorted);
+        }
+
+        public double getMean() {
+            double sum = 0;
+            for (final double value : values) {
+                sum += value;
+            }
+            return values.length > 0 ? sum / values.length : 0;
+        }
+
+        /**
+         * @return The sample standard deviation, 0 for fewer than two values.
+         */
+        public double getStandardDeviation() {
+            if (values.length < 2) {
+                return 0;
+            }
+            final double mean = getMean();
+            double sum = 0;
+            for (final double value : values) {
+                sum += (value - mean) * (value - mean);
+            }
+            return Math.sqrt(sum / (values.length - 1));
+        }
+
+        /**
+         * @param percentile The percentile, 0 to 100.
+         * @return The nearest-rank percentile, 0 without values.
+         */
+        public double getPercentile(final double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            final int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+            return sorted[Math.min(sorted.length - 1, Math.max(0, rank - 1))];
+        }
+
+        JsonObject toJson() {
+            final JsonObject json = new JsonObject();
+            json.addProperty("mean", getMean());
+            json.addProperty("std", getStandardDeviation());
+            json.addProperty("min", sorted.length > 0 ? sorted[0] : 0);
+            for (final double percentile : PERCENTILES) {
+                json.addProperty("p" + (int) percentile, getPercentile(percentile));
+            }
+            json.addProperty("max", sorted.length > 0 ? sorted[sorted.length - 1] : 0);
+            final JsonArray array = new JsonArray();
+            for (final double value : values) {
+                array.add(value);
+            }
+            json.add("values", array);
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder(String.format("%s mean %.3f std %.3f", name, getMean(),
+                    getStandardDeviation()));
+            for (final double percentile : PERCENTILES) {
+                builder.append(String.format(" p%d %.3f", (int) percentile, getPercentile(percentile)));
+            }
+            return builder.append(String.format(" max %.3f", sorted.length > 0 ? sorted[sorted.length - 1] : 0))
+                    .toString();
+        }
+    }
+
+    /**
+     * Measured iterations of an operation.
+     */
+    public static class Result {
+        final Workload.Operation operation;
+        final int warmup;
+        final int failures;
+        final List<Statistic> statistics = new ArrayList<>();
+
+        Result(final Workload.Operation operation, final int warmup, final int failures) {
+            this.operation = operation;
+            this.warmup = warmup;
+            this.failures = failures;
+        }
+
+        public List<Statistic> getStatistics() {
+            return statistics;
+        }
+
+        JsonObject toJson() {
+            final JsonObject json = new JsonObject();
+            json.addProperty("type", operation.getType());
+            json.addProperty("warmup", warmup);
+            json.addProperty("failures", failures);
+            for (final Statistic statistic : statistics) {
+                json.add(statistic.name, statistic.toJson());
+            }
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder(String.format("%s: %d iterations after %d warmup, "
+                            + "%d failed.", operation.getName(), statistics.isEmpty() ? 0
+                            : statistics.get(0).values.length, warmup, failures));
+            for (final Statistic statistic : statistics) {
+                builder.append(String.format("%n  ")).append(statistic);
+            }
+            return builder.toString();
+        }
+    }
+
+    final Workload workload;
+    final Executor executor;
+
+    /**
+     * @param workload The workload.
+     * @param executor Runs its operations.
+     */
+    public WorkloadRunner(final Workload workload, final Executor executor) {
+        this.workload = workload;
+        this.executor = executor;
+    }
+
+    /**
+     * Run every operation in order, log the report and write it to the workload's report file if it has one.
+     *
+     * @return The results, in the order of the operations.
+     * @throws IOException          On failing to write the report.
+     * @throws InterruptedException
+     */
+    public List<Result> run() throws IOException, InterruptedException {
+        final List<Result> results = new ArrayList<>();
+        for (final Workload.Operation operation : workload.getOperations()) {
+            results.add(run(operation));
+        }
+        final StringBuilder report = new StringBuilder("Workload report:");
+        for (final Result result : results) {
+            report.append(String.format("%n")).append(result);
+        }
+        logger.info(report.toString());
+        if (workload.getReport() != null) {
+            writeReport(results, new File(workload.getReport()));
+        }
+        return results;
+    }
+
+    Result run(final Workload.Operation operation) throws InterruptedException {
+        final String name = operation.getName();
+        final int warmup = workload.getWarmup(operation);
+        final int iterations = workload.getIterations(operation);
+        for (int i = 1; i <= warmup; i++) {
+            logger.info(String.format("Warming up %s, run %d/%d.", name, i, warmup));
+            try {
+                executor.run(operation, true);
+            } catch (final InterruptedException exception) {
+                throw exception;
+            } catch (final Exception exception) {
+                logger.warning("Warmup run of " + name + " failed: " + exception);
+            }
+        }
+        final OperationMetrics metrics = Metrics.get(operation.getMetrics());
+        final double[] elapsed = new double[iterations];
+        final double[] bytes = new double[iterations];
+        final double[] packets = new double[iterations];
+        final double[] timeouts = new double[iterations];
+        int measured = 0;
+        int failures = 0;
+        for (int i = 1; i <= iterations; i++) {
+            logger.info(String.format("Running %s, iteration %d/%d.", name, i, iterations));
+            final long packetsBefore = metrics.getPackets();
+            final long bytesBefore = metrics.getBytes();
+            final long timeoutsBefore = metrics.getTimeouts();
+            final long start = System.nanoTime();
+            try {
+                executor.run(operation, false);
+            } catch (final InterruptedException exception) {
+                throw exception;
+            } catch (final Exception exception) {
+                logger.warning("Iteration " + i + " of " + name + " failed: " + exception);
+                failures++;
+                continue;
+            }
+            final double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+            elapsed[measured] = seconds * 1000;
+            bytes[measured] = (metrics.getBytes() - bytesBefore) / seconds;
+            packets[measured] = (metrics.getPackets() - packetsBefore) / seconds;
+            timeouts[measured] = metrics.getTimeouts() - timeoutsBefore;
+            measured++;
+        }
+        final Result result = new Result(operation, warmup, failures);
+        result.statistics.add(new Statistic("elapsedMillis", Arrays.copyOf(elapsed, measured)));
+        result.statistics.add(new Statistic("bytesPerSecond", Arrays.copyOf(bytes, measured)));
+        result.statistics.add(new Statistic("packetsPerSecond", Arrays.copyOf(packets, measured)));
+        result.statistics.add(new Statistic("timeouts", Arrays.copyOf(timeouts, measured)));
+        return result;
+    }
+
+    /**
+     * Write results as JSON, keyed by operation name.
+     *
+     * @param results The results.
+     * @param file    The file, replaced if it exists.
+     * @throws IOException
+     */
+    static void writeReport(final List<Result> results, final File file) throws IOException {
+        final JsonObject json = new JsonObject();
+        json.addProperty("time", System.currentTimeMillis());
+        final JsonObject operations = new JsonObject();
+        for (final Result result : results) {
+            String name = result.operation.getName();
+            // Keep repeated operations apart.
+            for (int i = 1; operations.has(name); i++) {
+                name = result.operation.getName() + "-" + i;
+            }
+            operations.add(name, result.toJson());
+        }
+        json.add("operations", operations);
+        final Writer out = new FileWriter(file);
+        try {
+            new GsonBuilder().setPrettyPrinting().create().toJson(json, out);
+        } finally {
+            out.close();
+        }
+        logger.info("Wrote workload report to " + file + ".");
+    }
+}
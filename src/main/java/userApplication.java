@@ -3,8 +3,44 @@
  */
 
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.stream.JsonReader;
+import com.orestis.dixtya2.AqDpcmDecoder;
+import com.orestis.dixtya2.ArrivalDeadline;
+import com.orestis.dixtya2.AudioSink;
+import com.orestis.dixtya2.CameraStream;
+import com.orestis.dixtya2.CapacityProbe;
+import com.orestis.dixtya2.BulkSoundFetch;
+import com.orestis.dixtya2.Decoder;
+import com.orestis.dixtya2.DpcmDecoder;
+import com.orestis.dixtya2.EchoLoadGenerator;
+import com.orestis.dixtya2.EchoLog;
+import com.orestis.dixtya2.EchoLogConverter;
+import com.orestis.dixtya2.EchoSession;
+import com.orestis.dixtya2.FramePool;
+import com.orestis.dixtya2.ImageResult;
+import com.orestis.dixtya2.ImageSession;
+import com.orestis.dixtya2.ImageTuner;
+import com.orestis.dixtya2.JpegScanner;
+import com.orestis.dixtya2.LineAudioSink;
+import com.orestis.dixtya2.Metrics;
+import com.orestis.dixtya2.NullAudioSink;
+import com.orestis.dixtya2.OperationMetrics;
+import com.orestis.dixtya2.PortPool;
+import com.orestis.dixtya2.RateSchedule;
+import com.orestis.dixtya2.Reactor;
+import com.orestis.dixtya2.RtoEstimator;
+import com.orestis.dixtya2.SampledTrace;
+import com.orestis.dixtya2.ScenarioScheduler;
+import com.orestis.dixtya2.SessionArchive;
+import com.orestis.dixtya2.SoundRecording;
+import com.orestis.dixtya2.SoundResult;
+import com.orestis.dixtya2.SoundSession;
+import com.orestis.dixtya2.StreamingPlayer;
+import com.orestis.dixtya2.TrackCache;
+import com.orestis.dixtya2.Workload;
+import com.orestis.dixtya2.WorkloadRunner;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
@@ -13,35 +49,44 @@ import javax.sound.sampled.SourceDataLine;
 import java.io.*;
 import java.net.*;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static javax.xml.bind.DatatypeConverter.printHexBinary;
-
 /**
  * Main application for the assignment.
  */
 class userApplication {
-    private final static Level loggerLevel = Level.ALL;
+    /**
+     * Default logging level, overridden by {@code "logLevel"} in the codes file. Per-packet details are traced
+     * through {@link SampledTrace} and counted by {@link Metrics} rather than logged.
+     */
+    private final static Level loggerLevel = Level.INFO;
     private final static Logger logger = Logger.getLogger(userApplication.class.getName());
+    private final static Handler consoleHandler = new ConsoleHandler();
 
     static {
         // http://stackoverflow.com/questions/6315699/why-are-the-level-fine-logging-messages-not-showing
-        final Handler consoleHandler = new ConsoleHandler();
         consoleHandler.setLevel(loggerLevel);
         logger.setUseParentHandlers(false);
         logger.addHandler(consoleHandler);
         logger.setLevel(loggerLevel);
     }
 
-    public static void main(final String[] args) throws IOException, LineUnavailableException {
+    public static void main(final String[] args) throws IOException, LineUnavailableException,
+            InterruptedException {
         final MainInstance app = new MainInstance();
         app.run(args);
     }
@@ -50,7 +95,31 @@ class userApplication {
         /**
          * The length in bytes for a UDP audio package.
          */
-        static final int AUDIO_PACKAGE_LENGTH = 128;
+        static final int AUDIO_PACKAGE_LENGTH = Decoder.AUDIO_PACKAGE_LENGTH;
+        /**
+         * Receive buffer asked for per packet of a streamed track, what the kernel charges for a small datagram with
+         * a margin.
+         */
+        static final int STREAM_RECEIVE_BUFFER_PER_PACKAGE = 2048;
+        /**
+         * Image settings tuned during this session, shared by every {@link MainInstance}.
+         */
+        static final ImageTuner imageTuner = new ImageTuner(2);
+        /**
+         * Decoded tracks of this session, shared by every {@link MainInstance} and created with the configuration of
+         * the first one, {@code null} if disabled.
+         */
+        static TrackCache trackCache;
+        /**
+         * Archive of the files produced in this session, shared by every {@link MainInstance} and opened with the
+         * configuration of the first one, {@code null} to leave loose files in the working directory.
+         */
+        static SessionArchive archive;
+        /**
+         * Receive timeouts by request type, shared by every {@link MainInstance}: the echo code, the image command
+         * or the sound request code.
+         */
+        static final Map<String, RtoEstimator> rtoEstimators = new ConcurrentHashMap<>();
         /**
          * Code used to use the "echo" functionality without the artificial delay.
          */
@@ -60,7 +129,7 @@ class userApplication {
          */
         final String JSON_FILE_NAME = "codes.json";
         /**
-         * Ithaki's address.
+         * Ithaki's address, used unless {@link MainInstance#JSON_FILE_NAME} specifies a {@code "serverAddress"}.
          */
         final String SERVER_ADDRESS = "155.207.18.208";
         /**
@@ -74,119 +143,19 @@ class userApplication {
         /**
          * {@link Decoder} used for DPCM decoding of audio bytes.
          */
-        final Decoder dpcmDecoder = new Decoder() {
-            @Override
-            public void decode(final byte[] buffer, final byte[] decoded, int decodedIndex) {
-                byte X2 = decodedIndex > 0 ? decoded[decodedIndex - 1] : 0;
-                for (int i = 0; i < AUDIO_PACKAGE_LENGTH; i++) {
-                    final byte lsByte = (byte) (buffer[i] & 0x0f);
-                    final byte msByte = (byte) ((buffer[i] >> 4) & 0x0f);
-                    final byte X1 = (byte) (msByte - 8 + X2);
-                    X2 = (byte) (lsByte - 8 + X1);
-
-                    decoded[decodedIndex++] = X1;
-                    decoded[decodedIndex++] = X2;
-                }
-            }
-
-            @Override
-            public void saveHistory(final File filename) throws FileNotFoundException {}
-        };
+        final Decoder dpcmDecoder = new DpcmDecoder();
         /**
          * {@link Decoder} used for AQ-DPCM decoding of audio bytes.
          */
-        final Decoder aqdpcmDecoder = new Decoder() {
-            /**
-             * Old value of last delta2.
-             */
-            int oldDelta2;
-            /**
-             * Save history of values of mean m.
-             */
-            ArrayList<Integer> meanHistory = new ArrayList<>();
-            /**
-             * Save history of values of step b.
-             */
-            ArrayList<Integer> stepHistory = new ArrayList<>();
-
-            @Override
-            public void saveHistory(final File filename) throws FileNotFoundException {
-                final PrintWriter out = new PrintWriter(filename);
-                out.println("{");
-                out.println("  \"mean\":" + meanHistory.toString() + ",");
-                out.println("  \"step\":" + stepHistory.toString());
-                out.println("}");
-                out.close();
-            }
-
-            /**
-             * Get an integer from low and high bytes using little endian format.
-             * @param first The first byte.
-             * @param second The second byte.
-             * @return The integer.
-             */
-            int getInt(final byte first, final byte second) {
-                final ByteBuffer byteBuffer = ByteBuffer.wrap(new byte[]{first, second});
-                byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-                return byteBuffer.getShort();
-            }
-
-            /**
-             * Get low byte of 16-bit integer.
-             * @param x The integer.
-             * @return The low byte.
-             */
-            byte getLowByte(final int x) {
-                return (byte) (x & 0xff);
-            }
-
-            /**
-             * Get high byte of 16-bit integer.
-             * @param x The integer.
-             * @return The high byte.
-             */
-            byte getHighByte(final int x) {
-                return (byte) ((x >> 8) & 0xff);
-            }
-
-            @Override
-            public void decode(final byte[] buffer, final byte[] decoded, int decodedIndex) {
-                if (decodedIndex == 0) {
-                    // When we start decoding a new audio file, initialize last byte to 0.
-                    oldDelta2 = 0;
-                    meanHistory.clear();
-                    stepHistory.clear();
-                }
-
-                // Grab mean and step from header.
-                final int mean = getInt(buffer[0], buffer[1]);
-                logger.finest("mean: " + mean);
-                meanHistory.add(mean);
-                final int step = getInt(buffer[2], buffer[3]);
-                logger.finest("step: " + step);
-                stepHistory.add(step);
-                for (int i = 4; i < AUDIO_PACKAGE_LENGTH + 4; ++i) {
-                    final byte lsByte = (byte) (buffer[i] & 0x0f);
-                    final byte msByte = (byte) ((buffer[i] >> 4) & 0x0f);
-                    final int delta1 = (msByte - 8) * step;
-                    final int delta2 = (lsByte - 8) * step;
-
-                    final int X1 = delta1 + oldDelta2 + mean;
-                    final int X2 = delta2 + delta1 + mean;
-                    oldDelta2 = delta2;
-
-                    decoded[decodedIndex++] = getLowByte(X1);
-                    decoded[decodedIndex++] = getHighByte(X1);
-                    decoded[decodedIndex++] = getLowByte(X2);
-                    decoded[decodedIndex++] = getHighByte(X2);
-
-                }
-            }
-        };
+        final Decoder aqdpcmDecoder = new AqDpcmDecoder();
         /**
          * Address of the client that runs the userApplication.
          */
         String clientPublicAddress;
+        /**
+         * Address of the server, ithaki or a local stand-in.
+         */
+        String serverAddress;
         /**
          * The port used by the client to receive data.
          */
@@ -207,6 +176,149 @@ class userApplication {
          * Code for sound requests.
          */
         String soundRequestCode;
+        /**
+         * Maximum number of echo requests in flight in the throughput tests, 1 for stop-and-wait.
+         */
+        int echoWindow;
+        /**
+         * If {@code true}, sounds are played while they are being downloaded.
+         */
+        boolean streamPlayback;
+        /**
+         * Number of packets buffered before streamed playback starts.
+         */
+        int prebufferPackets;
+        /**
+         * Audio sink used for streamed playback, {@code "line"} for the sound card or {@code "null"} to discard.
+         */
+        String audioSink;
+        /**
+         * If {@code true}, {@link MainInstance#run(String[])} runs every session concurrently through a
+         * {@link Reactor}.
+         */
+        boolean multiplexed;
+        /**
+         * Number of consecutive port pairs the server answers at, bounding how many tasks run at once.
+         */
+        int portPairs;
+        /**
+         * If {@code true}, image packet size and FLOW prefetch are tuned per camera instead of fixed.
+         */
+        boolean tuneImages;
+        /**
+         * {@link RateSchedule} of the open-loop echo tests, eg {@code "50:30,50-400:120"}, {@code null} to skip them.
+         */
+        String openLoopSchedule;
+        /**
+         * File {@link Metrics} snapshots are written to, {@code null} for none.
+         */
+        File metricsFile;
+        /**
+         * Time between {@link Metrics} snapshots in ms.
+         */
+        long metricsInterval;
+        /**
+         * Trace one packet in every {@code traceEvery} in the receive loops, 0 for none.
+         */
+        int traceEvery;
+        /**
+         * Tracks to fetch in bulk instead of running the tests, eg {@code "1-10,23"}, {@code null} for none.
+         */
+        String bulkTracks;
+        /**
+         * Modes of the bulk fetch, {@code false} for DPCM and {@code true} for AQ-DPCM.
+         */
+        boolean[] bulkModes;
+        /**
+         * Packets per track of the bulk fetch.
+         */
+        int bulkPackets;
+        /**
+         * Maximum number of downloads at once in the bulk fetch, further bounded by
+         * {@link MainInstance#portPairs}.
+         */
+        int bulkConcurrency;
+        /**
+         * Capacity in bytes of {@link MainInstance#trackCache}, 0 to disable it.
+         */
+        long trackCacheBytes;
+        /**
+         * Directory {@link MainInstance#trackCache} is saved to across runs, {@code null} to keep it in memory.
+         */
+        File trackCacheDir;
+        /**
+         * Data file of {@link MainInstance#archive}, {@code null} to disable it.
+         */
+        File archiveFile;
+        /**
+         * Receive timeout in ms of a request type until its first reply.
+         */
+        long rtoInitial;
+        /**
+         * Lower bound in ms of the receive timeouts.
+         */
+        long rtoMin;
+        /**
+         * Upper bound in ms of the receive timeouts, also the timeout of waits without an estimate.
+         */
+        long rtoMax;
+        /**
+         * If {@code true}, the tests include a {@link CapacityProbe} of the path to the server.
+         */
+        boolean probe;
+        /**
+         * Sizes of the echo requests of {@link MainInstance#probe}.
+         */
+        int[] probeRequestSizes;
+        /**
+         * {@code UDP=} sizes of the image packets of {@link MainInstance#probe}.
+         */
+        int[] probeResponseSizes;
+        /**
+         * Length of the echo trains of {@link MainInstance#probe}, besides packet pairs.
+         */
+        int probeTrainLength;
+        /**
+         * Number of trains of each size and length of {@link MainInstance#probe}.
+         */
+        int probeTrains;
+        /**
+         * Cameras streamed concurrently instead of running the tests, eg {@code "FIX,PTZ"}, {@code null} for none.
+         */
+        String streamCameras;
+        /**
+         * Time each camera is streamed for in ms.
+         */
+        long streamDuration;
+        /**
+         * The length of each UDP packet of the streams.
+         */
+        int streamMaxLength;
+        /**
+         * If {@code true}, the streams use ithaki's "FLOW" feature.
+         */
+        boolean streamFlow;
+        /**
+         * Frames in the {@link FramePool} of each stream.
+         */
+        int streamFrames;
+        /**
+         * If {@code true}, each stream is saved as an MJPEG file.
+         */
+        boolean streamMjpeg;
+        /**
+         * {@link Workload} run instead of the tests, {@code null} for none.
+         */
+        Workload workload;
+        /**
+         * Whether the current run is a warmup one of {@link MainInstance#workload}.
+         */
+        boolean warmingUp;
+        /**
+         * Whether sound downloads skip {@link MainInstance#trackCache}, so that every one of them reaches the server,
+         * eg while {@link MainInstance#workload} measures them.
+         */
+        boolean bypassTrackCache;
 
         /**
          * Initialize the connection with the server at ithaki.
@@ -216,53 +328,359 @@ class userApplication {
          * @throws UnknownHostException
          */
         MainInstance() throws SocketException, FileNotFoundException, UnknownHostException {
+            this(0);
+        }
+
+        /**
+         * Initialize the connection with the server at ithaki, using the port pair
+         * {@code clientListeningPort + portOffset}, {@code serverListeningPort + portOffset}.
+         *
+         * @param portOffset Offset of the port pair from the one in {@link MainInstance#JSON_FILE_NAME}.
+         * @throws SocketException
+         * @throws FileNotFoundException
+         * @throws UnknownHostException
+         */
+        MainInstance(final int portOffset) throws SocketException, FileNotFoundException, UnknownHostException {
             initVariables();
+            clientListeningPort += portOffset;
+            serverListeningPort += portOffset;
             printInitMessage();
+            synchronized (MainInstance.class) {
+                if (trackCache == null && trackCacheBytes > 0) {
+                    try {
+                        trackCache = new TrackCache(trackCacheBytes, trackCacheDir);
+                    } catch (final IOException exception) {
+                        logger.warning("Track cache disabled, failed to load it: " + exception);
+                        trackCacheBytes = 0;
+                    }
+                }
+                if (archive == null && archiveFile != null) {
+                    try {
+                        archive = new SessionArchive(archiveFile);
+                    } catch (final IOException exception) {
+                        logger.warning("Session archive disabled, failed to open it: " + exception);
+                        archiveFile = null;
+                    }
+                }
+            }
 
-            final InetAddress address = InetAddress.getByName(SERVER_ADDRESS);
+            final InetAddress address = InetAddress.getByName(serverAddress);
             client = new DatagramSocket(clientListeningPort);
-            client.setSoTimeout(10000);
+            client.setSoTimeout((int) rtoMax);
             server = new DatagramSocket();
-            server.setSoTimeout(10000);
+            server.setSoTimeout((int) rtoMax);
             server.connect(address, serverListeningPort);
         }
 
+        /**
+         * @param type The request type, eg the echo code.
+         * @return The receive timeout estimator of the type, created on first use.
+         */
+        RtoEstimator rtoEstimator(final String type) {
+            return rtoEstimators.computeIfAbsent(type, key -> new RtoEstimator(rtoInitial, rtoMin, rtoMax));
+        }
+
+        /**
+         * Close both sockets.
+         */
+        void close() {
+            client.close();
+            server.close();
+        }
+
+        /**
+         * An operation run on a {@link MainInstance} of its own.
+         */
+        interface Operation {
+            void run(MainInstance instance) throws Exception;
+        }
+
+        /**
+         * Wrap an operation into a {@link ScenarioScheduler.Body} that runs it on a new {@link MainInstance} bound
+         * to the task's port pair, so that sockets and decoder state are never shared between tasks.
+         *
+         * @param operation The operation.
+         * @return The task body.
+         */
+        ScenarioScheduler.Body onInstance(final Operation operation) {
+            return portOffset -> {
+                final MainInstance instance = new MainInstance(portOffset);
+                try {
+                    operation.run(instance);
+                } finally {
+                    instance.close();
+                }
+            };
+        }
+
         void printInitMessage() {
             logger.info("Using configuration:\n" +
                     "Client address: " + clientPublicAddress + " at port: " + clientListeningPort + "\n" +
-                    "Server address: " + SERVER_ADDRESS + " at port: " + serverListeningPort + "\n" +
+                    "Server address: " + serverAddress + " at port: " + serverListeningPort + "\n" +
                     "Codes:" + "\n" +
                     "echo: " + echoRequestCode + " image: " + imageRequestCode + " sound: " + soundRequestCode);
         }
 
-        void run(final String[] args) throws IOException, LineUnavailableException {
+        void run(final String[] args) throws IOException, LineUnavailableException, InterruptedException {
             logger.info("Starting execution.");
+            final ScheduledExecutorService snapshots = metricsFile != null
+                    ? Metrics.startSnapshots(metricsFile, metricsInterval) : null;
+            try {
+                runScenario();
+            } finally {
+                if (snapshots != null) {
+                    snapshots.shutdownNow();
+                    Metrics.writeSnapshot(metricsFile);
+                }
+                if (trackCache != null) {
+                    trackCache.close();
+                }
+                if (archive != null) {
+                    archive.close();
+                }
+            }
+            logger.info("Finished execution.");
+        }
 
-            testThroughput(1000 * 60 * 4, false);
-            testThroughput(1000 * 60 * 4, true);
+        /**
+         * Run every echo, image and sound test, then offer to play the downloaded sounds.
+         *
+         * @throws IOException
+         * @throws LineUnavailableException
+         * @throws InterruptedException
+         */
+        void runScenario() throws IOException, LineUnavailableException, InterruptedException {
+            if (multiplexed) {
+                runMultiplexed();
+                return;
+            }
+            if (bulkTracks != null) {
+                runBulkFetch();
+                return;
+            }
+            if (workload != null) {
+                runWorkload();
+                return;
+            }
+            if (streamCameras != null) {
+                runStreams();
+                return;
+            }
 
-            downloadImage(512, true, "FIX");
-            downloadImage(1024, false, "PTZ");
+            // Every task opens its own sockets, starting from the first port pair.
+            close();
+            final ScenarioScheduler scheduler = new ScenarioScheduler(new PortPool(0, portPairs));
+            // The echo tests measure the server, so they run alone.
+            scheduler.add("echo",
+                    onInstance(instance -> instance.testThroughput(1000 * 60 * 4, false, echoWindow))).exclusive();
+            scheduler.add("echo-delay",
+                    onInstance(instance -> instance.testThroughput(1000 * 60 * 4, true, echoWindow))).exclusive();
+            if (openLoopSchedule != null) {
+                scheduler.add("echo-open", onInstance(instance -> instance.testOpenLoop(false))).exclusive();
+                scheduler.add("echo-delay-open", onInstance(instance -> instance.testOpenLoop(true))).exclusive();
+            }
+            if (probe) {
+                scheduler.add("echo-probe", onInstance(MainInstance::probeCapacity)).exclusive();
+            }
 
-            byte[] audio;
-            audio = downloadSound(999, 10, false);
-            if (askPlayMusic()) {
-                playMusic(audio, 8);
+            if (tuneImages) {
+                scheduler.add("image-FIX", onInstance(instance -> instance.downloadImageTuned(true, "FIX", 1)));
+                scheduler.add("image-PTZ", onInstance(instance -> instance.downloadImageTuned(false, "PTZ", 1)));
+            } else {
+                scheduler.add("image-FIX", onInstance(instance -> instance.downloadImage(512, true, "FIX")));
+                scheduler.add("image-PTZ", onInstance(instance -> instance.downloadImage(1024, false, "PTZ")));
             }
-            audio = downloadSound(999, 23, true);
-            if (askPlayMusic()) {
-                playMusic(audio, 16);
+
+            final byte[][] audio = new byte[4][];
+            final int[] quantizerBits = {8, 16, 16, 16};
+            if (streamPlayback) {
+                // Tracks are played while downloading, so only one at a time.
+                scheduler.add("sound-L10", onInstance(instance -> instance.streamSound(999, 10, false)));
+                scheduler.add("sound-L23", onInstance(instance -> instance.streamSound(999, 23, true)))
+                        .after("sound-L10");
+                scheduler.add("sound-L05", onInstance(instance -> instance.streamSound(999, 5, true)))
+                        .after("sound-L23");
+                scheduler.add("sound-T", onInstance(instance -> instance.streamRandomSound(999, true)))
+                        .after("sound-L05");
+            } else {
+                scheduler.add("sound-L10", onInstance(instance -> audio[0] = instance.downloadSound(999, 10, false)
+                        .getDecoded()));
+                scheduler.add("sound-L23", onInstance(instance -> audio[1] = instance.downloadSound(999, 23, true)
+                        .getDecoded()));
+                scheduler.add("sound-L05", onInstance(instance -> audio[2] = instance.downloadSound(999, 5, true)
+                        .getDecoded()));
+                scheduler.add("sound-T", onInstance(instance -> audio[3] = instance.downloadRandomSound(999, true)
+                        .getDecoded()));
             }
-            audio = downloadSound(999, 5, true);
-            if (askPlayMusic()) {
-                playMusic(audio, 16);
+            scheduler.run();
+
+            for (int i = 0; i < audio.length; i++) {
+                if (audio[i] != null && askPlayMusic()) {
+                    playMusic(audio[i], quantizerBits[i]);
+                }
             }
-            audio = downloadRandomSound(999, true);
-            if (askPlayMusic()) {
-                playMusic(audio, 16);
+        }
+
+        /**
+         * Download {@link MainInstance#bulkTracks} in every one of {@link MainInstance#bulkModes} through a
+         * {@link BulkSoundFetch}. Every download runs on a {@link MainInstance} of its own, so it has its own port
+         * pair and decoders.
+         *
+         * @throws InterruptedException
+         */
+        void runBulkFetch() throws InterruptedException {
+            // Every download opens its own sockets, starting from the first port pair.
+            close();
+            final BulkSoundFetch fetch = new BulkSoundFetch(new PortPool(0, portPairs), bulkConcurrency);
+            fetch.fetch((portOffset, trackId, useAQ, totalPackages) -> {
+                final MainInstance instance = new MainInstance(portOffset);
+                try {
+                    return instance.downloadSound(totalPackages, trackId, useAQ);
+                } finally {
+                    instance.close();
+                }
+            }, BulkSoundFetch.parseTracks(bulkTracks), bulkModes, bulkPackets);
+        }
+
+        /**
+         * Run {@link MainInstance#workload} through a {@link WorkloadRunner}. Every run uses this instance's
+         * sockets, so only the first warmup run pays for their setup, and sound downloads bypass the track cache,
+         * which would otherwise serve every run after the first without any packet.
+         *
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        void runWorkload() throws IOException, InterruptedException {
+            bypassTrackCache = true;
+            new WorkloadRunner(workload, (operation, warmup) -> {
+                warmingUp = warmup;
+                try {
+                    switch (operation.getType()) {
+                        case Workload.ECHO:
+                            testThroughput(operation.getDuration(), operation.isDelay(), operation.getWindow());
+                            break;
+                        case Workload.ECHO_OPEN:
+                            testOpenLoop(operation.isDelay(), operation.getSchedule());
+                            break;
+                        case Workload.IMAGE:
+                            downloadImage(operation.getMaxLength(), operation.isFlow(), operation.getCamera());
+                            break;
+                        case Workload.SOUND:
+                            downloadSound(operation.getPackets(), operation.getTrack(), operation.isAq());
+                            break;
+                        default:
+                            downloadRandomSound(operation.getPackets(), operation.isAq());
+                    }
+                } finally {
+                    warmingUp = false;
+                }
+            }).run();
+        }
+
+        /**
+         * Stream every camera of {@link MainInstance#streamCameras} at once, each on a {@link MainInstance} of its
+         * own, as far as {@link MainInstance#portPairs} allow.
+         *
+         * @throws InterruptedException
+         */
+        void runStreams() throws InterruptedException {
+            // Every stream opens its own sockets, starting from the first port pair.
+            close();
+            final ScenarioScheduler scheduler = new ScenarioScheduler(new PortPool(0, portPairs));
+            for (final String camera : streamCameras.split(",")) {
+                scheduler.add("stream-" + camera.trim(), onInstance(instance -> instance.streamCamera(camera.trim())));
             }
+            scheduler.run();
+        }
 
-            logger.info("Finished execution.");
+        /**
+         * Stream a camera for {@link MainInstance#streamDuration} through a {@link CameraStream}, saving the frames
+         * as an MJPEG file if {@link MainInstance#streamMjpeg}.
+         *
+         * @param camera The camera.
+         * @return The outcome.
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        CameraStream.Result streamCamera(final String camera) throws IOException, InterruptedException {
+            final String imageCommand = imageRequestCode + (streamFlow ? "FLOW=ON" : "") + "UDP=" + streamMaxLength
+                    + "CAM=" + camera;
+            final File file = streamMjpeg ? outputFile(imageCommand, "mjpeg") : null;
+            final CameraStream.Result result = new CameraStream(server, client, imageCommand, streamMaxLength,
+                    streamFlow, rtoEstimator(imageCommand), streamFrames, file).run(streamDuration);
+            if (file != null) {
+                archiveFile(SessionArchive.Type.STREAM, imageCommand, file);
+            }
+            return result;
+        }
+
+        /**
+         * Run the echo, image and sound sessions of {@link MainInstance#run(String[])} concurrently on a single
+         * thread, through a {@link Reactor}.
+         * <p>
+         * Session {@code i} uses the port pair {@code clientListeningPort + i}, {@code serverListeningPort + i}, so
+         * the server must serve as many consecutive port pairs as there are sessions. The blocking sockets are
+         * closed to free the first pair.</p>
+         *
+         * @throws IOException
+         */
+        void runMultiplexed() throws IOException {
+            close();
+            final Reactor reactor = new Reactor();
+            final InetAddress address = InetAddress.getByName(serverAddress);
+            final long timeout = rtoMax;
+            final long duration = 1000 * 60 * 4;
+            int pair = 0;
+            // Output files of the sessions and their commands, archived once the reactor is done.
+            final List<EchoSession> echoSessions = new ArrayList<>();
+            final Map<File, String> echoFiles = new LinkedHashMap<>();
+            final Map<File, String> imageFiles = new LinkedHashMap<>();
+            final Map<File, String> recordingFiles = new LinkedHashMap<>();
+            for (final String code : new String[]{ECHO_WITHOUT_DELAY_CODE, echoRequestCode}) {
+                final File file = outputFile(code, "txt");
+                final EchoSession session = new EchoSession(code, clientListeningPort + pair,
+                        new InetSocketAddress(address, serverListeningPort + pair), duration, rtoEstimator(code), file);
+                reactor.register(session);
+                echoSessions.add(session);
+                echoFiles.put(file, code);
+                pair++;
+            }
+            final String[] cameras = {"FIX", "PTZ"};
+            final int[] maxLengths = {512, 1024};
+            for (int i = 0; i < cameras.length; i++) {
+                final boolean useFlow = i == 0;
+                final String command = imageRequestCode + (useFlow ? "FLOW=ON" : "") + "UDP=" + maxLengths[i]
+                        + "CAM=" + cameras[i];
+                final File file = archive != null ? archive.createScratchFile(command, "jpg")
+                        : new File(command + ".jpg");
+                imageFiles.put(file, command);
+                reactor.register(new ImageSession(command, clientListeningPort + pair,
+                        new InetSocketAddress(address, serverListeningPort + pair), maxLengths[i], useFlow,
+                        rtoEstimator(command), file));
+                pair++;
+            }
+            final String[] trackCodes = {getTrackCode(10) + "F", getTrackCode(23) + "AQF", getTrackCode(5) + "AQF",
+                    "AQT"};
+            for (final String trackCode : trackCodes) {
+                final boolean useAQ = trackCode.contains("AQ");
+                final String command = soundRequestCode + trackCode + "999";
+                final File file = outputFile(command, "rec");
+                recordingFiles.put(file, command);
+                reactor.register(new SoundSession(command, clientListeningPort + pair,
+                        new InetSocketAddress(address, serverListeningPort + pair), 999, useAQ,
+                        useAQ ? new AqDpcmDecoder() : new DpcmDecoder(), rtoEstimator(soundRequestCode), timeout,
+                        file));
+                pair++;
+            }
+            reactor.run();
+            archiveFiles(SessionArchive.Type.ECHO, echoFiles);
+            archiveFiles(SessionArchive.Type.IMAGE, imageFiles);
+            archiveFiles(SessionArchive.Type.SOUND, recordingFiles);
+            if (archive != null) {
+                for (final EchoSession session : echoSessions) {
+                    deleteFile(session.getLogFile());
+                }
+            }
         }
 
         /**
@@ -295,21 +713,55 @@ class userApplication {
          * @throws IOException
          */
         void simpleSend(final String message) throws IOException {
-            logger.fine("Sending command:" + message);
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("Sending command:" + message);
+            }
             final byte[] buffer = message.getBytes();
             final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
             server.send(packet);
         }
 
         /**
-         * Test the throughput of the server.
+         * Test the throughput of the server using stop-and-wait, one request in flight at a time.
          *
          * @param duration          Duration to be tested. If it's bellow 4 minutes, a warning is printed.
          * @param enableServerDelay Whether to enable or not the articial server delay (code EXXXX).
          * @throws IOException
+         * @see MainInstance#testThroughput(long, boolean, int)
          */
         void testThroughput(final long duration, final boolean enableServerDelay) throws IOException {
-            if (duration < 4 * 60 * 1000) {
+            testThroughput(duration, enableServerDelay, 1);
+        }
+
+        /**
+         * Test the throughput of the server, keeping up to {@code window} echo requests in flight.
+         * <p>
+         * Echo replies carry no request identifier, so replies are matched to the oldest outstanding request. A
+         * timeout marks the oldest outstanding request as lost. Its reply may still arrive and would then be matched
+         * to the next request, and every reply after it would lag a request behind, so the socket is drained of late
+         * replies, and since they can't be told apart, the other requests in flight are counted as lost too. With
+         * {@code window == 1} this is the original stop-and-wait behaviour.</p>
+         * <p>
+         * Packets are appended to the binary {@link EchoLog} {@code <code>.echo} as they complete, which is
+         * converted to the text history {@code <code>.txt} at the end.</p>
+         * <p>
+         * Each request is waited for, from its send time, with the timeout of the code's {@link RtoEstimator}, which
+         * is logged with the packet.</p>
+         *
+         * @param duration          Duration to be tested. If it's bellow 4 minutes, a warning is printed, unless
+         *                          warming up.
+         * @param enableServerDelay Whether to enable or not the articial server delay (code EXXXX).
+         * @param window            Maximum number of requests in flight.
+         * @throws IOException
+         */
+        void testThroughput(final long duration, final boolean enableServerDelay, final int window)
+                throws IOException {
+            if (window < 1) {
+                final String message = "Invalid echo window: " + window;
+                logger.severe(message);
+                throw new IllegalArgumentException(message);
+            }
+            if (duration < 4 * 60 * 1000 && !warmingUp) {
                 logger.warning("Throughput duration smaller than minimum expected for assignment.");
             }
             final String code = enableServerDelay ? echoRequestCode : ECHO_WITHOUT_DELAY_CODE;
@@ -317,31 +769,154 @@ class userApplication {
             final byte[] receiveBuffer = new byte[128];
             final DatagramPacket packetSend = new DatagramPacket(commandBuffer, commandBuffer.length);
             final DatagramPacket packetReceive = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+            // Ring of send timestamps of the requests currently in flight, oldest at sendHead.
+            final long[] sendTimes = new long[window];
+            int sendHead = 0;
+            int inFlight = 0;
+            long totalResponseTime = 0;
+            long receivedBytes = 0;
+            int received = 0;
+            final File logFile = archive != null ? archive.createScratchFile(code, "echo") : new File(code + ".echo");
+            final EchoLog history = new EchoLog(logFile);
+            final RtoEstimator rto = rtoEstimator(code);
+            final int socketTimeout = client.getSoTimeout();
+            // A reply later than the drain after a timeout would still be taken for the next request's, so the first
+            // reply after a timeout isn't sampled.
+            boolean ambiguous = false;
+            final OperationMetrics metrics = Metrics.get(Metrics.ECHO);
+            final SampledTrace trace = new SampledTrace(traceEvery);
             final long timeStart = System.currentTimeMillis();
-            final StringBuilder history = new StringBuilder("" + timeStart + "\n");
             long timeEnd = timeStart;
             int counter = 0;
-            logger.info(String.format("Starting downloading echo packages with code %s for next %d ms.", code,
-                    duration));
-            while (timeEnd - timeStart < duration) {
-                server.send(packetSend);
-                boolean timeout = false;
-                try {
-                    client.receive(packetReceive);
-                } catch (final SocketTimeoutException exception) {
-                    logger.severe(exception.toString());
-                    timeout = true;
+            logger.info(String.format("Starting downloading echo packages with code %s for next %d ms with window %d.",
+                    code, duration, window));
+            try {
+                while (timeEnd - timeStart < duration || inFlight > 0) {
+                    while (inFlight < window && timeEnd - timeStart < duration) {
+                        server.send(packetSend);
+                        sendTimes[(sendHead + inFlight) % window] = System.nanoTime();
+                        inFlight++;
+                    }
+                    final int deadlineMillis = rto.getTimeoutMillis();
+                    // The deadline runs from the send time of the oldest request in flight.
+                    final long waitedMillis = (System.nanoTime() - sendTimes[sendHead]) / 1000000;
+                    client.setSoTimeout((int) Math.max(1, deadlineMillis - waitedMillis));
+                    boolean timeout = false;
+                    try {
+                        client.receive(packetReceive);
+                    } catch (final SocketTimeoutException exception) {
+                        timeout = true;
+                    }
+                    final long receiveTime = System.nanoTime();
+                    final long sendTime = sendTimes[sendHead];
+                    sendHead = (sendHead + 1) % window;
+                    inFlight--;
+                    timeEnd = System.currentTimeMillis();
+                    counter++;
+                    if (timeout) {
+                        metrics.onTimeout();
+                        rto.onTimeout();
+                        ambiguous = true;
+                    } else {
+                        if (ambiguous) {
+                            ambiguous = false;
+                        } else {
+                            rto.onSample(receiveTime - sendTime);
+                        }
+                        received++;
+                        receivedBytes += packetReceive.getLength() + packetSend.getLength();
+                        totalResponseTime += receiveTime - sendTime;
+                        metrics.onPacket(packetReceive.getLength() + packetSend.getLength(), receiveTime - sendTime);
+                    }
+                    if (trace.sample()) {
+                        logger.info(String.format("Echo packet %d: %s, response %.3f ms.", counter,
+                                timeout ? "timeout" : "reply", (receiveTime - sendTime) / 1e6));
+                    }
+                    history.append(sendTime, receiveTime, packetReceive.getLength() + packetSend.getLength(), timeout,
+                            deadlineMillis);
+                    if (timeout) {
+                        // Waiting as long again as the request was given covers all but the latest replies.
+                        discardPackets(deadlineMillis);
+                        final long drainTime = System.nanoTime();
+                        while (inFlight > 0) {
+                            metrics.onTimeout();
+                            history.append(sendTimes[sendHead], drainTime,
+                                    packetReceive.getLength() + packetSend.getLength(), true, deadlineMillis);
+                            sendHead = (sendHead + 1) % window;
+                            inFlight--;
+                            counter++;
+                        }
+                        timeEnd = System.currentTimeMillis();
+                    }
                 }
-                timeEnd = System.currentTimeMillis();
-                counter++;
-                history.append(timeEnd).append(":")
-                        .append(packetReceive.getLength() + packetSend.getLength()).append(":")
-                        .append(timeout).append("\n");
+            } finally {
+                client.setSoTimeout(socketTimeout);
             }
+            final long elapsed = Math.max(1, timeEnd - timeStart);
             logger.info(String.format("Received %d packets in %d ms.", counter, duration));
-            final PrintWriter out = new PrintWriter(code + ".txt");
-            out.print(history.toString());
-            out.close();
+            logger.info(String.format("Window %d: %d/%d replies, %.1f packets/s, %.1f bytes/s, mean response %.3f ms.",
+                    window, received, counter, 1000.0 * received / elapsed, 1000.0 * receivedBytes / elapsed,
+                    received > 0 ? totalResponseTime / 1e6 / received : 0.0));
+            logger.info(code + " timeout: " + rto + ".");
+            history.close();
+            final File historyFile = archive != null ? archive.createScratchFile(code, "txt") : new File(code + ".txt");
+            EchoLogConverter.convert(logFile, historyFile);
+            if (archive != null) {
+                archiveFile(SessionArchive.Type.ECHO, code, historyFile);
+                deleteFile(logFile);
+            }
+        }
+
+        /**
+         * Load the server with echo requests sent at the rates of {@link MainInstance#openLoopSchedule}, regardless
+         * of the replies, and log the latency distribution measured from the intended send times.
+         *
+         * @param enableServerDelay Whether to enable or not the articial server delay (code EXXXX).
+         * @return The outcome.
+         * @throws IOException
+         * @throws InterruptedException
+         * @see EchoLoadGenerator
+         */
+        EchoLoadGenerator.Result testOpenLoop(final boolean enableServerDelay) throws IOException,
+                InterruptedException {
+            return testOpenLoop(enableServerDelay, openLoopSchedule);
+        }
+
+        /**
+         * Load the server with echo requests sent at the rates of a {@link RateSchedule}.
+         *
+         * @param enableServerDelay Whether to enable or not the articial server delay (code EXXXX).
+         * @param schedule          The schedule, eg {@code "50:30,50-400:120"}.
+         * @return The outcome.
+         * @throws IOException
+         * @throws InterruptedException
+         * @see MainInstance#testOpenLoop(boolean)
+         */
+        EchoLoadGenerator.Result testOpenLoop(final boolean enableServerDelay, final String schedule)
+                throws IOException, InterruptedException {
+            final String code = enableServerDelay ? echoRequestCode : ECHO_WITHOUT_DELAY_CODE;
+            final EchoLoadGenerator.Result result = new EchoLoadGenerator(server, client, code,
+                    new RateSchedule(schedule), rtoMax).run();
+            logger.info(result.report());
+            return result;
+        }
+
+        /**
+         * Probe the capacity and per-byte latency of the path to the server with a {@link CapacityProbe}, and save
+         * the estimates next to the echo history, as {@code E0000PROBE.txt}.
+         *
+         * @return The outcome.
+         * @throws IOException
+         */
+        CapacityProbe.Result probeCapacity() throws IOException {
+            final CapacityProbe.Result result = new CapacityProbe(server, client, ECHO_WITHOUT_DELAY_CODE,
+                    imageRequestCode, "FIX", (int) rtoMax).run(probeRequestSizes, probeResponseSizes,
+                    probeTrainLength, probeTrains);
+            final String command = ECHO_WITHOUT_DELAY_CODE + "PROBE";
+            final File file = outputFile(command, "txt");
+            result.write(file);
+            archiveFile(SessionArchive.Type.PROBE, command, file);
+            return result;
         }
 
         /**
@@ -361,6 +936,78 @@ class userApplication {
             lineOut.close();
         }
 
+        /**
+         * Create a {@link StreamingPlayer} for the decoded packets of a sound download, using the configured
+         * {@link MainInstance#audioSink} and {@link MainInstance#prebufferPackets}.
+         *
+         * @param useAQ {@code true} if adaptive quantiser is used, meaning 16-bit samples.
+         * @return The player, not yet started.
+         */
+        StreamingPlayer createPlayer(final boolean useAQ) {
+            final AudioFormat linearPCM = new AudioFormat(8000, useAQ ? 16 : 8, 1, true, false);
+            final AudioSink sink = audioSink.equals("null") ? new NullAudioSink(true) : new LineAudioSink();
+            final int packetBytes = (useAQ ? 4 : 2) * AUDIO_PACKAGE_LENGTH;
+            return new StreamingPlayer(sink, linearPCM, packetBytes, prebufferPackets, 4 * prebufferPackets + 64);
+        }
+
+        /**
+         * Download a sound and play it while it is being downloaded.
+         *
+         * @param totalPackages
+         * @param trackId
+         * @param useAQ
+         * @return The decoded audio file with its loss counts.
+         * @throws IOException
+         * @throws LineUnavailableException
+         * @see MainInstance#downloadSound(int, String, boolean, boolean, StreamingPlayer)
+         */
+        SoundResult streamSound(final int totalPackages, final int trackId, final boolean useAQ) throws IOException,
+                LineUnavailableException {
+            return streamSound(totalPackages, getTrackCode(trackId), useAQ, false);
+        }
+
+        /**
+         * Download a random sound by using the {@code "T"} code and play it while it is being downloaded.
+         *
+         * @param totalPackages
+         * @param useAQ
+         * @return The decoded audio file with its loss counts.
+         * @throws IOException
+         * @throws LineUnavailableException
+         */
+        SoundResult streamRandomSound(final int totalPackages, final boolean useAQ) throws IOException,
+                LineUnavailableException {
+            return streamSound(totalPackages, "", useAQ, true);
+        }
+
+        private SoundResult streamSound(
+                final int totalPackages,
+                final String trackCode,
+                final boolean useAQ,
+                final boolean randomTrack
+        ) throws IOException, LineUnavailableException {
+            final StreamingPlayer player = createPlayer(useAQ);
+            // The download waits for the player once its jitter buffer is full, while the rest of the track queues
+            // up in the socket.
+            final int receiveBufferSize = client.getReceiveBufferSize();
+            client.setReceiveBufferSize(Math.max(receiveBufferSize, totalPackages * STREAM_RECEIVE_BUFFER_PER_PACKAGE));
+            if (client.getReceiveBufferSize() < totalPackages * STREAM_RECEIVE_BUFFER_PER_PACKAGE / 2) {
+                logger.warning(String.format("Socket receive buffer of %d bytes may not hold a %d packet track "
+                        + "while playback catches up.", client.getReceiveBufferSize(), totalPackages));
+            }
+            player.start();
+            try {
+                return downloadSound(totalPackages, trackCode, useAQ, randomTrack, player);
+            } finally {
+                client.setReceiveBufferSize(receiveBufferSize);
+                try {
+                    player.finish();
+                } catch (final InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
         /**
          * Download a random sound by using the {@code "T"} code.
          *
@@ -369,16 +1016,16 @@ class userApplication {
          * @return
          * @throws IOException
          * @throws LineUnavailableException
-         * @see MainInstance#downloadSound(int, String, boolean, boolean)
+         * @see MainInstance#downloadSound(int, String, boolean, boolean, StreamingPlayer)
          */
-        byte[] downloadRandomSound(final int totalPackages, final boolean useAQ) throws IOException,
+        SoundResult downloadRandomSound(final int totalPackages, final boolean useAQ) throws IOException,
                 LineUnavailableException {
-            return downloadSound(totalPackages, "", useAQ, true);
+            return downloadSound(totalPackages, "", useAQ, true, null);
         }
 
         /**
          * {@code trackId} is converted to a properly formatted {@link String} for use in
-         * {@link MainInstance#downloadSound(int, String, boolean, boolean)}.
+         * {@link MainInstance#downloadSound(int, String, boolean, boolean, StreamingPlayer)}.
          *
          * @param totalPackages
          * @param trackId
@@ -386,33 +1033,49 @@ class userApplication {
          * @return
          * @throws IOException
          * @throws LineUnavailableException
-         * @see MainInstance#downloadSound(int, String, boolean, boolean)
+         * @see MainInstance#downloadSound(int, String, boolean, boolean, StreamingPlayer)
          */
-        byte[] downloadSound(final int totalPackages, final int trackId, final boolean useAQ) throws IOException,
+        SoundResult downloadSound(final int totalPackages, final int trackId, final boolean useAQ) throws IOException,
                 LineUnavailableException {
+            return downloadSound(totalPackages, getTrackCode(trackId), useAQ, false, null);
+        }
+
+        /**
+         * Convert a track number to its code.
+         *
+         * @param trackId The track number, from 1 to 99.
+         * @return The code, eg {@code "L01"}.
+         */
+        String getTrackCode(final int trackId) {
             if (0 >= trackId || trackId > 99) {
                 final String message = "Invalid track number: " + trackId;
                 logger.severe(message);
                 throw new IllegalArgumentException(message);
             }
-            return downloadSound(totalPackages, "L" + String.format("%02d", trackId), useAQ, false);
+            return "L" + String.format("%02d", trackId);
         }
 
         /**
          * Download & encode audio file.
+         * <p>
+         * A packet that doesn't arrive before an {@link ArrivalDeadline} derived from the inter-arrival times is
+         * counted as lost and concealed by the decoder, so the packets after it keep their place. Once nothing has
+         * arrived for the socket timeout the server is considered gone and the rest of the track is concealed.</p>
          *
          * @param totalPackages Length of the audio file in {@link MainInstance#AUDIO_PACKAGE_LENGTH}-byte packages.
          * @param trackCode     The code string used for the track code eg {@code "L01"}.
          * @param useAQ         {@code true} if adaptive quantiser is to be used.
          * @param randomTrack   If {@code true} {@code "T"} code will be used.
-         * @return The decoded audio file.
+         * @param player        If not {@code null}, each decoded packet is also queued to this player.
+         * @return The decoded audio file with its loss counts.
          * @throws IOException
          */
-        private byte[] downloadSound(
+        private SoundResult downloadSound(
                 final int totalPackages,
                 final String trackCode,
                 final boolean useAQ,
-                final boolean randomTrack
+                final boolean randomTrack,
+                final StreamingPlayer player
         ) throws IOException {
             if (0 > totalPackages || totalPackages > 999) {
                 final String message = "Invalid number of packages asked: " + totalPackages;
@@ -427,36 +1090,250 @@ class userApplication {
 
             final String command = soundRequestCode + trackCode + (useAQ ? "AQ" : "") + (randomTrack ? "T" : "F")
                     + String.format("%03d", totalPackages);
-            simpleSend(command);
-
-            final Decoder decoder = useAQ ? aqdpcmDecoder : dpcmDecoder;
-
+            final long start = System.nanoTime();
             // Received packets for DPCM are 128 bytes long and 132 bytes long for AQ-DPCM.
             final int audioStepPerBufferByte = (useAQ ? 4 : 2);
+            final Decoder decoder = useAQ ? aqdpcmDecoder : dpcmDecoder;
             final byte[] buffer = new byte[AUDIO_PACKAGE_LENGTH + (useAQ ? 4 : 0)];
+            // Random tracks differ on every request.
+            final TrackCache cache = randomTrack || bypassTrackCache ? null : trackCache;
+            final TrackCache.Track cached = cache != null ? cache.get(command) : null;
+            if (cached != null) {
+                return replayCachedSound(command, cached, decoder, buffer, totalPackages, player, start);
+            }
+            simpleSend(command);
+            final long sendNanos = System.nanoTime();
+
             final byte[] decoded = new byte[audioStepPerBufferByte * AUDIO_PACKAGE_LENGTH * totalPackages];
             final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
             logger.fine("Starting receiving packages.");
-            FileOutputStream streamOut = new FileOutputStream(getUniqueFile(command + "buffer", "data"));
-            for (int packageId = 0; packageId < totalPackages; packageId++) {
-                client.receive(packet);
-                logger.finest(": Received sound packet " + packageId + "  of length:" + packet.getLength());
-                decoder.decode(buffer, decoded, audioStepPerBufferByte * AUDIO_PACKAGE_LENGTH * packageId);
-                try {
-                    streamOut.write(buffer);
-                } catch (final Exception exception) {
-                    streamOut.close();
+            final File recordingFile = outputFile(command, "rec");
+            final SoundRecording recording = SoundRecording.create(recordingFile, command,
+                    buffer.length, audioStepPerBufferByte * AUDIO_PACKAGE_LENGTH, totalPackages);
+            final int timeout = client.getSoTimeout();
+            // The first packet answers the request, so it is waited for like one; the rest are paced by the server.
+            final RtoEstimator rto = rtoEstimator(soundRequestCode);
+            final ArrivalDeadline deadline = new ArrivalDeadline(rto.getTimeoutMillis(), rtoMax);
+            final OperationMetrics metrics = Metrics.get(Metrics.SOUND);
+            final OperationMetrics decodeMetrics = Metrics.get(useAQ ? Metrics.DECODE_AQDPCM : Metrics.DECODE_DPCM);
+            final SampledTrace trace = new SampledTrace(traceEvery);
+            int received = 0;
+            int lost = 0;
+            // Packets that missed their deadline since the last arrival, counted as lost at the next arrival or
+            // at the end, so that the gap before the next arrival doesn't count them again.
+            int missed = 0;
+            int concealed = 0;
+            // The packets of a complete track, for the cache.
+            byte[] raw = null;
+            try {
+                for (int packageId = 0; packageId < totalPackages; packageId++) {
+                    int decodedIndex = audioStepPerBufferByte * AUDIO_PACKAGE_LENGTH * packageId;
+                    boolean arrived = false;
+                    final long waitStart = System.nanoTime();
+                    if (!deadline.isExhausted(waitStart)) {
+                        client.setSoTimeout((int) deadline.getDeadlineMillis());
+                        try {
+                            client.receive(packet);
+                            arrived = true;
+                        } catch (final SocketTimeoutException exception) {
+                            metrics.onTimeout();
+                            if (packageId == 0) {
+                                rto.onTimeout();
+                            }
+                            missed++;
+                        }
+                    }
+                    final long receiveNanos = System.nanoTime();
+                    if (arrived) {
+                        if (packageId == 0) {
+                            rto.onSample(receiveNanos - sendNanos);
+                        }
+                        // Conceal the packets lost before this one that didn't reach their deadline, keeping a
+                        // slot for this one.
+                        final int extra = Math.min(Math.max(0, deadline.onArrival(receiveNanos) - missed),
+                                totalPackages - 1 - packageId);
+                        for (int i = 0; i < extra; i++) {
+                            concealPacket(decoder, decoded, decodedIndex, player, recording, receiveNanos);
+                            concealed++;
+                            packageId++;
+                            decodedIndex += audioStepPerBufferByte * AUDIO_PACKAGE_LENGTH;
+                        }
+                        lost += missed + extra;
+                        missed = 0;
+                        metrics.onPacket(packet.getLength(), receiveNanos - waitStart);
+                        if (trace.sample()) {
+                            logger.info("Received sound packet " + packageId + " of length " + packet.getLength()
+                                    + " after " + (receiveNanos - waitStart) / 1000 + " us.");
+                        }
+                        decoder.decode(buffer, decoded, decodedIndex);
+                        decodeMetrics.onPacket(packet.getLength(), System.nanoTime() - receiveNanos);
+                        received++;
+                        if (player != null) {
+                            player.offer(decoded, decodedIndex);
+                        }
+                        recording.append(buffer, packet.getLength(), receiveNanos, 0, decoded, decodedIndex);
+                    } else {
+                        concealPacket(decoder, decoded, decodedIndex, player, recording, receiveNanos);
+                        concealed++;
+                    }
+                }
+                lost += missed;
+                if (concealed == 0 && cache != null) {
+                    raw = new byte[buffer.length * totalPackages];
+                    recording.getRaw(0, totalPackages, raw, 0);
+                }
+            } finally {
+                client.setSoTimeout(timeout);
+                recording.close();
+            }
+            if (concealed > 0) {
+                // Packets concealed as lost may still be on their way, after the slots they were due in.
+                discardPackets(100);
+            }
+            saveSoundOutputs(command, recordingFile, decoder);
+            final SoundResult result = new SoundResult(decoded, received, lost, concealed,
+                    System.nanoTime() - start);
+            if (concealed > 0) {
+                logger.warning(command + ": " + result + ".");
+            } else {
+                logger.info(command + ": " + result + ".");
+                // Only complete tracks are cached, a concealed one isn't what the server sent.
+                if (raw != null) {
+                    cache.put(command, raw, decoded, result.getElapsedNanos());
                 }
             }
-            decoder.saveHistory(getUniqueFile(command, "txt"));
-            streamOut.close();
-            streamOut = new FileOutputStream(getUniqueFile(command + "decoded", "data"));
+            return result;
+        }
+
+        /**
+         * Serve a sound download from {@link MainInstance#trackCache} without a request, recording and playing it
+         * like a download. Its packets are flagged {@link SoundRecording#FLAG_CACHED} in the recording.
+         *
+         * @param command       The request command.
+         * @param track         The cached track.
+         * @param decoder       The download's decoder.
+         * @param buffer        Buffer of a packet.
+         * @param totalPackages Length of the track in packages.
+         * @param player        If not {@code null}, each packet is also queued to this player.
+         * @param start         {@link System#nanoTime()} at which the download started.
+         * @return The decoded audio file.
+         * @throws IOException
+         */
+        SoundResult replayCachedSound(final String command, final TrackCache.Track track, final Decoder decoder,
+                                      final byte[] buffer, final int totalPackages, final StreamingPlayer player,
+                                      final long start) throws IOException {
+            final byte[] raw = track.getRaw();
+            final byte[] decoded = track.getDecoded();
+            final int decodedPacketLength = decoded.length / totalPackages;
+            final File recordingFile = outputFile(command, "rec");
+            final SoundRecording recording = SoundRecording.create(recordingFile, command, buffer.length,
+                    decodedPacketLength, totalPackages);
             try {
-                streamOut.write(decoded);
+                for (int packageId = 0; packageId < totalPackages; packageId++) {
+                    final int decodedIndex = decodedPacketLength * packageId;
+                    System.arraycopy(raw, buffer.length * packageId, buffer, 0, buffer.length);
+                    // Decoding the packet again rebuilds the decoder's history, and yields the cached PCM.
+                    decoder.decode(buffer, decoded, decodedIndex);
+                    if (player != null) {
+                        player.offer(decoded, decodedIndex);
+                    }
+                    recording.append(buffer, buffer.length, System.nanoTime(), SoundRecording.FLAG_CACHED, decoded,
+                            decodedIndex);
+                }
             } finally {
-                streamOut.close();
+                recording.close();
+            }
+            saveSoundOutputs(command, recordingFile, decoder);
+            logger.info(command + ": served from the track cache.");
+            return new SoundResult(decoded, totalPackages, 0, 0, System.nanoTime() - start);
+        }
+
+        /**
+         * Archive the recording of a sound download, and save and archive its decoder history.
+         *
+         * @param command       The request command.
+         * @param recordingFile The download's recording, closed.
+         * @param decoder       The download's decoder.
+         * @throws IOException
+         */
+        void saveSoundOutputs(final String command, final File recordingFile, final Decoder decoder)
+                throws IOException {
+            archiveFile(SessionArchive.Type.SOUND, command, recordingFile);
+            final File historyFile = outputFile(command, "txt");
+            decoder.saveHistory(historyFile);
+            archiveFile(SessionArchive.Type.HISTORY, command, historyFile);
+        }
+
+        /**
+         * Conceal a sound packet that wasn't received, playing and recording it like a received one.
+         *
+         * @param decoder      The download's decoder.
+         * @param decoded      The decoded audio file.
+         * @param decodedIndex Index of the packet's first byte in {@code decoded}.
+         * @param player       If not {@code null}, the packet is also queued to this player.
+         * @param recording    The download's recording.
+         * @param nanos        {@link System#nanoTime()} at which the packet was found missing.
+         * @throws InterruptedIOException
+         */
+        void concealPacket(final Decoder decoder, final byte[] decoded, final int decodedIndex,
+                           final StreamingPlayer player, final SoundRecording recording, final long nanos)
+                throws InterruptedIOException {
+            decoder.conceal(decoded, decodedIndex);
+            if (player != null) {
+                player.offer(decoded, decodedIndex);
+            }
+            recording.append(null, 0, nanos, SoundRecording.FLAG_CONCEALED, decoded, decodedIndex);
+        }
+
+        /**
+         * Create the file an output of this session is written to: a scratch file of {@link MainInstance#archive},
+         * or a unique file in the working directory if it is disabled.
+         *
+         * @param command   The request command the output belongs to.
+         * @param extension The extension of the file.
+         * @return The file.
+         * @throws IOException
+         * @see MainInstance#archiveFile(SessionArchive.Type, String, File)
+         */
+        File outputFile(final String command, final String extension) throws IOException {
+            return archive != null ? archive.createScratchFile(command, extension) : getUniqueFile(command, extension);
+        }
+
+        /**
+         * Move a complete output file into {@link MainInstance#archive}, if enabled.
+         *
+         * @param type    The kind of output.
+         * @param command The request command it belongs to.
+         * @param file    The file, deleted once archived.
+         * @throws IOException
+         */
+        void archiveFile(final SessionArchive.Type type, final String command, final File file) throws IOException {
+            if (archive != null) {
+                final SessionArchive.Record record = archive.append(type, command, file);
+                logger.fine("Archived " + file + " as record " + record.getId() + ".");
+                deleteFile(file);
+            }
+        }
+
+        /**
+         * Archive the output files that exist, those of failed downloads having been deleted.
+         *
+         * @param type  The kind of output.
+         * @param files The files and the commands they belong to.
+         * @throws IOException
+         */
+        void archiveFiles(final SessionArchive.Type type, final Map<File, String> files) throws IOException {
+            for (final Map.Entry<File, String> entry : files.entrySet()) {
+                if (entry.getKey().exists()) {
+                    archiveFile(type, entry.getValue(), entry.getKey());
+                }
+            }
+        }
+
+        void deleteFile(final File file) {
+            if (file != null && !file.delete()) {
+                logger.warning("Failed to delete " + file + ".");
             }
-            return decoded;
         }
 
         /**
@@ -483,68 +1360,223 @@ class userApplication {
          * @param maxLength
          * @param flow
          * @throws IOException
-         * @see MainInstance#downloadImage(int, boolean, String)
+         * @see MainInstance#downloadImage(int, boolean, String, int)
          */
-        void downloadImage(final int maxLength, final boolean flow) throws IOException {
-            downloadImage(maxLength, flow, "FIX");
+        ImageResult downloadImage(final int maxLength, final boolean flow) throws IOException {
+            return downloadImage(maxLength, flow, "FIX");
+        }
+
+        /**
+         * {@code prefetch} defaults to 1, the server is asked for one packet at a time.
+         *
+         * @param maxLength
+         * @param useFlow
+         * @param camera
+         * @throws IOException
+         * @see MainInstance#downloadImage(int, boolean, String, int)
+         */
+        ImageResult downloadImage(final int maxLength, final boolean useFlow, final String camera)
+                throws IOException {
+            return downloadImage(maxLength, useFlow, camera, 1);
+        }
+
+        /**
+         * Download images using the packet size and prefetch depth tuned for the camera, probing them with
+         * {@link MainInstance#imageTuner} if this camera wasn't tuned yet in this session.
+         *
+         * @param useFlow {@code true} if ithaki's "FLOW" feature is to be used.
+         * @param camera  Specifies which camera is to be used for the picture.
+         * @param count   Number of images to download with the tuned setting.
+         * @throws IOException
+         */
+        void downloadImageTuned(final boolean useFlow, final String camera, final int count) throws IOException {
+            final ImageTuner.Setting setting = imageTuner.tune(this::downloadImage, camera, useFlow);
+            final List<ImageResult> results = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                results.add(downloadImage(setting.getMaxLength(), useFlow, camera, setting.getPrefetch()));
+            }
+            logger.info(ImageTuner.report(camera, results));
         }
 
         /**
          * Downloads an image and saves it at specified file.
+         * <p>
+         * Packets are written to the file as they arrive. The download ends as soon as a {@link JpegScanner} finds
+         * the end of image marker, on a packet shorter than {@code maxLength}, or on a timeout.</p>
+         * <p>
+         * Packets are waited for with the timeout of the command's {@link RtoEstimator}, sampled with the packets
+         * that answer a single request: the first one, and in FLOW mode without prefetch those after a
+         * {@code "NEXT"}.</p>
          *
          * @param maxLength The length of each UDP packet.
          * @param useFlow   {@code true} if ithaki's "FLOW" feature is to be used.
          * @param camera    Specifies which camera is to be used for the picture.
+         * @param prefetch  In FLOW mode, the number of {@code "NEXT"} requests kept ahead of the received packets.
+         * @return The outcome of the download.
          * @throws IOException
          */
-        void downloadImage(final int maxLength, final boolean useFlow, final String camera) throws IOException {
+        ImageResult downloadImage(final int maxLength, final boolean useFlow, final String camera,
+                                  final int prefetch) throws IOException {
             final byte[] imageBuffer = new byte[maxLength];
             final DatagramPacket imagePacket = new DatagramPacket(imageBuffer, imageBuffer.length);
+            final ByteBuffer writeBuffer = ByteBuffer.wrap(imageBuffer);
             final String imageCommand = imageRequestCode + (useFlow ? "FLOW=ON" : "") + "UDP=" + maxLength + "CAM=" +
                     camera;
+            final File file = archive != null ? archive.createScratchFile(imageCommand, "jpg")
+                    : new File(imageCommand + ".jpg");
+            // Packets are written as they arrive; the file is deleted if the image turns out incomplete.
+            final FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            final JpegScanner scanner = new JpegScanner();
+            final byte[] terminatingSequence = new byte[2];
+            boolean complete = false;
+            long totalBytes = 0;
+            int packets = 0;
+            final OperationMetrics metrics = Metrics.get(Metrics.IMAGE);
+            final SampledTrace trace = new SampledTrace(traceEvery);
+            final RtoEstimator rto = rtoEstimator(imageCommand);
+            final int socketTimeout = client.getSoTimeout();
+            final long timeStart = System.nanoTime();
             simpleSend(imageCommand);
-            final ByteArrayOutputStream stream = new ByteArrayOutputStream();
-            while (true) {
-                try {
-                    client.receive(imagePacket);
-                } catch (final SocketTimeoutException exception) {
-                    // Since we got a timeout, we have to check if the termination sequence is that of an image.
-                    final byte[] finalImageBytes = stream.toByteArray();
-                    final byte[] terminatingSequence = Arrays.copyOfRange(finalImageBytes, finalImageBytes.length -
-                            2, finalImageBytes.length);
-                    final byte[] expectedTerminatingSequence = new byte[]{(byte) 0xff, (byte) 0xd9};
-                    final String baseLogMessage = "Image download stopped by timeout.";
-                    if (Arrays.equals(terminatingSequence, expectedTerminatingSequence)) {
-                        logger.info(baseLogMessage);
+            // Send time of the request the next packet answers, 0 if it doesn't answer a single request.
+            long requestNanos = System.nanoTime();
+            try {
+                while (true) {
+                    final long waitStart = System.nanoTime();
+                    client.setSoTimeout(rto.getTimeoutMillis());
+                    try {
+                        client.receive(imagePacket);
+                    } catch (final SocketTimeoutException exception) {
+                        metrics.onTimeout();
+                        // Since we got a timeout, we have to check if the termination sequence is that of an image.
+                        final byte[] expectedTerminatingSequence = new byte[]{(byte) 0xff, (byte) 0xd9};
+                        final String baseLogMessage = "Image download stopped by timeout.";
+                        if (Arrays.equals(terminatingSequence, expectedTerminatingSequence)) {
+                            logger.info(baseLogMessage);
+                            complete = true;
+                        } else {
+                            rto.onTimeout();
+                            logger.warning(baseLogMessage
+                                    + " Last bytes aren't those that terminate a .jpg image. No image will be saved.\n"
+                                    + "Expected: " + toHex(expectedTerminatingSequence) + "\n"
+                                    + "Got: " + toHex(terminatingSequence));
+                        }
+                        break;
+                    }
+                    final int packetLength = imagePacket.getLength();
+                    final long receiveNanos = System.nanoTime();
+                    final long waited = receiveNanos - waitStart;
+                    if (requestNanos != 0) {
+                        rto.onSample(receiveNanos - requestNanos);
+                        requestNanos = 0;
+                    }
+                    metrics.onPacket(packetLength, waited);
+                    if (trace.sample()) {
+                        logger.info("Received image packet " + packets + " of length " + packetLength + " after "
+                                + waited / 1000 + " us.");
+                    }
+                    packets++;
+                    // Look for the end of the image before writing, so that a server that keeps sending can't
+                    // append anything after it.
+                    final int imageLength = scanner.scan(imageBuffer, 0, packetLength);
+                    final int writeLength = imageLength >= 0 ? imageLength : packetLength;
+                    if (useFlow && imageLength < 0 && packetLength == maxLength) {
+                        // Ask for the next packet before writing this one, to overlap the server's send with ours.
+                        // After the first packet, fill up the prefetch window.
+                        for (int i = packets == 1 ? prefetch : 1; i > 0; i--) {
+                            simpleSend("NEXT");
+                        }
+                        if (prefetch == 1) {
+                            requestNanos = System.nanoTime();
+                        }
+                    }
+                    totalBytes += writeLength;
+                    writeBuffer.clear().limit(writeLength);
+                    while (writeBuffer.hasRemaining()) {
+                        out.write(writeBuffer);
+                    }
+                    if (writeLength >= 2) {
+                        terminatingSequence[0] = imageBuffer[writeLength - 2];
+                    } else if (writeLength == 1) {
+                        terminatingSequence[0] = terminatingSequence[1];
+                    }
+                    if (writeLength >= 1) {
+                        terminatingSequence[1] = imageBuffer[writeLength - 1];
+                    }
+                    if (imageLength >= 0) {
+                        complete = true;
+                        break;
+                    }
+                    if (packetLength < maxLength) {
+                        complete = true;
                         break;
-                    } else {
-                        logger.warning(baseLogMessage
-                                + " Last bytes aren't those that terminate a .jpg image. No image will be saved.\n"
-                                + "Expected: " + printHexBinary(expectedTerminatingSequence) + "\n"
-                                + "Got: " + printHexBinary(terminatingSequence));
-                        stream.close();
-                        return;
                     }
                 }
-                final int packetLength = imagePacket.getLength();
-                logger.finest(imageCommand + ": Received image packet of length:" + packetLength + ".");
-                stream.write(imageBuffer, 0, packetLength);
-                if (packetLength < maxLength) {
-                    break;
-                }
-                if (useFlow) {
-                    simpleSend("NEXT");
+            } finally {
+                client.setSoTimeout(socketTimeout);
+                out.close();
+            }
+            final long elapsedNanos = System.nanoTime() - timeStart;
+            if (complete) {
+                logger.info("Download finished, saved " + totalBytes + " bytes to " + file + ".");
+                archiveFile(SessionArchive.Type.IMAGE, imageCommand, file);
+            } else if (!file.delete()) {
+                logger.warning("Failed to delete incomplete image " + file + ".");
+            }
+            if (useFlow && prefetch > 1) {
+                discardPackets(100);
+            }
+            return new ImageResult(complete, totalBytes, packets, elapsedNanos);
+        }
+
+        /**
+         * Receive and discard packets until none arrives for a while, eg those answering surplus prefetched
+         * {@code "NEXT"} requests, so they aren't mistaken for the next download's.
+         *
+         * @param quietMillis Time without packets after which the socket is considered drained.
+         * @throws IOException
+         */
+        void discardPackets(final int quietMillis) throws IOException {
+            final int timeout = client.getSoTimeout();
+            final byte[] buffer = new byte[2048];
+            final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            client.setSoTimeout(quietMillis);
+            try {
+                while (true) {
+                    client.receive(packet);
                 }
+            } catch (final SocketTimeoutException exception) {
+                // Drained.
+            } finally {
+                client.setSoTimeout(timeout);
             }
-            saveStreamToFile(stream, imageCommand + ".jpg");
         }
 
-        void saveStreamToFile(final ByteArrayOutputStream stream, final String filename) throws IOException {
-            final FileOutputStream out = new FileOutputStream(filename);
-            logger.info("Download finished, saving stream to " + filename + ".");
-            out.write(stream.toByteArray());
-            out.close();
-            stream.close();
+        /**
+         * Format a byte array as an upper case hexadecimal string.
+         *
+         * @param bytes The bytes.
+         * @return The hexadecimal representation, eg {@code "FFD9"}.
+         */
+        String toHex(final byte[] bytes) {
+            final StringBuilder builder = new StringBuilder(2 * bytes.length);
+            for (final byte b : bytes) {
+                builder.append(String.format("%02X", b));
+            }
+            return builder.toString();
+        }
+
+        /**
+         * @param sizes Comma separated sizes, eg {@code "128,256"}.
+         * @return The sizes.
+         */
+        int[] parseSizes(final String sizes) {
+            final String[] parts = sizes.split(",");
+            final int[] result = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                result[i] = Integer.parseInt(parts[i].trim());
+            }
+            return result;
         }
 
         /**
@@ -553,11 +1585,46 @@ class userApplication {
          * Initializes:
          * <ul>
          * <li>{@link MainInstance#clientPublicAddress}</li>
+         * <li>{@link MainInstance#serverAddress}, defaults to {@link MainInstance#SERVER_ADDRESS}</li>
          * <li>{@link MainInstance#clientListeningPort}</li>
          * <li>{@link MainInstance#serverListeningPort}</li>
          * <li>{@link MainInstance#echoRequestCode}</li>
          * <li>{@link MainInstance#imageRequestCode}</li>
          * <li>{@link MainInstance#soundRequestCode}</li>
+         * <li>{@link MainInstance#echoWindow}, defaults to 1</li>
+         * <li>{@link MainInstance#streamPlayback}, defaults to {@code false}</li>
+         * <li>{@link MainInstance#prebufferPackets}, defaults to 8</li>
+         * <li>{@link MainInstance#audioSink}, defaults to {@code "line"}</li>
+         * <li>{@link MainInstance#multiplexed}, defaults to {@code false}</li>
+         * <li>{@link MainInstance#portPairs}, defaults to 1</li>
+         * <li>{@link MainInstance#tuneImages}, defaults to {@code false}</li>
+         * <li>{@link MainInstance#openLoopSchedule}, defaults to none</li>
+         * <li>{@link MainInstance#metricsFile}, defaults to none</li>
+         * <li>{@link MainInstance#metricsInterval}, defaults to 10000</li>
+         * <li>{@link MainInstance#traceEvery}, defaults to 0</li>
+         * <li>{@link MainInstance#bulkTracks}, defaults to none</li>
+         * <li>{@link MainInstance#bulkModes}, from {@code "DPCM,AQ"}, defaults to both</li>
+         * <li>{@link MainInstance#bulkPackets}, defaults to 999</li>
+         * <li>{@link MainInstance#bulkConcurrency}, defaults to {@link MainInstance#portPairs}</li>
+         * <li>{@link MainInstance#trackCacheBytes}, defaults to 0</li>
+         * <li>{@link MainInstance#trackCacheDir}, defaults to none</li>
+         * <li>{@link MainInstance#archiveFile}, from a file name like {@code "session.archive"}, defaults to none</li>
+         * <li>{@link MainInstance#rtoInitial}, defaults to 3000</li>
+         * <li>{@link MainInstance#rtoMin}, defaults to 200</li>
+         * <li>{@link MainInstance#rtoMax}, defaults to 10000</li>
+         * <li>{@link MainInstance#probe}, defaults to {@code false}</li>
+         * <li>{@link MainInstance#probeRequestSizes}, from {@code "5,64,256,512,1024,1400"}, defaults to those</li>
+         * <li>{@link MainInstance#probeResponseSizes}, from {@code "128,256,512,1024"}, defaults to those</li>
+         * <li>{@link MainInstance#probeTrainLength}, defaults to 8</li>
+         * <li>{@link MainInstance#probeTrains}, defaults to 20</li>
+         * <li>{@link MainInstance#streamCameras}, defaults to none</li>
+         * <li>{@link MainInstance#streamDuration}, defaults to 60000</li>
+         * <li>{@link MainInstance#streamMaxLength}, defaults to 1024</li>
+         * <li>{@link MainInstance#streamFlow}, defaults to {@code false}</li>
+         * <li>{@link MainInstance#streamFrames}, defaults to {@link FramePool#MIN_FRAMES}</li>
+         * <li>{@link MainInstance#streamMjpeg}, defaults to {@code false}</li>
+         * <li>{@link MainInstance#workload}, a workload object or the name of a file holding one, defaults to none</li>
+         * <li>the logging level, {@code "logLevel"}, defaults to {@link userApplication#loggerLevel}</li>
          * </ul>
          * <p>Uses {@link Gson} library.</p>
          *
@@ -568,28 +1635,74 @@ class userApplication {
             final JsonObject json = new Gson().fromJson(reader, JsonObject.class);
 
             clientPublicAddress = json.get("clientPublicAddress").getAsString();
+            serverAddress = json.has("serverAddress") ? json.get("serverAddress").getAsString() : SERVER_ADDRESS;
             clientListeningPort = json.get("clientListeningPort").getAsInt();
             serverListeningPort = json.get("serverListeningPort").getAsInt();
             echoRequestCode = json.get("echoRequestCode").getAsString();
             imageRequestCode = json.get("imageRequestCode").getAsString();
             soundRequestCode = json.get("soundRequestCode").getAsString();
-        }
-
-        /**
-         * Interface that hold {@link Decoder#decode(byte[], byte[], int)} function for decoding of received audio
-         * files in @{code byte[]} format.
-         */
-        interface Decoder {
-            /**
-             * Decode an encoded buffer.
-             *
-             * @param buffer       The buffer.
-             * @param decoded      The decoded result.
-             * @param decodedIndex The place to start decoding in the buffer.
-             */
-            void decode(final byte[] buffer, byte[] decoded, int decodedIndex);
-
-            void saveHistory(File filename) throws FileNotFoundException;
+            echoWindow = json.has("echoWindow") ? json.get("echoWindow").getAsInt() : 1;
+            streamPlayback = json.has("streamPlayback") && json.get("streamPlayback").getAsBoolean();
+            prebufferPackets = json.has("prebufferPackets") ? json.get("prebufferPackets").getAsInt() : 8;
+            audioSink = json.has("audioSink") ? json.get("audioSink").getAsString() : "line";
+            multiplexed = json.has("multiplexed") && json.get("multiplexed").getAsBoolean();
+            portPairs = json.has("portPairs") ? json.get("portPairs").getAsInt() : 1;
+            tuneImages = json.has("tuneImages") && json.get("tuneImages").getAsBoolean();
+            openLoopSchedule = json.has("openLoopSchedule") ? json.get("openLoopSchedule").getAsString() : null;
+            metricsFile = json.has("metricsFile") ? new File(json.get("metricsFile").getAsString()) : null;
+            metricsInterval = json.has("metricsInterval") ? json.get("metricsInterval").getAsLong() : 10000;
+            traceEvery = json.has("traceEvery") ? json.get("traceEvery").getAsInt() : 0;
+            bulkTracks = json.has("bulkTracks") ? json.get("bulkTracks").getAsString() : null;
+            final String[] modes = (json.has("bulkModes") ? json.get("bulkModes").getAsString() : "DPCM,AQ")
+                    .split(",");
+            bulkModes = new boolean[modes.length];
+            for (int i = 0; i < modes.length; i++) {
+                bulkModes[i] = modes[i].trim().equals("AQ");
+            }
+            bulkPackets = json.has("bulkPackets") ? json.get("bulkPackets").getAsInt() : 999;
+            bulkConcurrency = json.has("bulkConcurrency") ? json.get("bulkConcurrency").getAsInt() : portPairs;
+            trackCacheBytes = json.has("trackCacheBytes") ? json.get("trackCacheBytes").getAsLong() : 0;
+            trackCacheDir = json.has("trackCacheDir") ? new File(json.get("trackCacheDir").getAsString()) : null;
+            final String archiveName = json.has("archive") ? json.get("archive").getAsString() : "";
+            archiveFile = archiveName.isEmpty() ? null : new File(archiveName);
+            rtoInitial = json.has("rtoInitial") ? json.get("rtoInitial").getAsLong() : 3000;
+            rtoMin = json.has("rtoMin") ? json.get("rtoMin").getAsLong() : 200;
+            rtoMax = json.has("rtoMax") ? json.get("rtoMax").getAsLong() : 10000;
+            probe = json.has("probe") && json.get("probe").getAsBoolean();
+            probeRequestSizes = parseSizes(json.has("probeRequestSizes") ? json.get("probeRequestSizes").getAsString()
+                    : "5,64,256,512,1024,1400");
+            probeResponseSizes = parseSizes(json.has("probeResponseSizes")
+                    ? json.get("probeResponseSizes").getAsString() : "128,256,512,1024");
+            probeTrainLength = json.has("probeTrainLength") ? json.get("probeTrainLength").getAsInt() : 8;
+            probeTrains = json.has("probeTrains") ? json.get("probeTrains").getAsInt() : 20;
+            streamCameras = json.has("streamCameras") ? json.get("streamCameras").getAsString() : null;
+            streamDuration = json.has("streamDuration") ? json.get("streamDuration").getAsLong() : 60000;
+            streamMaxLength = json.has("streamMaxLength") ? json.get("streamMaxLength").getAsInt() : 1024;
+            streamFlow = json.has("streamFlow") && json.get("streamFlow").getAsBoolean();
+            streamFrames = json.has("streamFrames") ? json.get("streamFrames").getAsInt() : FramePool.MIN_FRAMES;
+            streamMjpeg = json.has("streamMjpeg") && json.get("streamMjpeg").getAsBoolean();
+            if (json.has("workload")) {
+                final JsonElement element = json.get("workload");
+                if (element.isJsonPrimitive()) {
+                    final FileReader workloadReader = new FileReader(element.getAsString());
+                    try {
+                        workload = Workload.parse(new Gson().fromJson(new JsonReader(workloadReader),
+                                JsonElement.class));
+                    } finally {
+                        try {
+                            workloadReader.close();
+                        } catch (final IOException exception) {
+                            logger.warning("Failed to close workload file " + element.getAsString() + ": "
+                                    + exception);
+                        }
+                    }
+                } else {
+                    workload = Workload.parse(element);
+                }
+            }
+            final Level level = json.has("logLevel") ? Level.parse(json.get("logLevel").getAsString()) : loggerLevel;
+            consoleHandler.setLevel(level);
+            logger.setLevel(level);
         }
     }
 }
@@ -0,0 +1,121 @@
+package com.orestis.dixtya2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link ArrivalDeadline}, with arrival times made up rather than measured.
+ */
+public class ArrivalDeadlineTest {
+    static final long MILLIS = 1000000;
+
+    /**
+     * Feed arrivals at a steady interval.
+     *
+     * @param deadline The deadline.
+     * @param start    Time of the first arrival.
+     * @param interval Time between arrivals.
+     * @param count    Number of arrivals.
+     * @return Time of the last arrival.
+     */
+    static long steady(final ArrivalDeadline deadline, final long start, final long interval, final int count) {
+        long nanos = start;
+        for (int i = 0; i < count; i++) {
+            nanos = start + i * interval;
+            assertEquals("Loss inferred from a steady stream at packet " + i, 0, deadline.onArrival(nanos));
+        }
+        return nanos;
+    }
+
+    @Test
+    public void usesInitialTimeoutUntilTwoPacketsArrive() {
+        final ArrivalDeadline deadline = new ArrivalDeadline(3000, 10000);
+        assertEquals(3000, deadline.getDeadlineMillis());
+        deadline.onArrival(0);
+        assertEquals(3000, deadline.getDeadlineMillis());
+        deadline.onArrival(20 * MILLIS);
+        assertEquals(20 * MILLIS, deadline.getMeanNanos());
+    }
+
+    @Test
+    public void steadyStreamKeepsTheDeadlineAtItsFloor() {
+        final ArrivalDeadline deadline = new ArrivalDeadline(3000, 10000);
+        steady(deadline, 0, 20 * MILLIS, 50);
+        assertEquals(20 * MILLIS, deadline.getMeanNanos(), MILLIS);
+        assertEquals(ArrivalDeadline.MIN_DEADLINE_NANOS / MILLIS, deadline.getDeadlineMillis());
+    }
+
+    @Test
+    public void deadlineIsCappedByTheInitialTimeout() {
+        final ArrivalDeadline deadline = new ArrivalDeadline(500, 10000);
+        steady(deadline, 0, 1000 * MILLIS, 10);
+        assertEquals(500, deadline.getDeadlineMillis());
+    }
+
+    @Test
+    public void gapOfWholeIntervalsCountsTheMissingPackets() {
+        final ArrivalDeadline deadline = new ArrivalDeadline(3000, 10000);
+        long nanos = steady(deadline, 0, 20 * MILLIS, 50);
+        nanos += 40 * MILLIS;
+        assertEquals(1, deadline.onArrival(nanos));
+        nanos = steady(deadline, nanos + 20 * MILLIS, 20 * MILLIS, 5);
+        nanos += 80 * MILLIS;
+        assertEquals(3, deadline.onArrival(nanos));
+        // The estimate follows the interval packets were sent at, not the gaps.
+        assertEquals(20 * MILLIS, deadline.getMeanNanos(), MILLIS);
+        nanos += 20 * MILLIS;
+        assertEquals(0, deadline.onArrival(nanos));
+    }
+
+    @Test
+    public void gapRightAfterAnInferredOneIsNotTakenForLoss() {
+        final ArrivalDeadline deadline = new ArrivalDeadline(3000, 10000);
+        long nanos = steady(deadline, 0, 20 * MILLIS, 50);
+        nanos += 40 * MILLIS;
+        assertEquals(1, deadline.onArrival(nanos));
+        nanos += 40 * MILLIS;
+        assertEquals(0, deadline.onArrival(nanos));
+    }
+
+    @Test
+    public void jitterShorterThanHalfAnIntervalIsNoLoss() {
+        final ArrivalDeadline deadline = new ArrivalDeadline(3000, 10000);
+        long nanos = steady(deadline, 0, 20 * MILLIS, 50);
+        nanos += 29 * MILLIS;
+        assertEquals(0, deadline.onArrival(nanos));
+    }
+
+    @Test
+    public void backToBackStreamInfersNoLoss() {
+        final ArrivalDeadline deadline = new ArrivalDeadline(3000, 10000);
+        final long nanos = steady(deadline, 0, MILLIS / 2, 50);
+        assertEquals(0, deadline.onArrival(nanos + 50 * MILLIS));
+    }
+
+    @Test
+    public void doesNotLockOntoAFractionOfTheIntervalAfterABurst() {
+        final ArrivalDeadline deadline = new ArrivalDeadline(3000, 10000);
+        // A burst at 4 ms, then the server settles at its pace of 20 ms.
+        long nanos = steady(deadline, 0, 4 * MILLIS, 10);
+        int lost = 0;
+        for (int i = 0; i < 200; i++) {
+            nanos += 20 * MILLIS;
+            lost += deadline.onArrival(nanos);
+        }
+        assertEquals(20 * MILLIS, deadline.getMeanNanos(), 2 * MILLIS);
+        assertTrue("Inferred " + lost + " lost packets from a complete stream", lost <= 4);
+        nanos += 20 * MILLIS;
+        assertEquals(0, deadline.onArrival(nanos));
+    }
+
+    @Test
+    public void exhaustedOnceNothingArrivesForTheGapBudget() {
+        final ArrivalDeadline deadline = new ArrivalDeadline(3000, 10000);
+        deadline.onArrival(0);
+        assertFalse(deadline.isExhausted(10000 * MILLIS - 1));
+        assertTrue(deadline.isExhausted(10000 * MILLIS));
+    }
+}
@@ -0,0 +1,114 @@
+package com.orestis.dixtya2;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link JpegScanner}, on a hand-made marker structure rather than a real image.
+ */
+public class JpegScannerTest {
+    /**
+     * SOI, an APP1 segment with an EOI in it, a restart marker outside of a scan, the header of a scan and its
+     * entropy-coded data with a stuffed byte, fill bytes and a restart marker, and the EOI.
+     */
+    static final byte[] IMAGE = bytes(
+            0xff, 0xd8,
+            0xff, 0xe1, 0x00, 0x08, 0x12, 0xff, 0xd9, 0x34, 0xff, 0xd9,
+            0xff, 0xd0,
+            0xff, 0xda, 0x00, 0x04, 0xff, 0xd9,
+            0x01, 0xff, 0x00, 0x02, 0xff, 0xff, 0xd3, 0x03,
+            0xff, 0xd9);
+
+    static byte[] bytes(final int... values) {
+        final byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    @Test
+    public void findsTheEndOfAWholeImage() {
+        final JpegScanner scanner = new JpegScanner();
+        assertEquals(IMAGE.length, scanner.scan(IMAGE, 0, IMAGE.length));
+        assertTrue(scanner.isComplete());
+        assertEquals(IMAGE.length, scanner.getScanned());
+    }
+
+    @Test
+    public void findsTheEndWhateverTheChunksAre() {
+        for (int chunk = 1; chunk <= IMAGE.length; chunk++) {
+            final JpegScanner scanner = new JpegScanner();
+            int found = -1;
+            int offset = 0;
+            while (found < 0 && offset < IMAGE.length) {
+                final int length = Math.min(chunk, IMAGE.length - offset);
+                found = scanner.scan(IMAGE, offset, length);
+                assertFalse("Invalid at chunk size " + chunk, scanner.isInvalid());
+                if (found < 0) {
+                    offset += length;
+                }
+            }
+            assertEquals("End at chunk size " + chunk, IMAGE.length, offset + found);
+            assertEquals(IMAGE.length, scanner.getScanned());
+        }
+    }
+
+    @Test
+    public void endOfImageInsideASegmentIsNotTheEnd() {
+        final JpegScanner scanner = new JpegScanner();
+        // Up to and including the EOI in the scan header.
+        assertEquals(-1, scanner.scan(IMAGE, 0, 20));
+        assertFalse(scanner.isComplete());
+        assertFalse(scanner.isInvalid());
+    }
+
+    @Test
+    public void bytesAfterTheEndAreLeftOut() {
+        final byte[] data = Arrays.copyOf(IMAGE, IMAGE.length + 5);
+        final JpegScanner scanner = new JpegScanner();
+        assertEquals(IMAGE.length, scanner.scan(data, 0, data.length));
+        assertEquals(IMAGE.length, scanner.getScanned());
+    }
+
+    @Test
+    public void honoursTheOffset() {
+        final byte[] data = new byte[IMAGE.length + 3];
+        System.arraycopy(IMAGE, 0, data, 3, IMAGE.length);
+        final JpegScanner scanner = new JpegScanner();
+        assertEquals(IMAGE.length, scanner.scan(data, 3, IMAGE.length));
+    }
+
+    @Test
+    public void dataWithoutStartOfImageIsInvalid() {
+        final JpegScanner scanner = new JpegScanner();
+        assertEquals(-1, scanner.scan(IMAGE, 2, IMAGE.length - 2));
+        assertTrue(scanner.isInvalid());
+        assertEquals(-1, scanner.scan(IMAGE, 0, IMAGE.length));
+    }
+
+    @Test
+    public void segmentLengthBelowItsOwnSizeIsInvalid() {
+        final JpegScanner scanner = new JpegScanner();
+        assertEquals(-1, scanner.scan(bytes(0xff, 0xd8, 0xff, 0xe0, 0x00, 0x01, 0xff, 0xd9), 0, 8));
+        assertTrue(scanner.isInvalid());
+    }
+
+    @Test
+    public void resetStartsOverForTheNextImage() {
+        final JpegScanner scanner = new JpegScanner();
+        scanner.scan(IMAGE, 2, 5);
+        assertTrue(scanner.isInvalid());
+        scanner.reset();
+        assertEquals(0, scanner.getScanned());
+        assertEquals(IMAGE.length, scanner.scan(IMAGE, 0, IMAGE.length));
+        scanner.reset();
+        assertFalse(scanner.isComplete());
+        assertEquals(IMAGE.length, scanner.scan(IMAGE, 0, IMAGE.length));
+    }
+}
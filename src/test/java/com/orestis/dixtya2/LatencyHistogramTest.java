@@ -0,0 +1,115 @@
+package com.orestis.dixtya2;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+    @Test
+    public void bucketsAreContiguousAndCoverEveryValue() {
+        assertEquals(0, LatencyHistogram.bucket(0));
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS - 1; bucket++) {
+            final long highest = LatencyHistogram.highestValue(bucket);
+            assertEquals("Highest value of bucket " + bucket, bucket, LatencyHistogram.bucket(highest));
+            assertEquals("Value after bucket " + bucket, bucket + 1, LatencyHistogram.bucket(highest + 1));
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValue(LatencyHistogram.BUCKETS - 1));
+    }
+
+    @Test
+    public void bucketWidthIsWithinItsResolution() {
+        final Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            final long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            final long highest = LatencyHistogram.highestValue(LatencyHistogram.bucket(value));
+            assertTrue("Value " + value + " above its bucket", highest >= value);
+            assertTrue("Value " + value + " off by " + (highest - value),
+                    highest - value <= value / LatencyHistogram.SUB_BUCKETS);
+        }
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 2 * LatencyHistogram.SUB_BUCKETS; value++) {
+            histogram.record(value);
+        }
+        assertEquals(32, histogram.getCount());
+        assertEquals(32, histogram.getMax());
+        assertEquals(16.5, histogram.getMean(), 1e-9);
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertEquals(16, histogram.getValueAtPercentile(50));
+        assertEquals(32, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void percentilesAreWithinTheResolution() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        // 1 to 1000 ms, in ns.
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000000);
+        }
+        for (final double percentile : new double[]{1, 10, 50, 90, 99, 99.9}) {
+            final long exact = (long) Math.ceil(percentile * 10) * 1000000;
+            final long value = histogram.getValueAtPercentile(percentile);
+            assertTrue(percentile + "th percentile " + value + " below " + exact, value >= exact);
+            assertTrue(percentile + "th percentile " + value + " too far above " + exact,
+                    value - exact <= exact / LatencyHistogram.SUB_BUCKETS);
+        }
+        assertEquals(1000000000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void percentileDoesNotExceedTheMax() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000001);
+        assertEquals(1000001, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean(), 0);
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void negativeValuesAreRecordedAsZero() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMean(), 0);
+        assertEquals(0, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int value = 0; value < 10000; value++) {
+                        histogram.record(value);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.getCount());
+        assertEquals(9999, histogram.getMax());
+        assertEquals(4999.5, histogram.getMean(), 1e-9);
+    }
+}
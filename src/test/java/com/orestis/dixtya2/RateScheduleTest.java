@@ -0,0 +1,69 @@
+package com.orestis.dixtya2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of {@link RateSchedule}.
+ */
+public class RateScheduleTest {
+    static final long SECONDS = 1000000000L;
+
+    @Test
+    public void constantSegment() {
+        final RateSchedule schedule = new RateSchedule("50:30");
+        assertEquals(30 * SECONDS, schedule.getDurationNanos());
+        assertEquals(50, schedule.getRate(0), 1e-9);
+        assertEquals(50, schedule.getRate(30 * SECONDS - 1), 1e-9);
+        assertEquals(0, schedule.getRate(30 * SECONDS), 0);
+    }
+
+    @Test
+    public void rampIsLinear() {
+        final RateSchedule schedule = new RateSchedule("50:30,50-400:120,400:30");
+        assertEquals(180 * SECONDS, schedule.getDurationNanos());
+        assertEquals(50, schedule.getRate(30 * SECONDS), 1e-9);
+        assertEquals(225, schedule.getRate(90 * SECONDS), 1e-9);
+        assertEquals(400, schedule.getRate(150 * SECONDS - 1), 1e-6);
+        assertEquals(400, schedule.getRate(150 * SECONDS), 1e-9);
+        assertEquals(0, schedule.getRate(180 * SECONDS), 0);
+    }
+
+    @Test
+    public void rampDownAndFractionalSeconds() {
+        final RateSchedule schedule = new RateSchedule(" 100 - 10 : 0.5 ");
+        assertEquals(SECONDS / 2, schedule.getDurationNanos());
+        assertEquals(55, schedule.getRate(SECONDS / 4), 1e-9);
+    }
+
+    @Test
+    public void keepsItsDescription() {
+        assertEquals("50:30,50-400:120", new RateSchedule("50:30,50-400:120").toString());
+    }
+
+    @Test
+    public void rejectsMalformedSegments() {
+        for (final String description : new String[]{"", "50", "50:", "a:30", "50:30:1", "1-2-3:30", "50:30,,60:10"}) {
+            assertRejected(description);
+        }
+    }
+
+    @Test
+    public void rejectsNonPositiveRatesAndDurations() {
+        for (final String description : new String[]{"0:30", "50:0", "50--1:30", "50:-1", "NaN:30", "50-NaN:30",
+                "Infinity:30", "50-Infinity:30", "50:Infinity"}) {
+            assertRejected(description);
+        }
+    }
+
+    static void assertRejected(final String description) {
+        try {
+            new RateSchedule(description);
+            fail("Accepted: " + description);
+        } catch (final IllegalArgumentException expected) {
+            // Expected.
+        }
+    }
+}
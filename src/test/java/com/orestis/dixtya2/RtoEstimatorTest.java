@@ -0,0 +1,98 @@
+package com.orestis.dixtya2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of {@link RtoEstimator}, with round trip times made up rather than measured.
+ */
+public class RtoEstimatorTest {
+    static final long MILLIS = 1000000;
+
+    @Test
+    public void usesInitialTimeoutUntilTheFirstSample() {
+        final RtoEstimator rto = new RtoEstimator(3000, 200, 10000);
+        assertEquals(3000, rto.getTimeoutMillis());
+        assertEquals(0, rto.getSamples());
+    }
+
+    @Test
+    public void firstSampleSetsSrttAndHalfOfItAsVariance() {
+        final RtoEstimator rto = new RtoEstimator(3000, 200, 10000);
+        rto.onSample(400 * MILLIS);
+        assertEquals(400 * MILLIS, rto.getSrttNanos());
+        assertEquals(200 * MILLIS, rto.getRttvarNanos());
+        assertEquals(400 + 4 * 200, rto.getTimeoutMillis());
+    }
+
+    @Test
+    public void laterSamplesMoveByAnEighthAndAQuarter() {
+        final RtoEstimator rto = new RtoEstimator(3000, 200, 10000);
+        rto.onSample(400 * MILLIS);
+        rto.onSample(200 * MILLIS);
+        // rttvar += (|400 - 200| - 200) / 4, srtt += (200 - 400) / 8
+        assertEquals(200 * MILLIS, rto.getRttvarNanos());
+        assertEquals(375 * MILLIS, rto.getSrttNanos());
+        assertEquals(375 + 4 * 200, rto.getTimeoutMillis());
+    }
+
+    @Test
+    public void steadyRoundTripsConvergeToTheRoundTrip() {
+        final RtoEstimator rto = new RtoEstimator(3000, 200, 10000);
+        for (int i = 0; i < 200; i++) {
+            rto.onSample(300 * MILLIS);
+        }
+        assertEquals(300 * MILLIS, rto.getSrttNanos());
+        assertEquals(0, rto.getRttvarNanos(), MILLIS);
+        assertEquals(300, rto.getTimeoutMillis(), 1);
+        assertEquals(200, rto.getSamples());
+    }
+
+    @Test
+    public void timeoutIsClampedToTheMinimum() {
+        final RtoEstimator rto = new RtoEstimator(3000, 200, 10000);
+        rto.onSample(MILLIS);
+        assertEquals(200, rto.getTimeoutMillis());
+    }
+
+    @Test
+    public void timeoutIsClampedToTheMaximum() {
+        final RtoEstimator rto = new RtoEstimator(3000, 200, 10000);
+        rto.onSample(5000 * MILLIS);
+        assertEquals(10000, rto.getTimeoutMillis());
+    }
+
+    @Test
+    public void eachTimeoutDoublesTheTimeoutUpToTheMaximum() {
+        final RtoEstimator rto = new RtoEstimator(3000, 200, 10000);
+        rto.onTimeout();
+        assertEquals(6000, rto.getTimeoutMillis());
+        rto.onTimeout();
+        assertEquals(10000, rto.getTimeoutMillis());
+        rto.onTimeout();
+        assertEquals(10000, rto.getTimeoutMillis());
+        assertEquals(3, rto.getTimeouts());
+        // The next sample recomputes the timeout from the round trips.
+        rto.onSample(400 * MILLIS);
+        assertEquals(400 + 4 * 200, rto.getTimeoutMillis());
+    }
+
+    @Test
+    public void backoffStartsFromTheEstimatedTimeout() {
+        final RtoEstimator rto = new RtoEstimator(3000, 200, 10000);
+        rto.onSample(MILLIS);
+        rto.onTimeout();
+        assertEquals(400, rto.getTimeoutMillis());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnInitialTimeoutBelowTheMinimum() {
+        new RtoEstimator(100, 200, 10000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAMaximumBelowTheMinimum() {
+        new RtoEstimator(200, 200, 100);
+    }
+}
@@ -0,0 +1,158 @@
+package com.orestis.dixtya2;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of {@link SessionArchive}, including recovery from appends torn by a killed process.
+ */
+public class SessionArchiveTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    File write(final String contents) throws IOException {
+        final File file = folder.newFile();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+
+    String extract(final SessionArchive archive, final SessionArchive.Record record) throws IOException {
+        final File file = folder.newFile();
+        archive.extract(record, file);
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Append bytes to the end of a file, as an interrupted append would have left them.
+     */
+    static void appendGarbage(final File file, final int length) throws IOException {
+        final RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.seek(out.length());
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+    }
+
+    static File index(final File file) {
+        return new File(file.getPath() + SessionArchive.INDEX_EXTENSION);
+    }
+
+    @Test
+    public void recordsSurviveReopening() throws IOException {
+        final File file = new File(folder.getRoot(), "session.archive");
+        SessionArchive archive = new SessionArchive(file);
+        archive.append(SessionArchive.Type.ECHO, "E1234", write("echo"));
+        archive.append(SessionArchive.Type.IMAGE, "M5678", write("image"));
+        archive.append(SessionArchive.Type.ECHO, "E1234", write(""));
+        archive.close();
+        archive = new SessionArchive(file);
+        try {
+            final List<SessionArchive.Record> records = archive.list();
+            assertEquals(3, records.size());
+            assertEquals(SessionArchive.Type.IMAGE, records.get(1).getType());
+            assertEquals("M5678", records.get(1).getCommand());
+            assertEquals("echo", extract(archive, archive.get(0)));
+            assertEquals("image", extract(archive, archive.get(1)));
+            assertEquals("", extract(archive, archive.get(2)));
+            assertEquals(2, archive.list("E1234", 0, Long.MAX_VALUE).size());
+            assertEquals(0, archive.list("E0000", 0, Long.MAX_VALUE).size());
+            assertEquals(0, archive.list(null, records.get(2).getTimestampMillis() + 1, Long.MAX_VALUE).size());
+        } finally {
+            archive.close();
+        }
+    }
+
+    @Test
+    public void dataAppendedAfterTheLastIndexEntryIsTruncated() throws IOException {
+        final File file = new File(folder.getRoot(), "session.archive");
+        SessionArchive archive = new SessionArchive(file);
+        archive.append(SessionArchive.Type.ECHO, "E1234", write("echo"));
+        archive.close();
+        appendGarbage(file, 100);
+        archive = new SessionArchive(file);
+        try {
+            assertEquals(1, archive.getRecordCount());
+            assertEquals(4, file.length());
+            // The next record starts where the last complete one ended.
+            final SessionArchive.Record record = archive.append(SessionArchive.Type.IMAGE, "M5678", write("image"));
+            assertEquals("image", extract(archive, record));
+        } finally {
+            archive.close();
+        }
+    }
+
+    @Test
+    public void partialIndexEntryIsTruncated() throws IOException {
+        final File file = new File(folder.getRoot(), "session.archive");
+        SessionArchive archive = new SessionArchive(file);
+        archive.append(SessionArchive.Type.ECHO, "E1234", write("echo"));
+        archive.close();
+        final long indexLength = index(file).length();
+        appendGarbage(index(file), SessionArchive.ENTRY_HEADER_SIZE - 1);
+        archive = new SessionArchive(file);
+        try {
+            assertEquals(1, archive.getRecordCount());
+            assertEquals(indexLength, index(file).length());
+            archive.append(SessionArchive.Type.ECHO, "E1234", write("again"));
+        } finally {
+            archive.close();
+        }
+        archive = new SessionArchive(file);
+        try {
+            assertEquals(2, archive.getRecordCount());
+            assertEquals("again", extract(archive, archive.get(1)));
+        } finally {
+            archive.close();
+        }
+    }
+
+    @Test
+    public void indexEntryOfDataNeverWrittenIsTruncated() throws IOException {
+        final File file = new File(folder.getRoot(), "session.archive");
+        SessionArchive archive = new SessionArchive(file);
+        archive.append(SessionArchive.Type.ECHO, "E1234", write("echo"));
+        archive.append(SessionArchive.Type.IMAGE, "M5678", write("image"));
+        archive.close();
+        // Lose the tail of the second record's data, as if it never reached the disk.
+        final RandomAccessFile data = new RandomAccessFile(file, "rw");
+        try {
+            data.setLength(6);
+        } finally {
+            data.close();
+        }
+        archive = new SessionArchive(file);
+        try {
+            assertEquals(1, archive.getRecordCount());
+            assertEquals(4, file.length());
+            assertEquals("echo", extract(archive, archive.get(0)));
+        } finally {
+            archive.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCommandsTooLongForTheIndex() throws IOException {
+        final SessionArchive archive = new SessionArchive(new File(folder.getRoot(), "session.archive"));
+        try {
+            final char[] command = new char[SessionArchive.MAX_COMMAND_LENGTH + 1];
+            Arrays.fill(command, 'E');
+            archive.append(SessionArchive.Type.ECHO, new String(command), write("echo"));
+        } finally {
+            archive.close();
+        }
+    }
+}
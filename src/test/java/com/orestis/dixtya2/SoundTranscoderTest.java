@@ -0,0 +1,162 @@
+package com.orestis.dixtya2;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that {@link SoundTranscoder} decodes in chunks exactly what the live decoders decode packet by packet,
+ * whatever the chunk size, so the carried sample and {@code delta2} are right at every chunk boundary.
+ */
+public class SoundTranscoderTest {
+    static final int PACKETS = 200;
+    static final int[] CHUNK_SIZES = {1, 2, 3, 7, 64, PACKETS - 1, PACKETS, PACKETS + 1};
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Make up packets of random nibbles, with a random mean and a small random step for AQ-DPCM.
+     */
+    static byte[][] packets(final boolean aq, final long seed) {
+        final Random random = new Random(seed);
+        final byte[][] packets = new byte[PACKETS][Decoder.AUDIO_PACKAGE_LENGTH + (aq ? 4 : 0)];
+        for (final byte[] packet : packets) {
+            random.nextBytes(packet);
+            if (aq) {
+                final int step = 1 + random.nextInt(200);
+                packet[2] = AqDpcmDecoder.getLowByte(step);
+                packet[3] = AqDpcmDecoder.getHighByte(step);
+            }
+        }
+        return packets;
+    }
+
+    static Decoder decoder(final boolean aq) {
+        return aq ? new AqDpcmDecoder() : new DpcmDecoder();
+    }
+
+    static int decodedPacketLength(final boolean aq) {
+        return 2 * Decoder.AUDIO_PACKAGE_LENGTH * (aq ? 2 : 1);
+    }
+
+    /**
+     * Decode packets like a download does.
+     *
+     * @param concealed Every how many packets one is concealed instead, 0 for none.
+     * @param recording Where to record the packets, {@code null} for nowhere.
+     */
+    static byte[] decodeLive(final boolean aq, final byte[][] packets, final int concealed,
+                             final SoundRecording recording) {
+        final Decoder decoder = decoder(aq);
+        final int decodedPacketLength = decodedPacketLength(aq);
+        final byte[] decoded = new byte[packets.length * decodedPacketLength];
+        for (int packetId = 0; packetId < packets.length; packetId++) {
+            final int decodedIndex = packetId * decodedPacketLength;
+            if (concealed > 0 && packetId % concealed == concealed - 1) {
+                decoder.conceal(decoded, decodedIndex);
+                if (recording != null) {
+                    recording.append(packets[packetId], 0, 0, SoundRecording.FLAG_CONCEALED, decoded,
+                            decodedIndex);
+                }
+            } else {
+                decoder.decode(packets[packetId], decoded, decodedIndex);
+                if (recording != null) {
+                    recording.append(packets[packetId], packets[packetId].length, 0, 0, decoded, decodedIndex);
+                }
+            }
+        }
+        return decoded;
+    }
+
+    File capture(final byte[][] packets) throws IOException {
+        final File file = new File(folder.getRoot(), "V1234L23F200buffer.data");
+        final byte[] data = new byte[packets.length * packets[0].length];
+        for (int i = 0; i < packets.length; i++) {
+            System.arraycopy(packets[i], 0, data, i * packets[i].length, packets[i].length);
+        }
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    byte[] transcode(final File file, final Boolean aq, final boolean pcm, final int chunkPackets)
+            throws IOException {
+        final File directory = folder.newFolder();
+        assertEquals(PACKETS, SoundTranscoder.transcode(file, directory, aq, pcm, chunkPackets));
+        final File[] outputs = directory.listFiles();
+        assertEquals(1, outputs.length);
+        return Files.readAllBytes(outputs[0].toPath());
+    }
+
+    void assertCaptureMatchesLiveDecoder(final boolean aq) throws IOException {
+        final byte[][] packets = packets(aq, 1);
+        final byte[] expected = decodeLive(aq, packets, 0, null);
+        final File capture = capture(packets);
+        for (final int chunkPackets : CHUNK_SIZES) {
+            assertArrayEquals("Chunks of " + chunkPackets, expected, transcode(capture, aq, true, chunkPackets));
+        }
+    }
+
+    void assertRecordingMatchesLiveDecoder(final boolean aq, final int concealed) throws IOException {
+        final byte[][] packets = packets(aq, concealed);
+        final File file = new File(folder.getRoot(), "V1234L23F200.rec");
+        final SoundRecording recording = SoundRecording.create(file, "V1234L23F200", packets[0].length,
+                decodedPacketLength(aq), PACKETS);
+        final byte[] expected;
+        try {
+            expected = decodeLive(aq, packets, concealed, recording);
+        } finally {
+            recording.close();
+        }
+        for (final int chunkPackets : CHUNK_SIZES) {
+            assertArrayEquals("Chunks of " + chunkPackets + ", every " + concealed + " concealed", expected,
+                    transcode(file, null, true, chunkPackets));
+        }
+    }
+
+    @Test
+    public void dpcmCaptureMatchesTheLiveDecoder() throws IOException {
+        assertCaptureMatchesLiveDecoder(false);
+    }
+
+    @Test
+    public void aqDpcmCaptureMatchesTheLiveDecoder() throws IOException {
+        assertCaptureMatchesLiveDecoder(true);
+    }
+
+    @Test
+    public void dpcmRecordingWithConcealedPacketsMatchesTheLiveDecoder() throws IOException {
+        assertRecordingMatchesLiveDecoder(false, 5);
+        // Every other packet, so that chunks of an even size start right after a concealed one.
+        assertRecordingMatchesLiveDecoder(false, 2);
+        assertRecordingMatchesLiveDecoder(false, 1);
+    }
+
+    @Test
+    public void aqDpcmRecordingWithConcealedPacketsMatchesTheLiveDecoder() throws IOException {
+        assertRecordingMatchesLiveDecoder(true, 5);
+        assertRecordingMatchesLiveDecoder(true, 2);
+        assertRecordingMatchesLiveDecoder(true, 1);
+    }
+
+    @Test
+    public void dpcmWavHoldsUnsignedSamples() throws IOException {
+        final byte[][] packets = packets(false, 3);
+        final byte[] expected = decodeLive(false, packets, 0, null);
+        final byte[] wav = transcode(capture(packets), false, false, 7);
+        assertEquals(SoundTranscoder.WAV_HEADER_SIZE + expected.length, wav.length);
+        assertEquals("RIFF", new String(wav, 0, 4, "US-ASCII"));
+        assertEquals("data", new String(wav, 36, 4, "US-ASCII"));
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("Sample " + i, (byte) (expected[i] ^ 0x80), wav[SoundTranscoder.WAV_HEADER_SIZE + i]);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.orestis.dixtya2;
+
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import java.io.ByteArrayOutputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of {@link StreamingPlayer} playing to a {@link NullAudioSink}, with packets of 32 ms of 8 bit audio.
+ */
+public class StreamingPlayerTest {
+    static final AudioFormat FORMAT = new AudioFormat(8000, 8, 1, true, false);
+    static final int PACKET_BYTES = 256;
+    static final long PACKET_MILLIS = 32;
+
+    static void offer(final StreamingPlayer player, final int packetId) throws InterruptedIOException {
+        final byte[] packet = new byte[PACKET_BYTES];
+        Arrays.fill(packet, (byte) packetId);
+        player.offer(packet, 0);
+    }
+
+    /**
+     * Wait until the sink has been written a number of bytes.
+     */
+    static void awaitWritten(final NullAudioSink sink, final long bytes) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sink.getBytesWritten() < bytes && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(bytes, sink.getBytesWritten());
+    }
+
+    @Test
+    public void playbackStartsOncePrebufferIsFull() throws LineUnavailableException, InterruptedException,
+            InterruptedIOException {
+        final NullAudioSink sink = new NullAudioSink(false);
+        final StreamingPlayer player = new StreamingPlayer(sink, FORMAT, PACKET_BYTES, 4, 8);
+        player.start();
+        for (int packetId = 0; packetId < 3; packetId++) {
+            offer(player, packetId);
+        }
+        Thread.sleep(100);
+        assertEquals(0, sink.getBytesWritten());
+        offer(player, 3);
+        awaitWritten(sink, 4 * PACKET_BYTES);
+        player.finish();
+        assertEquals(4 * PACKET_BYTES, sink.getBytesWritten());
+    }
+
+    @Test
+    public void trackShorterThanThePrebufferPlaysWhenItEnds() throws LineUnavailableException, InterruptedException,
+            InterruptedIOException {
+        final NullAudioSink sink = new NullAudioSink(false);
+        final StreamingPlayer player = new StreamingPlayer(sink, FORMAT, PACKET_BYTES, 4, 8);
+        player.start();
+        offer(player, 0);
+        offer(player, 1);
+        player.finish();
+        assertEquals(2 * PACKET_BYTES, sink.getBytesWritten());
+    }
+
+    @Test
+    public void streamOfferedInTimeNeitherUnderrunsNorIsLate() throws LineUnavailableException,
+            InterruptedException, InterruptedIOException {
+        final NullAudioSink sink = new NullAudioSink(true);
+        final StreamingPlayer player = new StreamingPlayer(sink, FORMAT, PACKET_BYTES, 4, 8);
+        player.start();
+        final long start = System.nanoTime();
+        for (int packetId = 0; packetId < 20; packetId++) {
+            // Each packet arrives a whole prebuffer ahead of its turn.
+            final long sleep = start + TimeUnit.MILLISECONDS.toNanos(Math.max(0, packetId - 4) * PACKET_MILLIS)
+                    - System.nanoTime();
+            if (sleep > 0) {
+                TimeUnit.NANOSECONDS.sleep(sleep);
+            }
+            offer(player, packetId);
+        }
+        player.finish();
+        assertEquals(20 * PACKET_BYTES, sink.getBytesWritten());
+        assertEquals(0, player.getUnderruns());
+        assertEquals(0, player.getLatePackets());
+    }
+
+    @Test
+    public void countsUnderrunsAndLatePackets() throws LineUnavailableException, InterruptedException,
+            InterruptedIOException {
+        final NullAudioSink sink = new NullAudioSink(false);
+        final StreamingPlayer player = new StreamingPlayer(sink, FORMAT, PACKET_BYTES, 2, 8);
+        player.start();
+        offer(player, 0);
+        offer(player, 1);
+        awaitWritten(sink, 2 * PACKET_BYTES);
+        // Both packets have played out well before the third arrives.
+        Thread.sleep(5 * PACKET_MILLIS);
+        offer(player, 2);
+        awaitWritten(sink, 3 * PACKET_BYTES);
+        assertEquals(1, player.getUnderruns());
+        assertEquals(1, player.getLatePackets());
+        // The playout clock restarted at the underrun, but the schedule of late packets is still the first one.
+        offer(player, 3);
+        player.finish();
+        assertEquals(1, player.getUnderruns());
+        assertEquals(2, player.getLatePackets());
+    }
+
+    @Test
+    public void fullBufferMakesTheReceiverWaitInsteadOfDropping() throws LineUnavailableException,
+            InterruptedException, InterruptedIOException {
+        final ByteArrayOutputStream played = new ByteArrayOutputStream();
+        final NullAudioSink sink = new NullAudioSink(false) {
+            @Override
+            public void write(final byte[] data, final int offset, final int length) {
+                super.write(data, offset, length);
+                played.write(data, offset, length);
+                try {
+                    Thread.sleep(1);
+                } catch (final InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        final StreamingPlayer player = new StreamingPlayer(sink, FORMAT, PACKET_BYTES, 2, 3);
+        player.start();
+        final ByteArrayOutputStream offered = new ByteArrayOutputStream();
+        for (int packetId = 0; packetId < 100; packetId++) {
+            offer(player, packetId);
+            final byte[] packet = new byte[PACKET_BYTES];
+            Arrays.fill(packet, (byte) packetId);
+            offered.write(packet, 0, PACKET_BYTES);
+        }
+        player.finish();
+        assertArrayEquals(offered.toByteArray(), played.toByteArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAPrebufferLargerThanTheBuffer() {
+        new StreamingPlayer(new NullAudioSink(false), FORMAT, PACKET_BYTES, 8, 4);
+    }
+}